@@ -4,8 +4,9 @@ import ui.ClientLoop;
 public class Main {
 
     public static void main(String[] args) throws Exception {
-        // args[0] should be the server URL
-        ClientLoop runner = new ClientLoop(args[0], Integer.parseInt(args[1]));
+        // args[0] should be the server URL, args[1] the port, and an optional "--binary" uses the binary websocket protocol
+        boolean binary = args.length > 2 && args[2].equals("--binary");
+        ClientLoop runner = new ClientLoop(args[0], Integer.parseInt(args[1]), binary);
 
         runner.run();
 
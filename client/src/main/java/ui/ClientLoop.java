@@ -26,12 +26,17 @@ public class ClientLoop {
     }
 
     public ClientLoop(String serverUrl, int port) throws Exception {
-        facade = new ServerFacade(serverUrl, port, port);
+        this(serverUrl, port, false);
+    }
+
+    public ClientLoop(String serverUrl, int port, boolean binaryProtocol) throws Exception {
+        facade = new ServerFacade(serverUrl, port, port, binaryProtocol);
     }
 
     public void run() {
         LogoutUI logoutUI = new LogoutUI();
         LoginUI loginUI = new LoginUI();
+        facade.registerObserver(loginUI);
         GameplayUI gameplayUI = new GameplayUI(facade);
         // Listen loop
         String input = "";
@@ -42,6 +47,7 @@ public class ClientLoop {
                 input = System.console().readLine();
 //            }
             try {
+                UIState previous = state;
                 state = switch (state) {
                     case LOG_OUT:
                         yield logoutUI.logoutOptions(input);
@@ -52,6 +58,10 @@ public class ClientLoop {
                     default:
                         yield state;
                 };
+                // Watch the list of games whenever we are logged in and not in a game
+                if (state == UIState.LOG_IN && previous != UIState.LOG_IN) {
+                    loginUI.enterLobby();
+                }
             } catch (Exception e) {
                 System.out.println(SET_TEXT_COLOR_RED + e.getMessage() + RESET_TEXT_COLOR);
             }
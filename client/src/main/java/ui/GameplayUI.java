@@ -3,6 +3,7 @@ package ui;
 import chess.*;
 import websocket.messages.ErrorMessage;
 import websocket.messages.LoadGameMessage;
+import websocket.messages.MoveMessage;
 import websocket.messages.NotificationMessage;
 import websocket.messages.ServerMessage;
 
@@ -296,8 +297,28 @@ public class GameplayUI implements ServerMessageObserver {
         }
     }
 
+    /**
+     * Applies a move sent by the server to the local game
+     * @return false if the move does not follow on from the local game, so the whole game is needed
+     */
+    private static boolean applyMove(MoveMessage moveMessage) {
+        if (game == null || moveMessage.getSeq() != game.getMoveCount() + 1) {
+            return false;
+        }
+        try {
+            game.makeMove(moveMessage.getMove());
+        } catch (InvalidMoveException e) {
+            return false;
+        }
+        return game.isGameOver() == moveMessage.isGameOver();
+    }
+
     @Override
     public void notify(ServerMessage message) {
+        // Lobby messages are for the login UI
+        if (message.getServerMessageType() == ServerMessage.ServerMessageType.LOBBY) {
+            return;
+        }
         // Determine what kind of message this is
         switch (message.getServerMessageType()) {
             case LOAD_GAME -> {
@@ -307,6 +328,16 @@ public class GameplayUI implements ServerMessageObserver {
                 Collection<String> board = convertBoard();
                 drawBoard(board);
             }
+            case MOVE -> {
+                // Apply the move to our copy of the game, unless we have missed one
+                MoveMessage moveMessage = (MoveMessage) message;
+                if (!applyMove(moveMessage)) {
+                    facade.syncGame(ClientLoop.getAuthToken(), gameID);
+                    return;
+                }
+                Collection<String> board = convertBoard();
+                drawBoard(board);
+            }
             case ERROR -> {
                 // Handle error message
                 System.out.println(SET_TEXT_COLOR_RED + "Error: " + ((ErrorMessage) message).getErrorMessage() + RESET_TEXT_COLOR);
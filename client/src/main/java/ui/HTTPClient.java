@@ -7,15 +7,24 @@ import com.google.gson.JsonObject;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
 
 public class HTTPClient {
 
+    /**
+     * Body of an earlier GET, kept so the server can answer 304 when it has not changed
+     */
+    private record CachedBody(String etag, String body) {}
+
     private final String serverUrl;
+    private final Map<String, CachedBody> cache = new ConcurrentHashMap<>();
 
     public HTTPClient(String serverUrl, int port) {
         this.serverUrl = "http://" + serverUrl + ":" + port;
@@ -27,11 +36,27 @@ public class HTTPClient {
             HttpURLConnection http = (HttpURLConnection) url.openConnection();
             http.setRequestMethod(method);
             http.setDoOutput(true);
+            http.setRequestProperty("Accept-Encoding", "gzip");
+
+            boolean cacheable = method.equals("GET");
+            CachedBody cached = cacheable ? cache.get(path) : null;
+            if (cached != null) {
+                http.setRequestProperty("If-None-Match", cached.etag());
+            }
 
             writeBody(request, http);
             http.connect();
+            if (cached != null && http.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                return parse(cached.body(), responseClass);
+            }
             throwIfNotSuccessful(http);
-            return readBody(http, responseClass);
+
+            String body = readBody(http);
+            String etag = http.getHeaderField("ETag");
+            if (cacheable && etag != null && body != null) {
+                cache.put(path, new CachedBody(etag, body));
+            }
+            return parse(body, responseClass);
         }
         catch (ResponseException ex) {
             throw ex;
@@ -47,7 +72,8 @@ public class HTTPClient {
     private void throwIfNotSuccessful(HttpURLConnection http) throws IOException, ResponseException {
         var status = http.getResponseCode();
         if (!isSuccessful(status)) {
-            try (InputStream respErr = http.getErrorStream()) {
+            InputStream errorStream = http.getErrorStream();
+            try (InputStream respErr = errorStream == null ? null : decode(http, errorStream)) {
                 if (respErr != null) {
                     if (status != 500) {
                         String err = new String(respErr.readAllBytes());
@@ -85,20 +111,28 @@ public class HTTPClient {
         }
     }
 
-    private <T> T readBody(HttpURLConnection http, Class<T> responseClass) throws IOException {
-        T response = null;
+    private String readBody(HttpURLConnection http) throws IOException {
+        String body = null;
         if (http.getContentLength() < 0) {
-            try (InputStream respBody = http.getInputStream()) {
-                InputStreamReader reader = new InputStreamReader(respBody);
-                if (responseClass != null) {
-                    GsonBuilder gsonBuilder = new GsonBuilder();
-                    gsonBuilder.registerTypeAdapter(ChessGame.class, new ChessGame.ChessGameAdapter());
-                    gsonBuilder.registerTypeAdapter(ChessGame.class, new ChessGame.ChessGameDeserializer());
-                    Gson serializer = gsonBuilder.create();
-                    response = serializer.fromJson(reader, responseClass);
-                }
+            try (InputStream respBody = decode(http, http.getInputStream())) {
+                body = new String(respBody.readAllBytes(), StandardCharsets.UTF_8);
             }
         }
-        return response;
+        return body;
+    }
+
+    private static InputStream decode(HttpURLConnection http, InputStream stream) throws IOException {
+        return "gzip".equalsIgnoreCase(http.getContentEncoding()) ? new GZIPInputStream(stream) : stream;
+    }
+
+    private <T> T parse(String body, Class<T> responseClass) {
+        if (body == null || responseClass == null) {
+            return null;
+        }
+        GsonBuilder gsonBuilder = new GsonBuilder();
+        gsonBuilder.registerTypeAdapter(ChessGame.class, new ChessGame.ChessGameAdapter());
+        gsonBuilder.registerTypeAdapter(ChessGame.class, new ChessGame.ChessGameDeserializer());
+        Gson serializer = gsonBuilder.create();
+        return serializer.fromJson(body, responseClass);
     }
 }
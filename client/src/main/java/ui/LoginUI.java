@@ -1,18 +1,23 @@
 package ui;
 
-import chess.ChessGame;
 import model.*;
+import websocket.messages.LobbyMessage;
+import websocket.messages.ServerMessage;
 
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 import static ui.EscapeSequences.*;
 
-public class LoginUI {
+public class LoginUI implements ServerMessageObserver {
 
     private final String auth =
             String.format("""
             %screate <NAME>%s - Create a game on the server
-            %slist%s - List available games
+            %slist [more]%s - List games that have not finished, or load the next page of them
             %sjoin <ID> [WHITE|BLACK]%s - Join a game
             %sobserve <ID>%s - Observe a game
             %slogout%s - Log out of account
@@ -23,7 +28,26 @@ public class LoginUI {
                     SET_TEXT_COLOR_GREEN, SET_TEXT_COLOR_BLUE, SET_TEXT_COLOR_GREEN, SET_TEXT_COLOR_BLUE,
                     SET_TEXT_COLOR_GREEN, SET_TEXT_COLOR_BLUE, RESET_TEXT_COLOR);
 
-    HashMap<Integer, Integer> gameMap = new HashMap<>();
+    // Number shown next to each game in the last list, and the game it stands for
+    final Map<Integer, Integer> gameMap = new ConcurrentHashMap<>();
+    // Unfinished games, kept current by the lobby feed while we are logged in and not in a game
+    private final NavigableMap<Integer, LobbyMessage.Game> lobby = new ConcurrentSkipListMap<>();
+    // Where the next page of games starts, if the lobby has not been given all of them
+    private volatile Integer nextCursor = null;
+    private volatile boolean inLobby = false;
+
+    /**
+     * Subscribes to the lobby, which sends the first page of games and then every change to them
+     */
+    public void enterLobby() {
+        inLobby = true;
+        ClientLoop.facade.subscribeLobby(ClientLoop.getAuthToken());
+    }
+
+    private void leaveLobby() {
+        inLobby = false;
+        ClientLoop.facade.unsubscribeLobby(ClientLoop.getAuthToken());
+    }
 
     public ClientLoop.UIState loginOptions(String in) {
         String[] command = ClientLoop.parseCommand(in);
@@ -46,16 +70,26 @@ public class LoginUI {
                 System.out.println(SET_TEXT_COLOR_BLUE + "Created new game: " + name + RESET_TEXT_COLOR);
                 yield ClientLoop.UIState.LOG_IN;
             case "list":
-                // Expect one argument
-                ClientLoop.expectCommandCount(command, 1);
-                gameMap.clear();
-
-                // Send list request
-                ListGamesRequest listRequest = new ListGamesRequest(ClientLoop.getAuthToken());
-                ListGamesResult listResult = ClientLoop.facade.listGames(listRequest);
+                // Expect one argument, or two when asking for the next page
+                boolean more = command.length == 2 && command[1].equals("more");
+                if (!more) {
+                    ClientLoop.expectCommandCount(command, 1);
+                } else if (nextCursor == null) {
+                    throw new IllegalArgumentException("No more games to list.");
+                } else {
+                    // The lobby only sent the first page, so fetch the next one
+                    ListGamesRequest listRequest = new ListGamesRequest(ClientLoop.getAuthToken(), nextCursor, null,
+                            null, null, false);
+                    ListGamesResult listResult = ClientLoop.facade.listGames(listRequest);
+                    for (GameData game : listResult.games()) {
+                        lobby.putIfAbsent(game.gameID(), new LobbyMessage.Game(game.gameID(), game.gameName(),
+                                game.whiteUsername(), game.blackUsername(), false));
+                    }
+                    nextCursor = listResult.nextCursor();
+                }
 
-                // Print the list of games
-                displayGameList(listResult);
+                // Print the list of games the lobby has sent
+                displayGameList(lobby.values());
                 yield ClientLoop.UIState.LOG_IN;
             case "join":
                 // Expect 3 arguments
@@ -69,6 +103,7 @@ public class LoginUI {
                 // Join the game
                 JoinGameRequest joinRequest = new JoinGameRequest(ClientLoop.getAuthToken(), command[2], gameID);
                 ClientLoop.facade.joinGame(joinRequest);
+                leaveLobby();
                 GameplayUI.setRole(command[2]);
                 GameplayUI.setGameID(gameID);
                 ClientLoop.facade.connectWS(ClientLoop.getAuthToken(), gameID);
@@ -81,6 +116,7 @@ public class LoginUI {
 
                 // Observe not implemented
 //                System.out.println(SET_TEXT_COLOR_RED + "Observe not implemented" + RESET_TEXT_COLOR);
+                leaveLobby();
                 GameplayUI.setRole("OBSERVER");
                 GameplayUI.setGameID(gameID);
                 ClientLoop.facade.connectWS(ClientLoop.getAuthToken(), gameID);
@@ -89,7 +125,8 @@ public class LoginUI {
                 // Expect exactly one argument
                 ClientLoop.expectCommandCount(command, 1);
 
-                // Send logout request
+                // Stop watching the lobby, and send logout request
+                leaveLobby();
                 LogoutRequest logoutRequest = new LogoutRequest(ClientLoop.getAuthToken());
                 ClientLoop.facade.logout(logoutRequest);
                 System.out.println(SET_TEXT_COLOR_BLUE + "Logged out" + RESET_TEXT_COLOR);
@@ -113,13 +150,59 @@ public class LoginUI {
         };
     }
 
-    private void displayGameList(ListGamesResult listResult) {
+    @Override
+    public void notify(ServerMessage message) {
+        // Game messages are for the gameplay UI
+        if (!(message instanceof LobbyMessage lobbyMessage) || !inLobby) {
+            return;
+        }
+        LobbyMessage.Game[] games = lobbyMessage.getGames();
+        switch (lobbyMessage.getEvent()) {
+            case SNAPSHOT -> {
+                // Start the list again from the first page
+                lobby.clear();
+                for (LobbyMessage.Game game : games) {
+                    lobby.put(game.gameID(), game);
+                }
+                nextCursor = lobbyMessage.getNextCursor();
+                System.out.println();
+                displayGameList(lobby.values());
+            }
+            case GAME_CREATED -> {
+                for (LobbyMessage.Game game : games) {
+                    lobby.put(game.gameID(), game);
+                    System.out.printf("%n%sNew game: %s%s%n", SET_TEXT_COLOR_BLUE, game.gameName(), RESET_TEXT_COLOR);
+                }
+            }
+            case SEATS_CHANGED -> {
+                for (LobbyMessage.Game game : games) {
+                    lobby.put(game.gameID(), game);
+                    System.out.printf("%n%s%s is now White: %s, Black: %s%s%n", SET_TEXT_COLOR_BLUE, game.gameName(),
+                            playerName(game.whiteUsername()), playerName(game.blackUsername()), RESET_TEXT_COLOR);
+                }
+            }
+            case GAME_FINISHED -> {
+                for (LobbyMessage.Game game : games) {
+                    lobby.remove(game.gameID());
+                    System.out.printf("%n%s%s has finished%s%n", SET_TEXT_COLOR_BLUE, game.gameName(), RESET_TEXT_COLOR);
+                }
+            }
+        }
+        ClientLoop.displayStateString(ClientLoop.UIState.LOG_IN);
+    }
+
+    private static String playerName(String username) {
+        return username == null ? "None" : username;
+    }
+
+    private synchronized void displayGameList(Collection<LobbyMessage.Game> games) {
         int i = 1;
-        if (listResult.games().length == 0) {
+        gameMap.clear();
+        if (games.isEmpty()) {
             System.out.println(SET_TEXT_COLOR_RED + "No games available" + RESET_TEXT_COLOR);
             return;
         }
-        for (GameData game : listResult.games()) {
+        for (LobbyMessage.Game game : games) {
             // Associate i with gameID
             gameMap.put(i, game.gameID());
 
@@ -136,6 +219,9 @@ public class LoginUI {
                     SET_TEXT_COLOR_LIGHT_GREY, RESET_TEXT_COLOR, SET_TEXT_COLOR_BLUE, black, RESET_TEXT_COLOR);
             i++;
         }
+        if (nextCursor != null) {
+            System.out.println(SET_TEXT_COLOR_LIGHT_GREY + "More games available, type 'list more' to see them" + RESET_TEXT_COLOR);
+        }
     }
 
     private int validateGameId(String gameID) {
@@ -6,6 +6,7 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonObject;
 import model.*;
+import websocket.commands.ConnectCommand;
 import websocket.commands.MakeMoveCommand;
 import websocket.commands.UserGameCommand;
 
@@ -16,6 +17,8 @@ import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 
 public class ServerFacade {
 
@@ -23,8 +26,15 @@ public class ServerFacade {
     private final WSClient ws;
 
     public ServerFacade(String serverURL, int httpPort, int wsPort) throws Exception {
+        this(serverURL, httpPort, wsPort, false);
+    }
+
+    /**
+     * @param binaryProtocol Use the compact binary websocket protocol instead of JSON
+     */
+    public ServerFacade(String serverURL, int httpPort, int wsPort, boolean binaryProtocol) throws Exception {
         this.http = new HTTPClient(serverURL, httpPort);
-        this.ws = new WSClient(serverURL, wsPort);
+        this.ws = new WSClient(serverURL, wsPort, binaryProtocol);
     }
 
     public void registerObserver(ServerMessageObserver observer) {
@@ -51,8 +61,22 @@ public class ServerFacade {
     }
 
     public ListGamesResult listGames(ListGamesRequest request) throws ResponseException {
-        var path = "/game";
-        return http.makeRequest("GET", path, request, ListGamesResult.class);
+        // Paging and filters go in the query string, GET requests can't carry a body
+        StringBuilder path = new StringBuilder("/game");
+        appendParam(path, "cursor", request.cursor());
+        appendParam(path, "limit", request.limit());
+        appendParam(path, "open", request.openSeats());
+        appendParam(path, "player", request.player());
+        appendParam(path, "finished", request.finished());
+        return http.makeRequest("GET", path.toString(), new ListGamesRequest(request.authToken()), ListGamesResult.class);
+    }
+
+    private static void appendParam(StringBuilder path, String name, Object value) {
+        if (value == null) {
+            return;
+        }
+        path.append(path.indexOf("?") < 0 ? '?' : '&');
+        path.append(name).append('=').append(URLEncoder.encode(value.toString(), StandardCharsets.UTF_8));
     }
 
     public NewGameResult createGame(NewGameRequest request) throws ResponseException {
@@ -66,8 +90,8 @@ public class ServerFacade {
     }
 
     public void connectWS(String authToken, int gameID) {
-         // send CONNECT message to the websocket
-        UserGameCommand command = new UserGameCommand(UserGameCommand.CommandType.CONNECT, authToken, gameID);
+         // send CONNECT message to the websocket, asking for moves as deltas
+        UserGameCommand command = new ConnectCommand(authToken, gameID, true);
         try {
             ws.send(command);
         } catch (Exception e) {
@@ -95,6 +119,16 @@ public class ServerFacade {
         }
     }
 
+    public void syncGame(String authToken, int gameID) {
+        // send SYNC message to the websocket to get the whole game again
+        UserGameCommand command = new UserGameCommand(UserGameCommand.CommandType.SYNC, authToken, gameID);
+        try {
+            ws.send(command);
+        } catch (Exception e) {
+            throw new RuntimeException("Error sending command to server");
+        }
+    }
+
     public void resignGame(String authToken, int gameID) {
         // send RESIGN message to the websocket
         UserGameCommand command = new UserGameCommand(UserGameCommand.CommandType.RESIGN, authToken, gameID);
@@ -104,4 +138,24 @@ public class ServerFacade {
             throw new RuntimeException("Error sending command to server");
         }
     }
+
+    public void subscribeLobby(String authToken) {
+        // send LOBBY_SUBSCRIBE to get the list of games, and then every change to it
+        UserGameCommand command = new UserGameCommand(UserGameCommand.CommandType.LOBBY_SUBSCRIBE, authToken, null);
+        try {
+            ws.send(command);
+        } catch (Exception e) {
+            throw new RuntimeException("Error sending command to server");
+        }
+    }
+
+    public void unsubscribeLobby(String authToken) {
+        // send LOBBY_UNSUBSCRIBE to stop getting changes to the list of games
+        UserGameCommand command = new UserGameCommand(UserGameCommand.CommandType.LOBBY_UNSUBSCRIBE, authToken, null);
+        try {
+            ws.send(command);
+        } catch (Exception e) {
+            throw new RuntimeException("Error sending command to server");
+        }
+    }
 }
@@ -1,70 +1,159 @@
 package ui;
 
-import chess.ChessGame;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import websocket.messages.ErrorMessage;
+import websocket.BinaryProtocol;
+import websocket.WebSocketJson;
+import websocket.commands.ConnectCommand;
 import websocket.messages.LoadGameMessage;
-import websocket.messages.NotificationMessage;
+import websocket.messages.MoveMessage;
 import websocket.messages.ServerMessage;
 import websocket.commands.UserGameCommand;
 
 import javax.websocket.*;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class WSClient extends Endpoint {
+    private static final int RESUME_ATTEMPTS = 5;
+    private static final long RESUME_DELAY_MILLIS = 2000;
 
     public Session session;
-    private ServerMessageObserver observer;
+    private final List<ServerMessageObserver> observers = new CopyOnWriteArrayList<>();
     private final URI uri;
     private final WebSocketContainer container;
+    // Whether we ask for the binary protocol, and whether the server agreed to it on this connection
+    private final boolean binary;
+    private volatile boolean binaryNegotiated;
+    // Sent with every CONNECT, so the server holds our games for a while if the connection drops
+    private final String resumeToken = UUID.randomUUID().toString();
+    // The game we are connected to, and the move count of the last board we saw in it
+    private volatile ConnectCommand activeConnect;
+    private volatile int lastSeq;
+    // Auth token we subscribed to the lobby with, so the subscription survives a reconnect
+    private volatile String lobbyAuthToken;
 
     public WSClient(String serverURL, int port) throws Exception {
+        this(serverURL, port, false);
+    }
+
+    /**
+     * @param binary Talk to the server in the compact BinaryProtocol format instead of JSON
+     */
+    public WSClient(String serverURL, int port, boolean binary) throws Exception {
         uri = new URI("ws://" + serverURL + ":" + port + "/ws");
         container = ContainerProvider.getWebSocketContainer();
-
-        this.observer = null;
-
+        this.binary = binary;
     }
 
     private void establishConnection() throws Exception{
-        this.session = container.connectToServer(this, uri);
+        ClientEndpointConfig.Builder config = ClientEndpointConfig.Builder.create();
+        if (binary) {
+            config.preferredSubprotocols(List.of(BinaryProtocol.SUBPROTOCOL));
+        }
+        this.session = container.connectToServer(this, config.build(), uri);
+        // A server that does not speak the binary protocol answers without it, so talk JSON to that one
+        binaryNegotiated = binary && BinaryProtocol.SUBPROTOCOL.equals(session.getNegotiatedSubprotocol());
         this.session.addMessageHandler(String.class, this::messageReceived);
+        this.session.addMessageHandler(byte[].class, this::binaryMessageReceived);
     }
 
+    /**
+     * Adds an observer, which is told about every message from the server
+     */
     public void registerObserver(ServerMessageObserver observer) {
-        this.observer = observer;
+        observers.add(observer);
     }
 
     private void messageReceived(String message) {
-        // Deserialize the message
-        GsonBuilder gsonBuilder = new GsonBuilder();
-        gsonBuilder.registerTypeAdapter(ChessGame.class, new ChessGame.ChessGameAdapter());
-        gsonBuilder.registerTypeAdapter(ChessGame.class, new ChessGame.ChessGameDeserializer());
-        Gson serializer = gsonBuilder.create();
-
-        ServerMessage serverMessage = serializer.fromJson(message, ServerMessage.class);
-        if (serverMessage.getServerMessageType() == ServerMessage.ServerMessageType.LOAD_GAME) {
-            serverMessage = serializer.fromJson(message, LoadGameMessage.class);
-        } else if (serverMessage.getServerMessageType() == ServerMessage.ServerMessageType.NOTIFICATION) {
-            serverMessage = serializer.fromJson(message, NotificationMessage.class);
-        } else if (serverMessage.getServerMessageType() == ServerMessage.ServerMessageType.ERROR) {
-            serverMessage = serializer.fromJson(message, ErrorMessage.class);
+        // Deserialize the message, straight into the right message class
+        ServerMessage serverMessage = WebSocketJson.GSON.fromJson(message, ServerMessage.class);
+        deliver(serverMessage);
+    }
+
+    private void binaryMessageReceived(byte[] message) {
+        deliver(BinaryProtocol.decodeMessage(message));
+    }
+
+    private void deliver(ServerMessage serverMessage) {
+        // Keep track of how far along the game we are, to resume from
+        if (serverMessage instanceof LoadGameMessage load && load.getGame() != null) {
+            lastSeq = load.getGame().getMoveCount();
+        } else if (serverMessage instanceof MoveMessage move) {
+            lastSeq = move.getSeq();
         }
-        // Notify the observer
-        if (observer != null) {
+        // Notify the observers
+        for (ServerMessageObserver observer : observers) {
             observer.notify(serverMessage);
         }
     }
 
-    public void send(UserGameCommand command) throws Exception {
-        // Serialize the command
-        String msg = new Gson().toJson(command);
+    public synchronized void send(UserGameCommand command) throws Exception {
         // If the session is closed, reconnect
         if (session == null || !session.isOpen()) {
             establishConnection();
+            // Pick up the game we were in before the connection dropped
+            if (activeConnect != null && !(command instanceof ConnectCommand)) {
+                sendNow(resumeCommand());
+            }
+            if (lobbyAuthToken != null && command.getCommandType() != UserGameCommand.CommandType.LOBBY_SUBSCRIBE) {
+                sendNow(lobbyCommand());
+            }
+        }
+
+        if (command instanceof ConnectCommand connect) {
+            command = new ConnectCommand(connect.getAuthToken(), connect.getGameID(), connect.wantsDeltaUpdates(),
+                    resumeToken, null);
+            activeConnect = (ConnectCommand) command;
+        } else if (command.getCommandType() == UserGameCommand.CommandType.LEAVE) {
+            activeConnect = null;
+        } else if (command.getCommandType() == UserGameCommand.CommandType.LOBBY_SUBSCRIBE) {
+            lobbyAuthToken = command.getAuthToken();
+        } else if (command.getCommandType() == UserGameCommand.CommandType.LOBBY_UNSUBSCRIBE) {
+            lobbyAuthToken = null;
+        }
+        sendNow(command);
+    }
+
+    /**
+     * Reconnects and resumes the game we were in, if the connection has dropped. A lobby subscription is
+     * made again, which sends a fresh snapshot.
+     */
+    public synchronized void resume() throws Exception {
+        if (!hasSubscriptions() || (session != null && session.isOpen())) {
+            return;
+        }
+        establishConnection();
+        if (activeConnect != null) {
+            sendNow(resumeCommand());
         }
+        if (lobbyAuthToken != null) {
+            sendNow(lobbyCommand());
+        }
+    }
+
+    private boolean hasSubscriptions() {
+        return activeConnect != null || lobbyAuthToken != null;
+    }
+
+    private UserGameCommand lobbyCommand() {
+        return new UserGameCommand(UserGameCommand.CommandType.LOBBY_SUBSCRIBE, lobbyAuthToken, null);
+    }
+
+    private ConnectCommand resumeCommand() {
+        return new ConnectCommand(activeConnect.getAuthToken(), activeConnect.getGameID(),
+                activeConnect.wantsDeltaUpdates(), resumeToken, lastSeq);
+    }
+
+    private void sendNow(UserGameCommand command) throws Exception {
+        if (binaryNegotiated) {
+            session.getBasicRemote().sendBinary(ByteBuffer.wrap(BinaryProtocol.encodeCommand(command)));
+            return;
+        }
+        // Serialize the command
+        String msg = WebSocketJson.GSON.toJson(command);
         session.getBasicRemote().sendText(msg);
     }
 
@@ -72,4 +161,25 @@ public class WSClient extends Endpoint {
     public void onOpen(Session session, EndpointConfig endpointConfig) {
 
     }
+
+    @Override
+    public void onClose(Session session, CloseReason closeReason) {
+        if (!hasSubscriptions() || closeReason.getCloseCode() == CloseReason.CloseCodes.NORMAL_CLOSURE) {
+            return;
+        }
+        // The connection dropped while we were in a game or the lobby, so try to get back before the server gives up on us
+        Thread reconnect = new Thread(() -> {
+            for (int attempt = 0; attempt < RESUME_ATTEMPTS && hasSubscriptions(); attempt++) {
+                try {
+                    Thread.sleep(RESUME_DELAY_MILLIS);
+                    resume();
+                    return;
+                } catch (Exception e) {
+                    // Try again after the delay
+                }
+            }
+        }, "ws-resume");
+        reconnect.setDaemon(true);
+        reconnect.start();
+    }
 }
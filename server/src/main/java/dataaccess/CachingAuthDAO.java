@@ -0,0 +1,103 @@
+package dataaccess;
+
+import model.AuthData;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps recently used auth tokens in memory in front of another AuthDAO.
+ * <p>
+ * The cache holds at most maxSize tokens, dropping the least recently used one when it is full, and a
+ * token is looked up again once it has been cached for longer than the TTL. Deleting a token through
+ * this DAO removes it from the cache straight away. Tokens deleted some other way (for example by
+ * another server) can still be accepted until their TTL runs out.
+ * <p>
+ * A lookup that was already reading the backing DAO when a token was deleted does not cache what it read,
+ * so a deleted token is never put back in the cache.
+ */
+public class CachingAuthDAO implements AuthDAO {
+    private record Entry(AuthData auth, long expiresAt) {}
+
+    private final AuthDAO backing;
+    private final long ttlNanos;
+    private final Map<String, Entry> cache;
+    // Counts deletes, so a lookup can tell whether one happened while it read the backing DAO.
+    // Only touched while holding the lock on the cache.
+    private long deletes;
+
+    /**
+     * @param backing DAO the tokens are stored in
+     * @param maxSize Most tokens to keep in memory
+     * @param ttlMillis How long a cached token is trusted before it is looked up again
+     */
+    public CachingAuthDAO(AuthDAO backing, int maxSize, long ttlMillis) {
+        this.backing = backing;
+        this.ttlNanos = ttlMillis * 1_000_000;
+        // Access order makes this an LRU cache
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    @Override
+    public AuthData getAuth(String authToken) throws DataAccessException {
+        long deletesBefore;
+        synchronized (cache) {
+            Entry entry = cache.get(authToken);
+            if (entry != null) {
+                if (entry.expiresAt() - System.nanoTime() > 0) {
+                    return entry.auth();
+                }
+                cache.remove(authToken);
+            }
+            deletesBefore = deletes;
+        }
+
+        // Only tokens that exist are cached, so a new token is never hidden by an earlier miss
+        AuthData auth = backing.getAuth(authToken);
+        if (auth != null) {
+            synchronized (cache) {
+                // The token may have been deleted since it was read
+                if (deletes == deletesBefore) {
+                    remember(auth);
+                }
+            }
+        }
+        return auth;
+    }
+
+    @Override
+    public void createAuth(AuthData auth) throws DataAccessException {
+        backing.createAuth(auth);
+        remember(auth);
+    }
+
+    @Override
+    public void deleteAuth(AuthData auth) throws DataAccessException {
+        // Delete first, so a lookup cannot read the token back from the backing DAO after it is dropped here
+        backing.deleteAuth(auth);
+        synchronized (cache) {
+            deletes++;
+            cache.remove(auth.authToken());
+        }
+    }
+
+    @Override
+    public void clear() throws DataAccessException {
+        backing.clear();
+        synchronized (cache) {
+            deletes++;
+            cache.clear();
+        }
+    }
+
+    private void remember(AuthData auth) {
+        synchronized (cache) {
+            cache.put(auth.authToken(), new Entry(auth, System.nanoTime() + ttlNanos));
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package dataaccess;
 
+import util.Metrics;
+
 import java.sql.*;
 import java.util.Properties;
 
@@ -8,6 +10,9 @@ public class DatabaseManager {
     private static final String USER;
     private static final String PASSWORD;
     private static final String CONNECTION_URL;
+    private static final SqlDialect DIALECT;
+    private static final Metrics.Histogram CONNECTIONS = Metrics.histogram("chess_db_connection_seconds",
+            "Time to open and set up each database connection");
 
     /*
      * Load the database information for the db.properties file.
@@ -23,10 +28,8 @@ public class DatabaseManager {
                 DATABASE_NAME = props.getProperty("db.name");
                 USER = props.getProperty("db.user");
                 PASSWORD = props.getProperty("db.password");
-
-                var host = props.getProperty("db.host");
-                var port = Integer.parseInt(props.getProperty("db.port"));
-                CONNECTION_URL = String.format("jdbc:mysql://%s:%d", host, port);
+                DIALECT = SqlDialect.valueOf(props.getProperty("db.dialect", "mysql").toUpperCase());
+                CONNECTION_URL = DIALECT.connectionUrl(props);
             }
         } catch (Exception ex) {
             throw new RuntimeException("unable to process db.properties. " + ex.getMessage());
@@ -38,7 +41,7 @@ public class DatabaseManager {
      */
     static void createDatabase() throws DataAccessException {
         try {
-            var statement = "CREATE DATABASE IF NOT EXISTS " + DATABASE_NAME;
+            var statement = DIALECT.createDatabaseStatement(DATABASE_NAME);
             var conn = DriverManager.getConnection(CONNECTION_URL, USER, PASSWORD);
             try (var preparedStatement = conn.prepareStatement(statement)) {
                 preparedStatement.executeUpdate();
@@ -48,6 +51,13 @@ public class DatabaseManager {
         }
     }
 
+    /**
+     * Gets the fetch size that makes the configured database stream a result set's rows
+     */
+    static int getStreamingFetchSize() {
+        return DIALECT.streamingFetchSize();
+    }
+
     /**
      * Create a connection to the database and sets the catalog based upon the
      * properties specified in db.properties. Connections to the database should
@@ -61,12 +71,15 @@ public class DatabaseManager {
      * </code>
      */
     static Connection getConnection() throws DataAccessException {
+        long start = System.nanoTime();
         try {
             var conn = DriverManager.getConnection(CONNECTION_URL, USER, PASSWORD);
-            conn.setCatalog(DATABASE_NAME);
+            DIALECT.selectDatabase(conn, DATABASE_NAME);
             return conn;
         } catch (SQLException e) {
             throw new DataAccessException(e.getMessage());
+        } finally {
+            CONNECTIONS.observeSince(start);
         }
     }
 }
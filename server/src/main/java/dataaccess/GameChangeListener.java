@@ -0,0 +1,21 @@
+package dataaccess;
+
+import model.GameData;
+
+/**
+ * Told about changes made through a VersionedGameDAO, after they have been made
+ */
+public interface GameChangeListener {
+    /**
+     * Called when a game is created or updated, which includes players joining or leaving and a resign.
+     * A move is only passed on when it ends the game, so listeners do not hear about the moves of a
+     * game in progress.
+     * @param game The game as it is now. May still be encoded when only its players changed.
+     */
+    void gameChanged(GameData game);
+
+    /**
+     * Every game has been removed
+     */
+    void gamesCleared();
+}
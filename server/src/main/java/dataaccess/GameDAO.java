@@ -1,12 +1,30 @@
 package dataaccess;
 
+import chess.ChessMove;
 import model.GameData;
 import java.util.Collection;
+import java.util.function.Consumer;
 
 public interface GameDAO {
     Collection<GameData> listGames() throws DataAccessException;
+    Collection<GameData> listGames(GameQuery query) throws DataAccessException;
+
+    /**
+     * Calls action with each game in a page as it is read, so the page never has to be held in memory at once
+     */
+    default void forEachGame(GameQuery query, Consumer<GameData> action) throws DataAccessException {
+        listGames(query).forEach(action);
+    }
+
+    /**
+     * @return The largest gameID in use, or 0 if there are no games
+     */
+    int maxGameID() throws DataAccessException;
+
     void createGame(GameData game) throws DataAccessException;
     GameData getGame(int gameID) throws DataAccessException;
     void updateGame(GameData game) throws DataAccessException;
+    void updateGames(Collection<GameData> games) throws DataAccessException;
+    void recordMove(GameData game, ChessMove move) throws DataAccessException;
     void clear() throws DataAccessException;
 }
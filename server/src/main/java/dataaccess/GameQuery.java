@@ -0,0 +1,14 @@
+package dataaccess;
+
+/**
+ * Describes one page of a game listing. Pages are keyed on gameID, so the next page starts
+ * after the last gameID that was returned. Null filters are not applied.
+ *
+ * @param afterGameID Only return games with a gameID greater than this, or null to start at the beginning
+ * @param limit Maximum number of games to return
+ * @param openSeats If set, only return games that do (true) or do not (false) have an open seat
+ * @param player If set, only return games this username is playing in
+ * @param finished If set, only return games that are (true) or are not (false) over
+ */
+public record GameQuery(Integer afterGameID, int limit, Boolean openSeats, String player, Boolean finished) {
+}
@@ -2,41 +2,29 @@ package dataaccess;
 
 import model.AuthData;
 
-import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class MemoryAuthDAO implements AuthDAO{
-    static Collection<AuthData> auths = new ArrayList<>();
+    // Auth data by auth token
+    static Map<String, AuthData> auths = new ConcurrentHashMap<>();
 
     @Override
     public AuthData getAuth(String authToken) {
-        AuthData locatedAuth = null;
-
-        // Find auth data in the auths list
-        for (AuthData auth : auths) {
-            if (auth.authToken().equals(authToken)) {
-                locatedAuth = auth;
-                break;
-            }
-        }
-
-        return locatedAuth;
+        return authToken == null ? null : auths.get(authToken);
     }
 
     @Override
     public void createAuth(AuthData auth) {
-        auths.add(auth);
+        auths.put(auth.authToken(), auth);
     }
 
     @Override
     public void deleteAuth(AuthData auth) throws DataAccessException {
         // Throw exception if auth does not exist
-        if (!auths.contains(auth)) {
+        if (!auths.remove(auth.authToken(), auth)) {
             throw new DataAccessException("Auth does not exist");
         }
-
-        // Delete the auth
-        auths.remove(auth);
     }
 
     @Override
@@ -1,52 +1,134 @@
 package dataaccess;
 
+import chess.ChessGame;
+import chess.ChessGameCodec;
+import chess.ChessMove;
 import model.GameData;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
+/**
+ * Keeps games in memory, in gameID order. Each game is stored as its own encoded copy, so changes made
+ * to a GameData after it was stored, or after it was read, never reach the stored game. Like the
+ * database, reads hand back a new GameData that decodes the game when it is first used, and listings
+ * only need the stored copies' players and finished flags.
+ */
 public class MemoryGameDAO implements GameDAO{
 
-    static Collection<GameData> games = new ArrayList<>();
+    /**
+     * A copy of a game as it was stored
+     * @param finished Whether the game was over, kept so listings do not have to decode it
+     */
+    private record StoredGame(byte[] encodedGame, String gameName, String blackUsername, String whiteUsername,
+                              int gameID, boolean finished) {
+        /**
+         * @param previous The game as it was stored before, or null if it is new
+         */
+        static StoredGame of(GameData game, StoredGame previous) {
+            // A game that was never decoded has not changed since it was read, so it is as finished as it was
+            if (!game.isGameLoaded()) {
+                return new StoredGame(game.encodedGame(), game.gameName(), game.blackUsername(),
+                        game.whiteUsername(), game.gameID(), previous != null && previous.finished());
+            }
+            ChessGame chessGame = game.game();
+            return new StoredGame(ChessGameCodec.encode(chessGame), game.gameName(), game.blackUsername(),
+                    game.whiteUsername(), game.gameID(), chessGame.isGameOver());
+        }
 
-    @Override
-    public Collection<GameData> listGames() {
-        return games;
+        GameData toGameData() {
+            return new GameData(encodedGame, gameName, blackUsername, whiteUsername, gameID);
+        }
     }
 
+    // Games by gameID
+    static ConcurrentNavigableMap<Integer, StoredGame> games = new ConcurrentSkipListMap<>();
+
     @Override
-    public void createGame(GameData game) {
-        games.add(game);
+    public Collection<GameData> listGames() {
+        Collection<GameData> all = new ArrayList<>();
+        for (StoredGame game : games.values()) {
+            all.add(game.toGameData());
+        }
+        return all;
     }
 
     @Override
-    public GameData getGame(int gameID) {
-        GameData locatedGame = null;
+    public Collection<GameData> listGames(GameQuery query) {
+        Collection<GameData> page = new ArrayList<>();
 
-        // Try to find game in list
-        for (GameData game : games) {
-            if (game.gameID() == gameID) {
-                locatedGame = game;
+        // Walk the games after the cursor in gameID order, keeping the ones that match the query
+        Map<Integer, StoredGame> after = query.afterGameID() == null
+                ? games
+                : games.tailMap(query.afterGameID(), false);
+        for (StoredGame game : after.values()) {
+            if (page.size() >= query.limit()) {
                 break;
             }
+            if (matches(game, query)) {
+                page.add(game.toGameData());
+            }
         }
 
-        return locatedGame;
+        return page;
+    }
+
+    private static boolean matches(StoredGame game, GameQuery query) {
+        if (query.openSeats() != null) {
+            boolean open = game.whiteUsername() == null || game.blackUsername() == null;
+            if (open != query.openSeats()) {
+                return false;
+            }
+        }
+        if (query.player() != null && !query.player().equals(game.whiteUsername())
+                && !query.player().equals(game.blackUsername())) {
+            return false;
+        }
+        return query.finished() == null || game.finished() == query.finished();
     }
 
     @Override
-    public void updateGame(GameData game) throws DataAccessException {
-        // Find the game matching this game's gameID
-        GameData gameToUpdate = getGame(game.gameID());
+    public void createGame(GameData game) throws DataAccessException {
+        // Game IDs are unique, like the primary key in the database
+        if (games.putIfAbsent(game.gameID(), StoredGame.of(game, null)) != null) {
+            throw new DataAccessException("Game already exists");
+        }
+    }
+
+    @Override
+    public int maxGameID() {
+        Map.Entry<Integer, StoredGame> last = games.lastEntry();
+        return last == null ? 0 : last.getKey();
+    }
+
+    @Override
+    public GameData getGame(int gameID) {
+        StoredGame game = games.get(gameID);
+        return game == null ? null : game.toGameData();
+    }
 
-        // Throw exception if we did not find it
-        if (gameToUpdate == null) {
+    @Override
+    public void updateGame(GameData game) throws DataAccessException {
+        // Throw exception if the game does not exist
+        if (games.computeIfPresent(game.gameID(), (gameID, stored) -> StoredGame.of(game, stored)) == null) {
             throw new DataAccessException("Game does not exist");
         }
+    }
+
+    @Override
+    public void updateGames(Collection<GameData> updatedGames) throws DataAccessException {
+        for (GameData game : updatedGames) {
+            updateGame(game);
+        }
+    }
 
-        // Remove the game we found from the database, and add the updated version
-        games.remove(gameToUpdate);
-        createGame(game);
+    @Override
+    public void recordMove(GameData game, ChessMove move) throws DataAccessException {
+        // The game is held in memory, so there is no log to append to
+        updateGame(game);
     }
 
     @Override
@@ -2,30 +2,34 @@ package dataaccess;
 
 import model.UserData;
 
-import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class MemoryUserDAO implements UserDAO{
 
-    static Collection<UserData> users = new ArrayList<>();
+    // Users by username
+    static Map<String, UserData> users = new ConcurrentHashMap<>();
 
     @Override
     public UserData getUser(String username) {
-        UserData locatedUser = null;
-
-        // Find username in the user array
-        for (UserData user : users) {
-            if (user.username().equals(username)) {
-                locatedUser = user;
-                break;
-            }
+        return username == null ? null : users.get(username);
+    }
+
+    @Override
+    public void createUser(UserData user) throws DataAccessException {
+        // Usernames are unique, like the primary key in the database
+        if (users.putIfAbsent(user.username(), user) != null) {
+            throw new DataAccessException("User already exists");
         }
-        return locatedUser;
     }
 
     @Override
-    public void createUser(UserData user) {
-        users.add(user);
+    public void updatePassword(String username, String passwordHash) throws DataAccessException {
+        UserData updated = users.computeIfPresent(username,
+                (name, user) -> new UserData(name, passwordHash, user.email()));
+        if (updated == null) {
+            throw new DataAccessException("User does not exist");
+        }
     }
 
     @Override
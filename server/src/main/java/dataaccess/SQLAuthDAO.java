@@ -71,7 +71,7 @@ public class SQLAuthDAO extends SQLDAO implements AuthDAO{
     @Override
     public void clear() throws DataAccessException{
         try (var conn = getConnection()) {
-            var statement = "TRUNCATE auth";
+            var statement = "TRUNCATE TABLE auth";
             try (var ps = conn.prepareStatement(statement)) {
                 ps.executeUpdate();
             }
@@ -7,11 +7,13 @@ import static dataaccess.DatabaseManager.getConnection;
 
 public class SQLDAO {
 
-    public SQLDAO(String createStatement) throws DataAccessException {
+    public SQLDAO(String... createStatements) throws DataAccessException {
         createDatabase();
         try (var conn = getConnection()) {
-            try (var preparedStatement = conn.prepareStatement(createStatement)) {
-                preparedStatement.executeUpdate();
+            for (String createStatement : createStatements) {
+                try (var preparedStatement = conn.prepareStatement(createStatement)) {
+                    preparedStatement.executeUpdate();
+                }
             }
         } catch (SQLException ex) {
             throw new DataAccessException(String.format("Unable to create table: %s", ex.getMessage()));
@@ -1,13 +1,24 @@
 package dataaccess;
 
 import chess.ChessGame;
+import chess.ChessGameCodec;
+import chess.ChessMove;
+import chess.InvalidMoveException;
 import com.google.gson.GsonBuilder;
 import model.GameData;
+import util.ServerConfig;
 
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
 import com.google.gson.Gson;
 
 import static dataaccess.DatabaseManager.getConnection;
@@ -18,42 +29,210 @@ public class SQLGameDAO extends SQLDAO implements GameDAO {
             """
             CREATE TABLE IF NOT EXISTS game (
                 `json` TEXT DEFAULT NULL,
+                `state` BLOB DEFAULT NULL,
+                `format` tinyint NOT NULL DEFAULT 0,
                 `name` varchar(32) NOT NULL,
                 `blackUsername` varchar(32) DEFAULT NULL,
                 `whiteUsername` varchar(32) DEFAULT NULL,
                 `gameId` int NOT NULL,
-                PRIMARY KEY (`gameId`)
+                `finished` boolean NOT NULL DEFAULT FALSE,
+                `snapshotSeq` int NOT NULL DEFAULT 0,
+                PRIMARY KEY (`gameId`),
+                INDEX `idx_game_white` (`whiteUsername`, `gameId`),
+                INDEX `idx_game_black` (`blackUsername`, `gameId`),
+                INDEX `idx_game_finished` (`finished`, `gameId`)
             )
             """;
 
+    private static final String CREATE_MOVE_STATEMENT =
+            """
+            CREATE TABLE IF NOT EXISTS game_move (
+                `gameId` int NOT NULL,
+                `seq` int NOT NULL,
+                `moveCode` smallint NOT NULL,
+                `playedAt` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,
+                PRIMARY KEY (`gameId`, `seq`)
+            )
+            """;
+
+    // Columns and indexes added since the first version of the game table, with the statements that add
+    // them to a table made before they existed
+    private static final String[][] ADDED_COLUMNS = {
+            {"state", "ALTER TABLE game ADD COLUMN `state` BLOB DEFAULT NULL"},
+            {"format", "ALTER TABLE game ADD COLUMN `format` tinyint NOT NULL DEFAULT 0"},
+            {"finished", "ALTER TABLE game ADD COLUMN `finished` boolean NOT NULL DEFAULT FALSE"},
+            {"snapshotSeq", "ALTER TABLE game ADD COLUMN `snapshotSeq` int NOT NULL DEFAULT 0"}
+    };
+    private static final String[][] ADDED_INDEXES = {
+            {"idx_game_white", "CREATE INDEX `idx_game_white` ON game (`whiteUsername`, `gameId`)"},
+            {"idx_game_black", "CREATE INDEX `idx_game_black` ON game (`blackUsername`, `gameId`)"},
+            {"idx_game_finished", "CREATE INDEX `idx_game_finished` ON game (`finished`, `gameId`)"}
+    };
+
+    // Values of the format column. Rows written before the state column existed hold JSON.
+    private static final int FORMAT_JSON = 0;
+    private static final int FORMAT_BINARY = 1;
+
+    // Columns needed when the board itself is not wanted
+    private static final String SUMMARY_COLUMNS = "name, blackUsername, whiteUsername, gameId";
+
+    private static final Gson LEGACY_SERIALIZER = new GsonBuilder()
+            .registerTypeAdapter(ChessGame.class, new ChessGame.ChessGameDeserializer())
+            .create();
+
+    private final int snapshotInterval;
+
+    /**
+     * Creates a game DAO that logs game.snapshotInterval moves (from server.properties) between board
+     * snapshots. Zero, the default, stores the whole board after every move.
+     */
     public SQLGameDAO() throws DataAccessException {
-        super(CREATE_STATEMENT);
+        this(ServerConfig.getInt("game.snapshotInterval", 0));
+    }
+
+    /**
+     * Creates a game DAO
+     * @param snapshotInterval If greater than zero, moves are appended to the game_move table and the board
+     *                         is only rewritten every this many moves. Otherwise every move rewrites the board.
+     */
+    public SQLGameDAO(int snapshotInterval) throws DataAccessException {
+        super(CREATE_STATEMENT, CREATE_MOVE_STATEMENT);
+        this.snapshotInterval = snapshotInterval;
+        migrate();
+    }
+
+    /**
+     * Adds any columns and indexes missing from a game table made by an older version of the server.
+     * Existing rows keep their JSON (format 0) until they are next written, but are marked finished now
+     * so the finished filter is right for them straight away.
+     */
+    private static void migrate() throws DataAccessException {
+        try (var conn = getConnection()) {
+            DatabaseMetaData meta = conn.getMetaData();
+            String table = meta.storesUpperCaseIdentifiers() ? "GAME" : "game";
+            Set<String> columns;
+            try (var rs = meta.getColumns(conn.getCatalog(), conn.getSchema(), table, null)) {
+                columns = readNames(rs, "COLUMN_NAME");
+            }
+            Set<String> indexes;
+            try (var rs = meta.getIndexInfo(conn.getCatalog(), conn.getSchema(), table, false, false)) {
+                indexes = readNames(rs, "INDEX_NAME");
+            }
+
+            boolean addingFinished = !columns.contains("finished");
+            for (String[] column : ADDED_COLUMNS) {
+                if (!columns.contains(column[0].toLowerCase())) {
+                    try (var ps = conn.prepareStatement(column[1])) {
+                        ps.executeUpdate();
+                    }
+                }
+            }
+            for (String[] index : ADDED_INDEXES) {
+                if (!indexes.contains(index[0])) {
+                    try (var ps = conn.prepareStatement(index[1])) {
+                        ps.executeUpdate();
+                    }
+                }
+            }
+            if (addingFinished) {
+                markFinishedGames(conn);
+            }
+        } catch (SQLException ex) {
+            throw new DataAccessException(String.format("Unable to update game table: %s", ex.getMessage()));
+        }
+    }
+
+    private static Set<String> readNames(ResultSet rs, String column) throws SQLException {
+        Set<String> names = new HashSet<>();
+        while (rs.next()) {
+            String name = rs.getString(column);
+            if (name != null) {
+                names.add(name.toLowerCase());
+            }
+        }
+        return names;
     }
 
+    /**
+     * Sets the finished column of JSON rows from the game they hold
+     */
+    private static void markFinishedGames(Connection conn) throws SQLException {
+        List<Integer> finished = new ArrayList<>();
+        try (var ps = conn.prepareStatement("SELECT gameId, json FROM game WHERE format = ? AND json IS NOT NULL")) {
+            ps.setInt(1, FORMAT_JSON);
+            try (var rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    if (LEGACY_SERIALIZER.fromJson(rs.getString("json"), ChessGame.class).isGameOver()) {
+                        finished.add(rs.getInt("gameId"));
+                    }
+                }
+            }
+        }
+        try (var ps = conn.prepareStatement("UPDATE game SET finished = TRUE WHERE gameId = ?")) {
+            for (int gameID : finished) {
+                ps.setInt(1, gameID);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    /**
+     * Reads the game from the current row, along with any moves made since its last snapshot. Each
+     * row of the result set holds one of those moves, so this moves through the whole result set.
+     */
     private GameData readGame(ResultSet rs) throws SQLException {
-        String json = rs.getString("json");
         String name = rs.getString("name");
         String white = rs.getString("whiteUsername");
         String black = rs.getString("blackUsername");
         int gameId = rs.getInt("gameId");
+        int format = rs.getInt("format");
+        byte[] state = rs.getBytes("state");
+        String json = rs.getString("json");
+
+        List<Integer> tail = new ArrayList<>();
+        do {
+            int move = rs.getInt("moveCode");
+            if (!rs.wasNull()) {
+                tail.add(move);
+            }
+        } while (rs.next());
+        int[] moves = tail.stream().mapToInt(Integer::intValue).toArray();
+
+        if (format == FORMAT_BINARY) {
+            // Leave the board encoded until someone asks for it, the moves are replayed when it is decoded
+            return new GameData(ChessGameCodec.appendMoves(state, moves), name, black, white, gameId);
+        }
 
-        GsonBuilder gsonBuilder = new GsonBuilder();
-        gsonBuilder.registerTypeAdapter(ChessGame.class, new ChessGame.ChessGameAdapter());
-        gsonBuilder.registerTypeAdapter(ChessGame.class, new ChessGame.ChessGameDeserializer());
-        Gson gson = gsonBuilder.create();
-        ChessGame game = gson.fromJson(json, ChessGame.class);
+        // Older rows are converted to the binary format the next time they are written
+        ChessGame game = LEGACY_SERIALIZER.fromJson(json, ChessGame.class);
+        try {
+            for (int move : moves) {
+                game.makeMove(ChessGameCodec.decodeMove(move));
+            }
+        } catch (InvalidMoveException ex) {
+            throw new SQLException("Unable to replay move log: " + ex.getMessage());
+        }
         return new GameData(game, name, black, white, gameId);
     }
 
+    private GameData readSummary(ResultSet rs) throws SQLException {
+        return new GameData((byte[]) null, rs.getString("name"), rs.getString("blackUsername"),
+                rs.getString("whiteUsername"), rs.getInt("gameId"));
+    }
+
+    /**
+     * Lists every game. Listings only carry the name and players, not the board.
+     */
     @Override
     public Collection<GameData> listGames() throws DataAccessException {
         var result = new ArrayList<GameData>();
         try (var conn = DatabaseManager.getConnection()) {
-            var statement = "SELECT * FROM game";
+            var statement = "SELECT " + SUMMARY_COLUMNS + " FROM game";
             try (var ps = conn.prepareStatement(statement)) {
                 try (var rs = ps.executeQuery()) {
                     while (rs.next()) {
-                        result.add(readGame(rs));
+                        result.add(readSummary(rs));
                     }
                 }
             }
@@ -63,20 +242,79 @@ public class SQLGameDAO extends SQLDAO implements GameDAO {
         return result;
     }
 
+    /**
+     * Lists one page of games. Listings only carry the name and players, not the board.
+     */
+    @Override
+    public Collection<GameData> listGames(GameQuery query) throws DataAccessException {
+        var result = new ArrayList<GameData>();
+        forEachGame(query, result::add);
+        return result;
+    }
+
+    /**
+     * Reads one page of games through a streaming cursor, handing each to action as its row arrives.
+     * The connection stays open until the last row has been handled.
+     */
+    @Override
+    public void forEachGame(GameQuery query, Consumer<GameData> action) throws DataAccessException {
+        // Build the WHERE clause from the filters that were set
+        var conditions = new ArrayList<String>();
+        var params = new ArrayList<Object>();
+        if (query.afterGameID() != null) {
+            conditions.add("gameId > ?");
+            params.add(query.afterGameID());
+        }
+        if (query.openSeats() != null) {
+            conditions.add(query.openSeats()
+                    ? "(whiteUsername IS NULL OR blackUsername IS NULL)"
+                    : "(whiteUsername IS NOT NULL AND blackUsername IS NOT NULL)");
+        }
+        if (query.player() != null) {
+            conditions.add("(whiteUsername = ? OR blackUsername = ?)");
+            params.add(query.player());
+            params.add(query.player());
+        }
+        if (query.finished() != null) {
+            conditions.add("finished = ?");
+            params.add(query.finished());
+        }
+
+        var statement = "SELECT " + SUMMARY_COLUMNS + " FROM game"
+                + (conditions.isEmpty() ? "" : " WHERE " + String.join(" AND ", conditions))
+                + " ORDER BY gameId LIMIT ?";
+        params.add(query.limit());
+
+        try (var conn = getConnection()) {
+            try (var ps = conn.prepareStatement(statement, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                ps.setFetchSize(DatabaseManager.getStreamingFetchSize());
+                for (int i = 0; i < params.size(); i++) {
+                    ps.setObject(i + 1, params.get(i));
+                }
+                try (var rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        action.accept(readSummary(rs));
+                    }
+                }
+            }
+        } catch (SQLException ex) {
+            throw new DataAccessException(String.format("Unable to read data: %s", ex.getMessage()));
+        }
+    }
+
     @Override
     public void createGame(GameData game) throws DataAccessException{
         try (var conn = getConnection()) {
-            var statement = "INSERT INTO game (json, name, blackUsername, whiteUsername, gameId) VALUES (?, ?, ?, ?, ?)";
+            var statement = "INSERT INTO game (state, format, name, blackUsername, whiteUsername, gameId, finished) VALUES (?, ?, ?, ?, ?, ?, ?)";
             try (var ps = conn.prepareStatement(statement)) {
-                GsonBuilder gsonBuilder = new GsonBuilder();
-                gsonBuilder.registerTypeAdapter(ChessGame.class, new ChessGame.ChessGameAdapter());
-                Gson gson = gsonBuilder.create();
-                var json = gson.toJson(game.game());
-                ps.setString(1, json);
-                ps.setString(2, game.gameName());
-                ps.setString(3, game.blackUsername());
-                ps.setString(4, game.whiteUsername());
-                ps.setInt(5, game.gameID());
+                byte[] state = game.encodedGame();
+                ps.setBytes(1, state);
+                ps.setInt(2, FORMAT_BINARY);
+                ps.setString(3, game.gameName());
+                ps.setString(4, game.blackUsername());
+                ps.setString(5, game.whiteUsername());
+                ps.setInt(6, game.gameID());
+                ps.setBoolean(7, ChessGameCodec.isGameOver(state));
                 ps.executeUpdate();
             }
         } catch (SQLException ex) {
@@ -84,10 +322,27 @@ public class SQLGameDAO extends SQLDAO implements GameDAO {
         }
     }
 
+    @Override
+    public int maxGameID() throws DataAccessException {
+        try (var conn = getConnection()) {
+            try (var ps = conn.prepareStatement("SELECT MAX(gameId) FROM game")) {
+                try (var rs = ps.executeQuery()) {
+                    // MAX of no rows is NULL, which reads as 0
+                    return rs.next() ? rs.getInt(1) : 0;
+                }
+            }
+        } catch (SQLException ex) {
+            throw new DataAccessException(String.format("Unable to read data: %s", ex.getMessage()));
+        }
+    }
+
     @Override
     public GameData getGame(int gameID) throws DataAccessException{
         try (var conn = getConnection()) {
-            var statement = "SELECT * FROM game where gameId=?";
+            var statement = """
+                    SELECT g.*, m.moveCode FROM game g
+                    LEFT JOIN game_move m ON m.gameId = g.gameId AND m.seq > g.snapshotSeq
+                    WHERE g.gameId=? ORDER BY m.seq""";
             try (var ps = conn.prepareStatement(statement)) {
                 ps.setInt(1, gameID);
                 try (var rs = ps.executeQuery()) {
@@ -102,21 +357,132 @@ public class SQLGameDAO extends SQLDAO implements GameDAO {
         }
     }
 
+    /**
+     * Updates a game. If the board was never decoded it cannot have changed, so only the players are written.
+     */
     @Override
     public void updateGame(GameData game) throws DataAccessException {
+        if (!game.isGameLoaded()) {
+            updatePlayers(game);
+            return;
+        }
+        updateBoard(game);
+    }
+
+    private void updateBoard(GameData game) throws DataAccessException {
         try (var conn = getConnection()) {
-            var statement = "UPDATE game SET json=?, whiteUsername=?, blackUsername=? WHERE gameId=?";
-            try (var ps = conn.prepareStatement(statement)) {
-                GsonBuilder gsonBuilder = new GsonBuilder();
-                gsonBuilder.registerTypeAdapter(ChessGame.class, new ChessGame.ChessGameAdapter());
-                Gson gson = gsonBuilder.create();
-                var json = gson.toJson(game.game());
-                ps.setString(1, json);
-                ps.setString(2, game.whiteUsername());
-                ps.setString(3, game.blackUsername());
-                ps.setInt(4, game.gameID());
-                int rows = ps.executeUpdate();
-                if (rows == 0) {
+            writeSnapshot(conn, game);
+        } catch (SQLException ex) {
+            throw new DataAccessException(String.format("Unable to update game: %s", ex.getMessage()));
+        }
+    }
+
+    /**
+     * Saves a move that has already been made on the game. In move log mode this appends the move to
+     * the game_move table, and only rewrites the board every snapshotInterval moves or when the game ends.
+     */
+    @Override
+    public void recordMove(GameData game, ChessMove move) throws DataAccessException {
+        if (snapshotInterval <= 0) {
+            // The game may still be encoded, but a move always changes the board
+            updateBoard(game);
+            return;
+        }
+
+        ChessGame chessGame = game.game();
+        int seq = chessGame.getMoveCount();
+        try (var conn = getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                var statement = "INSERT INTO game_move (gameId, seq, moveCode) VALUES (?, ?, ?)";
+                try (var ps = conn.prepareStatement(statement)) {
+                    ps.setInt(1, game.gameID());
+                    ps.setInt(2, seq);
+                    ps.setInt(3, ChessGameCodec.encodeMove(move));
+                    ps.executeUpdate();
+                }
+                if (seq % snapshotInterval == 0 || chessGame.isGameOver()) {
+                    writeSnapshot(conn, game);
+                }
+                conn.commit();
+            } catch (SQLException | DataAccessException ex) {
+                conn.rollback();
+                throw ex;
+            }
+        } catch (SQLException ex) {
+            throw new DataAccessException(String.format("Unable to record move: %s", ex.getMessage()));
+        }
+    }
+
+    private static final String SNAPSHOT_STATEMENT =
+            "UPDATE game SET json=NULL, state=?, format=?, snapshotSeq=?, whiteUsername=?, blackUsername=?, finished=? WHERE gameId=?";
+    private static final String PLAYERS_STATEMENT =
+            "UPDATE game SET whiteUsername=?, blackUsername=? WHERE gameId=?";
+
+    private void writeSnapshot(Connection conn, GameData game) throws SQLException, DataAccessException {
+        try (var ps = conn.prepareStatement(SNAPSHOT_STATEMENT)) {
+            bindSnapshot(ps, game);
+            if (ps.executeUpdate() == 0) {
+                throw new DataAccessException("Game does not exist");
+            }
+        }
+    }
+
+    private static void bindSnapshot(PreparedStatement ps, GameData game) throws SQLException {
+        ChessGame chessGame = game.game();
+        ps.setBytes(1, ChessGameCodec.encode(chessGame));
+        ps.setInt(2, FORMAT_BINARY);
+        ps.setInt(3, chessGame.getMoveCount());
+        ps.setString(4, game.whiteUsername());
+        ps.setString(5, game.blackUsername());
+        ps.setBoolean(6, chessGame.isGameOver());
+        ps.setInt(7, game.gameID());
+    }
+
+    private static void bindPlayers(PreparedStatement ps, GameData game) throws SQLException {
+        ps.setString(1, game.whiteUsername());
+        ps.setString(2, game.blackUsername());
+        ps.setInt(3, game.gameID());
+    }
+
+    /**
+     * Updates many games in one transaction, using JDBC batches. Games that have been deleted are skipped.
+     */
+    @Override
+    public void updateGames(Collection<GameData> games) throws DataAccessException {
+        if (games.isEmpty()) {
+            return;
+        }
+        try (var conn = getConnection()) {
+            conn.setAutoCommit(false);
+            try (var snapshots = conn.prepareStatement(SNAPSHOT_STATEMENT);
+                 var players = conn.prepareStatement(PLAYERS_STATEMENT)) {
+                for (GameData game : games) {
+                    if (game.isGameLoaded()) {
+                        bindSnapshot(snapshots, game);
+                        snapshots.addBatch();
+                    } else {
+                        bindPlayers(players, game);
+                        players.addBatch();
+                    }
+                }
+                snapshots.executeBatch();
+                players.executeBatch();
+                conn.commit();
+            } catch (SQLException ex) {
+                conn.rollback();
+                throw ex;
+            }
+        } catch (SQLException ex) {
+            throw new DataAccessException(String.format("Unable to update games: %s", ex.getMessage()));
+        }
+    }
+
+    private void updatePlayers(GameData game) throws DataAccessException {
+        try (var conn = getConnection()) {
+            try (var ps = conn.prepareStatement(PLAYERS_STATEMENT)) {
+                bindPlayers(ps, game);
+                if (ps.executeUpdate() == 0) {
                     throw new DataAccessException("Game does not exist");
                 }
             }
@@ -128,10 +494,13 @@ public class SQLGameDAO extends SQLDAO implements GameDAO {
     @Override
     public void clear() throws DataAccessException{
         try (var conn = getConnection()) {
-            var statement = "TRUNCATE game";
+            var statement = "TRUNCATE TABLE game";
             try (var ps = conn.prepareStatement(statement)) {
                 ps.executeUpdate();
             }
+            try (var ps = conn.prepareStatement("TRUNCATE TABLE game_move")) {
+                ps.executeUpdate();
+            }
         } catch (SQLException ex) {
             throw new DataAccessException(String.format("Unable to clear game: %s", ex.getMessage()));
         }
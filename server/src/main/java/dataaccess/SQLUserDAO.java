@@ -55,10 +55,26 @@ public class SQLUserDAO extends SQLDAO implements UserDAO{
         }
     }
 
+    @Override
+    public void updatePassword(String username, String passwordHash) throws DataAccessException {
+        try (var conn = getConnection()) {
+            var statement = "UPDATE user SET password=? WHERE username=?";
+            try (var ps = conn.prepareStatement(statement)) {
+                ps.setString(1, passwordHash);
+                ps.setString(2, username);
+                if (ps.executeUpdate() == 0) {
+                    throw new DataAccessException("User does not exist");
+                }
+            }
+        } catch (SQLException ex) {
+            throw new DataAccessException(String.format("Unable to update password: %s", ex.getMessage()));
+        }
+    }
+
     @Override
     public void clear() throws DataAccessException{
         try (var conn = getConnection()) {
-            var statement = "TRUNCATE user";
+            var statement = "TRUNCATE TABLE user";
             try (var ps = conn.prepareStatement(statement)) {
                 ps.executeUpdate();
             }
@@ -0,0 +1,88 @@
+package dataaccess;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Properties;
+
+/**
+ * The databases the SQL DAOs can run on, chosen by db.dialect in db.properties. The DAOs only use SQL
+ * both of them accept. What differs is how to connect and how to create and select the database.
+ */
+public enum SqlDialect {
+    /**
+     * An external MySQL server at db.host and db.port
+     */
+    MYSQL {
+        @Override
+        String connectionUrl(Properties props) {
+            var host = props.getProperty("db.host");
+            var port = Integer.parseInt(props.getProperty("db.port"));
+            return String.format("jdbc:mysql://%s:%d", host, port);
+        }
+
+        @Override
+        String createDatabaseStatement(String databaseName) {
+            return "CREATE DATABASE IF NOT EXISTS " + databaseName;
+        }
+
+        @Override
+        void selectDatabase(Connection conn, String databaseName) throws SQLException {
+            conn.setCatalog(databaseName);
+        }
+
+        @Override
+        int streamingFetchSize() {
+            // Connector/J only streams rows one at a time when asked for this exact size
+            return Integer.MIN_VALUE;
+        }
+    },
+    /**
+     * An embedded H2 database running in MySQL mode, so no outside server is needed. db.h2.location is
+     * a file path to keep the data on disk, or mem:name (the default) to keep it in memory until the
+     * server stops.
+     */
+    H2 {
+        @Override
+        String connectionUrl(Properties props) {
+            var location = props.getProperty("db.h2.location", "mem:" + props.getProperty("db.name"));
+            return "jdbc:h2:" + location + ";MODE=MySQL;DB_CLOSE_DELAY=-1;DATABASE_TO_LOWER=TRUE;NON_KEYWORDS=USER";
+        }
+
+        @Override
+        String createDatabaseStatement(String databaseName) {
+            return "CREATE SCHEMA IF NOT EXISTS " + databaseName;
+        }
+
+        @Override
+        void selectDatabase(Connection conn, String databaseName) throws SQLException {
+            conn.setSchema(databaseName);
+        }
+
+        @Override
+        int streamingFetchSize() {
+            return 100;
+        }
+    };
+
+    /**
+     * @param props Contents of db.properties
+     * @return JDBC URL of the database server
+     */
+    abstract String connectionUrl(Properties props);
+
+    /**
+     * @return Statement that creates the database if it does not exist
+     */
+    abstract String createDatabaseStatement(String databaseName);
+
+    /**
+     * Points a new connection at the database
+     */
+    abstract void selectDatabase(Connection conn, String databaseName) throws SQLException;
+
+    /**
+     * @return Fetch size that makes a forward-only result set read rows from the server as they are needed,
+     * instead of all at once
+     */
+    abstract int streamingFetchSize();
+}
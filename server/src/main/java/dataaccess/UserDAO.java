@@ -2,8 +2,9 @@ package dataaccess;
 
 import model.UserData;
 
-interface UserDAO {
+public interface UserDAO {
     UserData getUser(String username) throws DataAccessException;
     void createUser(UserData user) throws DataAccessException;
+    void updatePassword(String username, String passwordHash) throws DataAccessException;
     void clear() throws DataAccessException;
 }
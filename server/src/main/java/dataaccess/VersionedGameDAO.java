@@ -0,0 +1,117 @@
+package dataaccess;
+
+import chess.ChessMove;
+import model.GameData;
+
+import java.util.Collection;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Counts changes to the games in front of another GameDAO, so callers can tell whether a listing they
+ * already have is still current without listing again. Listeners are told about each change as well.
+ * <p>
+ * Only changes a listing shows are counted: a game being created, its players changing, or it ending.
+ * Listings do not include the board, so a move that does not end the game is not counted and listeners
+ * are not told about it.
+ */
+public class VersionedGameDAO implements GameDAO {
+    private final GameDAO backing;
+    private final AtomicLong version = new AtomicLong();
+    private final CopyOnWriteArrayList<GameChangeListener> listeners = new CopyOnWriteArrayList<>();
+    // Tells this run's versions apart from those of an earlier run, whose counter also started at 0
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+
+    public VersionedGameDAO(GameDAO backing) {
+        this.backing = backing;
+    }
+
+    /**
+     * @return A tag that changes whenever a game is created, joined, left or finished, or the games are
+     * cleared. Read it before listing, so a change made during the listing gives a newer tag.
+     */
+    public String versionTag() {
+        return epoch + "-" + version.get();
+    }
+
+    /**
+     * Adds a listener, unless it has already been added
+     */
+    public void addListener(GameChangeListener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    private void changed(GameData game) {
+        version.incrementAndGet();
+        for (GameChangeListener listener : listeners) {
+            listener.gameChanged(game);
+        }
+    }
+
+    @Override
+    public Collection<GameData> listGames() throws DataAccessException {
+        return backing.listGames();
+    }
+
+    @Override
+    public Collection<GameData> listGames(GameQuery query) throws DataAccessException {
+        return backing.listGames(query);
+    }
+
+    @Override
+    public void forEachGame(GameQuery query, Consumer<GameData> action) throws DataAccessException {
+        backing.forEachGame(query, action);
+    }
+
+    @Override
+    public void createGame(GameData game) throws DataAccessException {
+        backing.createGame(game);
+        changed(game);
+    }
+
+    @Override
+    public int maxGameID() throws DataAccessException {
+        return backing.maxGameID();
+    }
+
+    @Override
+    public GameData getGame(int gameID) throws DataAccessException {
+        return backing.getGame(gameID);
+    }
+
+    @Override
+    public void updateGame(GameData game) throws DataAccessException {
+        backing.updateGame(game);
+        changed(game);
+    }
+
+    @Override
+    public void updateGames(Collection<GameData> games) throws DataAccessException {
+        backing.updateGames(games);
+        version.incrementAndGet();
+        for (GameData game : games) {
+            for (GameChangeListener listener : listeners) {
+                listener.gameChanged(game);
+            }
+        }
+    }
+
+    @Override
+    public void recordMove(GameData game, ChessMove move) throws DataAccessException {
+        backing.recordMove(game, move);
+        // Moves are only seen in a listing once they end the game
+        if (game.isGameLoaded() && game.game().isGameOver()) {
+            changed(game);
+        }
+    }
+
+    @Override
+    public void clear() throws DataAccessException {
+        backing.clear();
+        version.incrementAndGet();
+        for (GameChangeListener listener : listeners) {
+            listener.gamesCleared();
+        }
+    }
+}
@@ -0,0 +1,374 @@
+package dataaccess;
+
+import chess.ChessGameCodec;
+import chess.ChessMove;
+import model.GameData;
+import util.AsyncLogger;
+import util.ServerConfig;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Keeps active games in memory in front of another GameDAO.
+ * <p>
+ * Reads of a cached game never touch the database, and updates only change memory. Changes are written
+ * to the backing DAO in the order they were made, every flush interval, when a game ends, and whenever
+ * flush() is called. Moves go through the backing DAO's recordMove, so its move log and snapshot interval
+ * still apply. Games whose only changes are to their players or board are written together in one batch.
+ * Games are created and cleared straight through to the backing DAO. Listings come from the backing DAO,
+ * with games that have changes waiting shown as they are in memory.
+ * <p>
+ * Changes to a game must be made one at a time, by the thread running that game's commands. A game no
+ * one has read or changed for the idle time is dropped from memory once its changes are written.
+ */
+public class WriteBehindGameDAO implements GameDAO {
+    private static final AsyncLogger LOG = AsyncLogger.getLogger(WriteBehindGameDAO.class);
+    private final GameDAO backing;
+    private final long idleMillis;
+    private final Map<Integer, CachedGame> games = new ConcurrentHashMap<>();
+    // Changes waiting to be written, oldest first. Lists are only changed inside the map's compute methods.
+    private final Map<Integer, List<Change>> pending = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher;
+
+    /**
+     * A copy of a game as it was after a change
+     * @param game Copy of the game
+     * @param move Move that was made, or null if the change was an update
+     */
+    private record Change(GameData game, ChessMove move) {
+    }
+
+    private static final class CachedGame {
+        private final GameData game;
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        private CachedGame(GameData game) {
+            this.game = game;
+        }
+    }
+
+    private WriteBehindGameDAO(GameDAO backing, long idleMillis) {
+        this.backing = backing;
+        this.idleMillis = idleMillis;
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "game-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Puts a cache in front of backing and starts writing its changes every flush interval. Games stay in
+     * memory for game.cacheIdleMillis (from server.properties) after they were last used.
+     * @param backing DAO the games are written to
+     * @param flushIntervalMillis How often changed games are written
+     * @return The running cache
+     */
+    public static WriteBehindGameDAO start(GameDAO backing, long flushIntervalMillis) {
+        return start(backing, flushIntervalMillis, ServerConfig.getLong("game.cacheIdleMillis", 600_000));
+    }
+
+    /**
+     * Puts a cache in front of backing and starts writing its changes every flush interval
+     * @param backing DAO the games are written to
+     * @param flushIntervalMillis How often changed games are written
+     * @param idleMillis How long a game stays in memory after it was last read or changed
+     * @return The running cache
+     */
+    public static WriteBehindGameDAO start(GameDAO backing, long flushIntervalMillis, long idleMillis) {
+        // Only scheduled once the cache is built, so the flusher never sees it half made
+        WriteBehindGameDAO cache = new WriteBehindGameDAO(backing, idleMillis);
+        cache.flusher.scheduleWithFixedDelay(cache::flushQuietly, flushIntervalMillis, flushIntervalMillis,
+                TimeUnit.MILLISECONDS);
+        return cache;
+    }
+
+    @Override
+    public Collection<GameData> listGames() throws DataAccessException {
+        NavigableMap<Integer, GameData> dirty = dirtyGames(null);
+        List<GameData> result = new ArrayList<>();
+        for (GameData game : backing.listGames()) {
+            GameData newer = dirty.get(game.gameID());
+            result.add(newer == null ? game : summary(newer));
+        }
+        return result;
+    }
+
+    @Override
+    public Collection<GameData> listGames(GameQuery query) throws DataAccessException {
+        List<GameData> result = new ArrayList<>();
+        forEachGame(query, result::add);
+        return result;
+    }
+
+    /**
+     * Lists one page of games without waiting for a flush. The backing DAO's rows for games with changes
+     * waiting are out of date, so those rows are skipped and the games are checked against the query as
+     * they are in memory instead. The backing DAO is asked for one extra row per such game, so skipping
+     * them still leaves a full page.
+     */
+    @Override
+    public void forEachGame(GameQuery query, Consumer<GameData> action) throws DataAccessException {
+        NavigableMap<Integer, GameData> dirty = dirtyGames(query.afterGameID());
+        NavigableMap<Integer, GameData> matching = new TreeMap<>();
+        dirty.forEach((gameID, game) -> {
+            if (matches(game, query)) {
+                matching.put(gameID, game);
+            }
+        });
+
+        int[] sent = {0};
+        Consumer<GameData> send = game -> {
+            if (sent[0] < query.limit()) {
+                sent[0]++;
+                action.accept(game);
+            }
+        };
+        int limit = (int) Math.min((long) query.limit() + dirty.size(), Integer.MAX_VALUE);
+        backing.forEachGame(new GameQuery(query.afterGameID(), limit, query.openSeats(), query.player(),
+                query.finished()), game -> {
+            // Games in memory that come before this row go first, to keep the page in gameID order
+            while (!matching.isEmpty() && matching.firstKey() < game.gameID()) {
+                send.accept(summary(matching.pollFirstEntry().getValue()));
+            }
+            if (!dirty.containsKey(game.gameID())) {
+                send.accept(game);
+            }
+        });
+        for (GameData game : matching.values()) {
+            send.accept(summary(game));
+        }
+    }
+
+    /**
+     * @param afterGameID Only include games with a gameID greater than this, or null for all of them
+     * @return The newest copy of each game with changes waiting, by gameID
+     */
+    private NavigableMap<Integer, GameData> dirtyGames(Integer afterGameID) {
+        NavigableMap<Integer, GameData> dirty = new TreeMap<>();
+        for (Integer gameID : pending.keySet()) {
+            if (afterGameID != null && gameID <= afterGameID) {
+                continue;
+            }
+            // Lists are only read inside compute methods, like they are changed
+            pending.computeIfPresent(gameID, (id, changes) -> {
+                dirty.put(id, changes.getLast().game());
+                return changes;
+            });
+        }
+        return dirty;
+    }
+
+    private static boolean matches(GameData game, GameQuery query) {
+        if (query.openSeats() != null) {
+            boolean open = game.whiteUsername() == null || game.blackUsername() == null;
+            if (open != query.openSeats()) {
+                return false;
+            }
+        }
+        if (query.player() != null && !query.player().equals(game.whiteUsername())
+                && !query.player().equals(game.blackUsername())) {
+            return false;
+        }
+        if (query.finished() == null) {
+            return true;
+        }
+        // Queued copies are never changed, so reading them here is safe
+        boolean over = game.isGameLoaded() ? game.game().isGameOver() : ChessGameCodec.isGameOver(game.encodedGame());
+        return over == query.finished();
+    }
+
+    /**
+     * @return The game without its board, like the backing DAO's listings
+     */
+    private static GameData summary(GameData game) {
+        return new GameData((byte[]) null, game.gameName(), game.blackUsername(), game.whiteUsername(), game.gameID());
+    }
+
+    /**
+     * Games are created straight through, so the backing DAO always has the largest gameID
+     */
+    @Override
+    public int maxGameID() throws DataAccessException {
+        return backing.maxGameID();
+    }
+
+    @Override
+    public void createGame(GameData game) throws DataAccessException {
+        backing.createGame(game);
+        games.put(game.gameID(), new CachedGame(game));
+    }
+
+    @Override
+    public GameData getGame(int gameID) throws DataAccessException {
+        CachedGame cached = games.get(gameID);
+        if (cached != null) {
+            cached.lastUsed = System.currentTimeMillis();
+            return cached.game;
+        }
+
+        // A game dropped from memory may still have changes waiting
+        if (pending.containsKey(gameID)) {
+            flush();
+        }
+        GameData game = backing.getGame(gameID);
+        if (game == null) {
+            return null;
+        }
+        cached = games.putIfAbsent(gameID, new CachedGame(game));
+        return cached == null ? game : cached.game;
+    }
+
+    @Override
+    public void updateGame(GameData game) throws DataAccessException {
+        cache(game);
+        // A board that was never decoded cannot change, so a copy with the same players is enough
+        GameData copy = game.isGameLoaded() ? game.snapshot() : game.withPlayers(game.blackUsername(), game.whiteUsername());
+        queue(new Change(copy, null));
+        flushIfOver(game);
+    }
+
+    /**
+     * Records a move by updating the cached game. The move is passed on to the backing DAO's recordMove
+     * on the next flush, along with the game as it was right after the move.
+     */
+    @Override
+    public void recordMove(GameData game, ChessMove move) throws DataAccessException {
+        cache(game);
+        // Only encode the game here, it is decoded again when the move is written
+        GameData copy = new GameData(game.encodedGame(), game.gameName(), game.blackUsername(),
+                game.whiteUsername(), game.gameID());
+        queue(new Change(copy, move));
+        flushIfOver(game);
+    }
+
+    @Override
+    public void updateGames(Collection<GameData> updatedGames) throws DataAccessException {
+        for (GameData game : updatedGames) {
+            updateGame(game);
+        }
+    }
+
+    private void cache(GameData game) throws DataAccessException {
+        if (getGame(game.gameID()) == null) {
+            throw new DataAccessException("Game does not exist");
+        }
+        games.put(game.gameID(), new CachedGame(game));
+    }
+
+    private void queue(Change change) {
+        pending.compute(change.game().gameID(), (gameID, changes) -> {
+            if (changes == null) {
+                changes = new ArrayList<>();
+            }
+            // Only the newest of several updates in a row needs writing
+            if (change.move() == null && !changes.isEmpty() && changes.getLast().move() == null) {
+                changes.removeLast();
+            }
+            changes.add(change);
+            return changes;
+        });
+    }
+
+    /**
+     * Finished games are written right away and stop taking up memory
+     */
+    private void flushIfOver(GameData game) throws DataAccessException {
+        if (game.isGameLoaded() && game.game().isGameOver()) {
+            flush();
+            games.computeIfPresent(game.gameID(), (gameID, cached) -> cached.game == game ? null : cached);
+        }
+    }
+
+    /**
+     * Writes every change to the backing DAO. Games with only an update waiting are written in one batch.
+     * @throws DataAccessException if a write fails, in which case the changes not yet written are kept for
+     * the next flush
+     */
+    public synchronized void flush() throws DataAccessException {
+        Map<Integer, List<Change>> batch = new HashMap<>();
+        for (Integer gameID : new ArrayList<>(pending.keySet())) {
+            List<Change> changes = pending.remove(gameID);
+            if (changes == null) {
+                continue;
+            }
+            if (changes.size() == 1 && changes.getFirst().move() == null) {
+                batch.put(gameID, changes);
+                continue;
+            }
+            for (int i = 0; i < changes.size(); i++) {
+                Change change = changes.get(i);
+                try {
+                    if (change.move() != null) {
+                        backing.recordMove(change.game(), change.move());
+                    } else {
+                        backing.updateGame(change.game());
+                    }
+                } catch (DataAccessException | RuntimeException e) {
+                    requeue(gameID, changes.subList(i, changes.size()));
+                    batch.forEach(this::requeue);
+                    throw e;
+                }
+            }
+        }
+
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<GameData> updates = new ArrayList<>();
+        for (List<Change> changes : batch.values()) {
+            updates.add(changes.getFirst().game());
+        }
+        try {
+            backing.updateGames(updates);
+        } catch (DataAccessException | RuntimeException e) {
+            batch.forEach(this::requeue);
+            throw e;
+        }
+    }
+
+    /**
+     * Puts changes that could not be written back in front of any made since
+     */
+    private void requeue(int gameID, List<Change> unwritten) {
+        pending.merge(gameID, new ArrayList<>(unwritten), (newer, older) -> {
+            older.addAll(newer);
+            return older;
+        });
+    }
+
+    /**
+     * Drops games from memory that have not been used for the idle time and have nothing left to write
+     */
+    void evictIdleGames() {
+        long cutoff = System.currentTimeMillis() - idleMillis;
+        games.entrySet().removeIf(entry -> entry.getValue().lastUsed < cutoff && !pending.containsKey(entry.getKey()));
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+            evictIdleGames();
+        } catch (DataAccessException | RuntimeException e) {
+            LOG.error("Error flushing games: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void clear() throws DataAccessException {
+        pending.clear();
+        games.clear();
+        backing.clear();
+    }
+}
@@ -0,0 +1,28 @@
+package server;
+
+import chess.ChessGame;
+import model.AuthData;
+import model.GameData;
+
+/**
+ * Everything a websocket command needs to know about who sent it and which game it is for. It is
+ * looked up once when the command arrives, and every handler works from it instead of reading the
+ * database again.
+ * @param auth Auth data of the user who sent the command
+ * @param gameData Game the command is for
+ * @param team Color the user plays in the game, or null if they are an observer
+ */
+record CommandContext(AuthData auth, GameData gameData, ChessGame.TeamColor team) {
+
+    String username() {
+        return auth.username();
+    }
+
+    int gameID() {
+        return gameData.gameID();
+    }
+
+    boolean isObserver() {
+        return team == null;
+    }
+}
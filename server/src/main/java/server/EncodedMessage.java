@@ -0,0 +1,51 @@
+package server;
+
+import util.Metrics;
+import websocket.BinaryProtocol;
+import websocket.messages.ServerMessage;
+
+/**
+ * A server message being sent to one or more sessions. Each wire format is only produced the first
+ * time a session needs it, and then reused for every other session. WSServer.sendEncoded produces it
+ * before queuing, so the outbox only ever sends bytes that are already made.
+ */
+final class EncodedMessage {
+    private static final Metrics.Histogram ENCODE = Metrics.histogram("chess_ws_encode_seconds",
+            "Time to serialize each outgoing websocket message", "format", "type");
+
+    private final ServerMessage message;
+    private String text;
+    private byte[] binary;
+
+    EncodedMessage(ServerMessage message) {
+        this.message = message;
+    }
+
+    ServerMessage.ServerMessageType type() {
+        return message.getServerMessageType();
+    }
+
+    /**
+     * @return The message as JSON
+     */
+    synchronized String text() {
+        if (text == null) {
+            long start = System.nanoTime();
+            text = WSServer.toJson(message);
+            ENCODE.observeSince(start, "json", type().name());
+        }
+        return text;
+    }
+
+    /**
+     * @return The message in the BinaryProtocol format
+     */
+    synchronized byte[] binary() {
+        if (binary == null) {
+            long start = System.nanoTime();
+            binary = BinaryProtocol.encodeMessage(message);
+            ENCODE.observeSince(start, "binary", type().name());
+        }
+        return binary;
+    }
+}
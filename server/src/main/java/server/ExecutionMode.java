@@ -0,0 +1,17 @@
+package server;
+
+/**
+ * Threads the server handles HTTP requests and websocket commands on
+ */
+public enum ExecutionMode {
+    /**
+     * Jetty's bounded thread pool for HTTP, and a pool sized to the machine for websocket commands. The
+     * pools cap how many use the database at once, so DatabaseLimit is off unless server.dbLimitPlatform is set.
+     */
+    PLATFORM,
+    /**
+     * A new virtual thread for every HTTP request and websocket command, so requests waiting on the
+     * database do not hold a platform thread. DatabaseLimit keeps the database from being swamped.
+     */
+    VIRTUAL
+}
@@ -0,0 +1,140 @@
+package server;
+
+import service.GameLanes;
+import util.AsyncLogger;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs tasks one game at a time. Each game gets a mailbox, and tasks for the same game run in the
+ * order they were submitted, never two at once. Different games run in parallel on a shared pool
+ * sized to the machine, so the handlers can read and change a game without locking it. A mailbox is
+ * dropped once it has run out of tasks, so games that have ended do not keep one.
+ */
+public class GameExecutor implements GameLanes {
+    private static final AsyncLogger LOG = AsyncLogger.getLogger(GameExecutor.class);
+    private final int threads;
+    private volatile ExecutorService pool;
+    private ExecutionMode mode = ExecutionMode.PLATFORM;
+    private final Map<Integer, Mailbox> mailboxes = new ConcurrentHashMap<>();
+
+    /**
+     * @param threads Number of games that can run at once on platform threads
+     */
+    public GameExecutor(int threads) {
+        this.threads = threads;
+        this.pool = platformPool(threads);
+    }
+
+    /**
+     * Switches the threads that tasks submitted from now on run on. Tasks for a game still run one at
+     * a time and in order, whichever threads they are on. The old threads are shut down once the
+     * mailboxes already running on them have been drained.
+     * @param mode PLATFORM for a pool sized by threads, VIRTUAL for a virtual thread per mailbox drain
+     */
+    public synchronized void setExecutionMode(ExecutionMode mode) {
+        if (mode == this.mode) {
+            return;
+        }
+        this.mode = mode;
+        ExecutorService old = pool;
+        pool = mode == ExecutionMode.VIRTUAL
+                ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("game-virtual-", 0).factory())
+                : platformPool(threads);
+        old.shutdown();
+    }
+
+    private static ExecutorService platformPool(int threads) {
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "game-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void submit(int gameID, Runnable task) {
+        // Queued inside compute, so the mailbox cannot be dropped between being found and getting the task
+        Mailbox mailbox = mailboxes.compute(gameID, (id, existing) -> {
+            Mailbox current = existing != null ? existing : new Mailbox(id);
+            current.tasks.add(task);
+            return current;
+        });
+        mailbox.schedule();
+    }
+
+    /**
+     * @return Number of games that have a mailbox
+     */
+    int mailboxCount() {
+        return mailboxes.size();
+    }
+
+    private void execute(Runnable drain) {
+        while (true) {
+            ExecutorService current = pool;
+            try {
+                current.execute(drain);
+                return;
+            } catch (RejectedExecutionException e) {
+                // The mode changed and shut this pool down after it was read, so try the new one
+                if (current == pool) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private class Mailbox implements Runnable {
+        private final int gameID;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        Mailbox(int gameID) {
+            this.gameID = gameID;
+        }
+
+        private void schedule() {
+            // Only one worker may drain a mailbox at a time
+            if (scheduled.compareAndSet(false, true)) {
+                execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    LOG.error("Error running game task", e);
+                }
+            }
+
+            // Still holding the flag, drop the mailbox if nothing was queued since. Tasks are only queued
+            // inside compute, so none can slip in while this runs, and the next one gets a new mailbox.
+            boolean[] dropped = {false};
+            mailboxes.computeIfPresent(gameID, (id, mailbox) -> {
+                dropped[0] = mailbox == this && tasks.isEmpty();
+                return dropped[0] ? null : mailbox;
+            });
+            if (dropped[0]) {
+                return;
+            }
+            scheduled.set(false);
+
+            // A task may have arrived after the queue looked empty but before the flag was cleared
+            if (!tasks.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+}
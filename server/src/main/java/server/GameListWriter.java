@@ -0,0 +1,84 @@
+package server;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import model.GameData;
+import spark.Request;
+import spark.Response;
+import spark.utils.GzipUtils;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Writes a game listing straight to the response as the games are read, in the same JSON a
+ * ListGamesResult serializes to, so a listing never has to be held in memory as a whole.
+ * <p>
+ * Nothing is written until the first game arrives, so an error found before then (a bad auth token, or
+ * a query that fails) still gets a normal error response. The body is gzipped if the client accepts it.
+ */
+class GameListWriter implements Consumer<GameData> {
+    private final Gson serializer;
+    private final Request request;
+    private final Response response;
+    private JsonWriter json;
+
+    GameListWriter(Gson serializer, Request request, Response response) {
+        this.serializer = serializer;
+        this.request = request;
+        this.response = response;
+    }
+
+    @Override
+    public void accept(GameData game) {
+        try {
+            start();
+            serializer.toJson(game, GameData.class, json);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Ends the listing and completes the response
+     * @param nextCursor Cursor of the next page, or null if this is the last page
+     */
+    void finish(Integer nextCursor) throws IOException {
+        start();
+        json.endArray();
+        if (nextCursor != null) {
+            json.name("nextCursor").value(nextCursor);
+        }
+        json.endObject();
+        json.close();
+    }
+
+    /**
+     * Throws away whatever has been written, if it has not been sent yet, so an error response can be
+     * sent instead. Once part of the listing has been sent, the client will see it cut short.
+     */
+    void abort() {
+        if (json != null && !response.raw().isCommitted()) {
+            response.raw().resetBuffer();
+        }
+    }
+
+    private void start() throws IOException {
+        if (json != null) {
+            return;
+        }
+        String accepted = request.headers("Accept-Encoding");
+        if (accepted != null && accepted.contains("gzip")) {
+            response.header("Content-Encoding", "gzip");
+            response.header("Vary", "Accept-Encoding");
+        }
+        response.type("application/json");
+        json = serializer.newJsonWriter(new OutputStreamWriter(
+                GzipUtils.checkAndWrap(request.raw(), response.raw(), true), StandardCharsets.UTF_8));
+        json.beginObject();
+        json.name("games").beginArray();
+    }
+}
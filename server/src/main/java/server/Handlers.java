@@ -7,9 +7,15 @@ import dataaccess.DataAccessException;
 import model.*;
 import service.DatabaseService;
 import service.GameService;
+import service.ServiceError;
 import service.UserService;
 import spark.*;
 
+import java.io.IOException;
+
+/**
+ * HTTP routes. One instance is made by Server.run, with the services it passes in.
+ */
 public class Handlers {
     private static final Gson SERIALIZER;
 
@@ -20,70 +26,141 @@ public class Handlers {
         SERIALIZER = gsonBuilder.create();
     }
 
-    public static String clearApplication(Request request, Response response) throws DataAccessException {
+    private final UserService userService;
+    private final GameService gameService;
+
+    public Handlers(UserService userService, GameService gameService) {
+        this.userService = userService;
+        this.gameService = gameService;
+    }
+
+    public String clearApplication(Request request, Response response) throws DataAccessException {
         DatabaseService.clearDatabase();
         return "{}";
     }
 
-    public static String register(Request request, Response response) throws DataAccessException {
+    public String register(Request request, Response response) throws DataAccessException {
         // Create request object
         RegisterRequest regRequest;
         regRequest = SERIALIZER.fromJson(request.body(), RegisterRequest.class);
 
         // Register the user
-        RegisterResult result = new UserService().register(regRequest);
+        RegisterResult result = userService.register(regRequest);
         return SERIALIZER.toJson(result);
     }
 
-    public static String login(Request request, Response response) throws DataAccessException {
+    public String login(Request request, Response response) throws DataAccessException {
         // Create request object
         LoginRequest loginRequest;
         loginRequest = SERIALIZER.fromJson(request.body(), LoginRequest.class);
 
         // Login the user
-        LoginResult result = new UserService().login(loginRequest);
+        LoginResult result = userService.login(loginRequest);
         return SERIALIZER.toJson(result);
     }
 
-    public static String logout(Request request, Response response) throws DataAccessException {
+    public String logout(Request request, Response response) throws DataAccessException {
         // Create request object
         String authToken = request.headers("Authorization");
         LogoutRequest logoutRequest = new LogoutRequest(authToken);
 
         // Logout the user
-        new UserService().logout(logoutRequest);
+        userService.logout(logoutRequest);
         return "{}";
     }
 
-    public static String listGames(Request request, Response response) throws DataAccessException {
+    public String listGames(Request request, Response response) throws DataAccessException, IOException {
         // Create request object
         String authToken = request.headers("Authorization");
-        ListGamesRequest listRequest = new ListGamesRequest(authToken);
+        ListGamesRequest listRequest = new ListGamesRequest(authToken,
+                intParam(request, "cursor"), intParam(request, "limit"),
+                booleanParam(request, "open"), request.queryParams("player"),
+                booleanParam(request, "finished"));
+
+        // Nothing has changed since the client's copy, so it can keep using it
+        String version = gameService.listVersion();
+        if (version != null) {
+            String etag = "\"" + version + "\"";
+            response.header("ETag", etag);
+            response.header("Cache-Control", "no-cache");
+            if (etagMatches(request.headers("If-None-Match"), etag)) {
+                userService.checkAuth(authToken);
+                response.status(304);
+                return "";
+            }
+        }
+
+        // List games, writing each one to the response as it is read
+        GameListWriter writer = new GameListWriter(SERIALIZER, request, response);
+        try {
+            Integer nextCursor = gameService.forEachGame(listRequest, writer);
+            writer.finish(nextCursor);
+        } catch (DataAccessException | RuntimeException e) {
+            writer.abort();
+            throw e;
+        }
+        // The response has already been written
+        return "";
+    }
 
-        // List games
-        ListGamesResult result = new GameService().listGames(listRequest);
-        return SERIALIZER.toJson(result);
+    private static boolean etagMatches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals(etag) || candidate.equals("*")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Integer intParam(Request request, String name) {
+        String value = request.queryParams(name);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new ServiceError("Error: bad request", 400);
+        }
+    }
+
+    private static Boolean booleanParam(Request request, String name) {
+        String value = request.queryParams(name);
+        if (value == null) {
+            return null;
+        }
+        if (!value.equals("true") && !value.equals("false")) {
+            throw new ServiceError("Error: bad request", 400);
+        }
+        return Boolean.parseBoolean(value);
     }
 
-    public static String createGame(Request request, Response response) throws DataAccessException {
+    public String createGame(Request request, Response response) throws DataAccessException {
         // Create request object
         String authToken = request.headers("Authorization");
         NewGameRequest gameRequest = SERIALIZER.fromJson(request.body(), NewGameRequest.class);
         gameRequest = new NewGameRequest(authToken, gameRequest.gameName());
 
         // Create game
-        NewGameResult result = new GameService().newGame(gameRequest);
+        NewGameResult result = gameService.newGame(gameRequest);
         return SERIALIZER.toJson(result);
     }
 
-    public static String joinGame(Request request, Response response) throws DataAccessException {
+    public String joinGame(Request request, Response response) throws DataAccessException {
         // Create request object
         String authToken = request.headers("Authorization");
         JoinGameRequest joinRequest = SERIALIZER.fromJson(request.body(), JoinGameRequest.class);
         joinRequest = new JoinGameRequest(authToken, joinRequest.playerColor(), joinRequest.gameID());
 
         // Join game
-        new GameService().joinGame(joinRequest);
+        gameService.joinGame(joinRequest);
         return "{}";
     }
 }
@@ -0,0 +1,95 @@
+package server;
+
+import org.eclipse.jetty.websocket.api.Session;
+import util.AsyncLogger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Pings every open session on a fixed interval, and hands sessions that have not been heard from
+ * within the idle timeout to onIdle. Any frame from the client, including the pong to our ping,
+ * counts as hearing from it.
+ * <p>
+ * Jetty can only send a ping by blocking until it is written, so each ping is sent on a virtual thread
+ * of its own. A client whose connection has backed up only holds up its own ping, and is not pinged
+ * again until that one is out.
+ */
+class Heartbeat {
+    private static final AsyncLogger LOG = AsyncLogger.getLogger(Heartbeat.class);
+    private static final ByteBuffer PING = ByteBuffer.allocate(0);
+
+    private final Map<Session, Long> lastSeen = new ConcurrentHashMap<>();
+    private final Set<Session> pinging = ConcurrentHashMap.newKeySet();
+    private final ExecutorService pinger = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("ws-ping-", 0).factory());
+    private final long idleTimeoutNanos;
+    private final Consumer<Session> onIdle;
+
+    /**
+     * @param intervalMillis How often to ping and check for idle sessions
+     * @param idleTimeoutMillis How long a session may go without sending anything before it is reaped
+     * @param onIdle Called with each session that times out, after it has been forgotten here
+     */
+    Heartbeat(long intervalMillis, long idleTimeoutMillis, Consumer<Session> onIdle) {
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        this.onIdle = onIdle;
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ws-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleWithFixedDelay(this::tick, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Records that the session is alive
+     */
+    void touch(Session session) {
+        lastSeen.put(session, System.nanoTime());
+    }
+
+    void forget(Session session) {
+        lastSeen.remove(session);
+    }
+
+    int sessionCount() {
+        return lastSeen.size();
+    }
+
+    private void tick() {
+        long now = System.nanoTime();
+        for (Map.Entry<Session, Long> entry : lastSeen.entrySet()) {
+            Session session = entry.getKey();
+            if (!session.isOpen() || now - entry.getValue() > idleTimeoutNanos) {
+                if (lastSeen.remove(session, entry.getValue())) {
+                    LOG.debug("Reaping idle session {}", session.getRemoteAddress());
+                    onIdle.accept(session);
+                }
+                continue;
+            }
+            if (pinging.add(session)) {
+                pinger.execute(() -> ping(session));
+            }
+        }
+    }
+
+    private void ping(Session session) {
+        try {
+            session.getRemote().sendPing(PING.duplicate());
+        } catch (IOException | RuntimeException e) {
+            // The next tick reaps it if it stays silent
+            LOG.debug("Error pinging session: {}", e.getMessage());
+        } finally {
+            pinging.remove(session);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package server;
+
+import dataaccess.DataAccessException;
+import dataaccess.GameChangeListener;
+import dataaccess.GameDAO;
+import dataaccess.GameQuery;
+import model.GameData;
+import org.eclipse.jetty.websocket.api.Session;
+import service.GameLanes;
+import util.AsyncLogger;
+import websocket.BinaryProtocol;
+import websocket.messages.LobbyMessage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pushes changes to the list of games to sessions subscribed to the lobby, so clients do not have to
+ * keep listing games over HTTP.
+ * <p>
+ * The feed keeps its own view of what the lobby shows of each game that has not finished, loaded from
+ * the database when the first session subscribes. Each change is compared with the view, so only changes
+ * the lobby can see (a new game, a seat taken or freed, a game ending) are sent, and moves are not. A
+ * game leaves the view when it ends, so the view only grows with the games being played. A subscriber
+ * gets the first page of it, and lists the rest over HTTP from the snapshot's cursor.
+ * <p>
+ * The view is only touched on the lobby's lane of the game executor, which lobby commands also run on.
+ * The games' own threads only read what the lobby shows of a change and queue it there, so they never
+ * wait on each other or on the database. Changes and subscribes are handled one at a time in the order
+ * they were queued, so a new subscriber gets its snapshot before any change made after it.
+ */
+class LobbyFeed implements GameChangeListener {
+    private static final AsyncLogger LOG = AsyncLogger.getLogger(LobbyFeed.class);
+    private static final int LOAD_PAGE_SIZE = 500;
+
+    private final GameLanes lanes;
+    private final int lane;
+    private final int snapshotPageSize;
+    private final Set<Session> subscribers = ConcurrentHashMap.newKeySet();
+    // Games that have not finished, by ID. Only touched on the lobby lane.
+    private final NavigableMap<Integer, LobbyMessage.Game> view = new TreeMap<>();
+    private GameDAO gameDB;
+    // Read on the games' threads to skip queuing changes while no one is watching
+    private volatile boolean loaded;
+
+    /**
+     * @param lanes Executor the lobby lane belongs to
+     * @param lane Lane the view is kept on. Lobby commands must run on it too.
+     * @param snapshotPageSize Most games sent in a subscriber's snapshot
+     */
+    LobbyFeed(GameLanes lanes, int lane, int snapshotPageSize) {
+        if (snapshotPageSize < 1 || snapshotPageSize > BinaryProtocol.MAX_LOBBY_GAMES) {
+            throw new IllegalArgumentException("Snapshot page size must be between 1 and "
+                    + BinaryProtocol.MAX_LOBBY_GAMES);
+        }
+        this.lanes = lanes;
+        this.lane = lane;
+        this.snapshotPageSize = snapshotPageSize;
+    }
+
+    /**
+     * Sets where the view is loaded from. The view is loaded again on the next subscribe if the DAO has changed.
+     */
+    void setDataAccess(GameDAO games) {
+        lanes.submit(lane, () -> {
+            if (games != gameDB) {
+                gameDB = games;
+                loaded = false;
+                view.clear();
+            }
+        });
+    }
+
+    /**
+     * Adds a session to the lobby, and sends it the first page of unfinished games. Must be called on the
+     * lobby lane.
+     */
+    void subscribe(Session session) throws DataAccessException {
+        if (!loaded) {
+            load();
+        }
+        subscribers.add(session);
+        List<LobbyMessage.Game> page = new ArrayList<>(Math.min(view.size(), snapshotPageSize));
+        for (LobbyMessage.Game game : view.values()) {
+            if (page.size() == snapshotPageSize) {
+                break;
+            }
+            page.add(game);
+        }
+        Integer nextCursor = page.size() < view.size() ? page.getLast().gameID() : null;
+        WSServer.sendMessage(session, new LobbyMessage(LobbyMessage.Event.SNAPSHOT,
+                page.toArray(new LobbyMessage.Game[0]), nextCursor));
+    }
+
+    void unsubscribe(Session session) {
+        subscribers.remove(session);
+    }
+
+    @Override
+    public void gameChanged(GameData game) {
+        // Until someone subscribes there is no view to keep current
+        if (!loaded) {
+            return;
+        }
+        // Read the game now, on its own thread. A game that was not decoded has not been played since it
+        // was loaded, so it is in the view if and only if it has not finished.
+        Boolean finished = game.isGameLoaded() && game.game() != null ? game.game().isGameOver() : null;
+        int gameID = game.gameID();
+        String name = game.gameName();
+        String white = game.whiteUsername();
+        String black = game.blackUsername();
+        lanes.submit(lane, () -> apply(gameID, name, white, black, finished));
+    }
+
+    private void apply(int gameID, String name, String white, String black, Boolean finished) {
+        if (!loaded) {
+            return;
+        }
+        LobbyMessage.Game before = view.get(gameID);
+        if (before == null && !Boolean.FALSE.equals(finished)) {
+            // A game that had already finished, which the lobby no longer shows
+            return;
+        }
+        LobbyMessage.Game after = new LobbyMessage.Game(gameID, name, white, black, Boolean.TRUE.equals(finished));
+        if (after.equals(before)) {
+            return;
+        }
+
+        LobbyMessage.Event event;
+        if (after.finished()) {
+            view.remove(gameID);
+            event = LobbyMessage.Event.GAME_FINISHED;
+        } else {
+            view.put(gameID, after);
+            event = before == null ? LobbyMessage.Event.GAME_CREATED : LobbyMessage.Event.SEATS_CHANGED;
+        }
+        broadcast(new LobbyMessage(event, after));
+    }
+
+    @Override
+    public void gamesCleared() {
+        if (!loaded) {
+            return;
+        }
+        lanes.submit(lane, () -> {
+            if (!loaded) {
+                return;
+            }
+            view.clear();
+            broadcast(new LobbyMessage(LobbyMessage.Event.SNAPSHOT));
+        });
+    }
+
+    private void broadcast(LobbyMessage message) {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        // Serialize the message once, and send the same text to every subscriber
+        EncodedMessage encoded = WSServer.encode(message);
+        for (Session session : subscribers) {
+            WSServer.sendEncoded(session, encoded);
+        }
+    }
+
+    /**
+     * Loads every unfinished game into the view, a page at a time.
+     * <p>
+     * Changes are queued from the moment loaded is set, and run after the load. A change made before
+     * then is already in the database when it is read.
+     */
+    private void load() throws DataAccessException {
+        loaded = true;
+        try {
+            Integer after = null;
+            while (true) {
+                Collection<GameData> page = gameDB.listGames(new GameQuery(after, LOAD_PAGE_SIZE, null, null, false));
+                for (GameData game : page) {
+                    view.put(game.gameID(), new LobbyMessage.Game(game.gameID(), game.gameName(),
+                            game.whiteUsername(), game.blackUsername(), false));
+                    after = after == null ? game.gameID() : Math.max(after, game.gameID());
+                }
+                if (page.size() < LOAD_PAGE_SIZE) {
+                    break;
+                }
+            }
+        } catch (DataAccessException | RuntimeException e) {
+            loaded = false;
+            view.clear();
+            throw e;
+        }
+        LOG.debug("Loaded {} unfinished games into the lobby", view.size());
+    }
+}
@@ -0,0 +1,232 @@
+package server;
+
+import org.eclipse.jetty.websocket.api.Session;
+import websocket.messages.MoveMessage;
+import websocket.messages.NotificationMessage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds on to a dropped session's games for a grace period, so a client that reconnects with the same
+ * resume token can carry on where it left off.
+ * <p>
+ * Clients pick their own resume token and send it with CONNECT. When a session with a token drops, each
+ * of its games is parked instead of being left straight away. Notifications and moves sent to a parked
+ * game are kept (up to a limit each) to be replayed on resume. If the grace period runs out first, the game's expiry
+ * task runs, which does the leave that was put off. A user who connects to the game again without
+ * resuming cancels the hold, so the put-off leave never runs against their new session.
+ */
+class ResumeRegistry {
+    private static final int MAX_MISSED = 32;
+
+    /**
+     * A game a dropped session was subscribed to
+     */
+    static final class ParkedGame {
+        private final String username;
+        private final String authToken;
+        private final Deque<NotificationMessage> missed = new ArrayDeque<>();
+        private final Deque<MoveMessage> missedMoves = new ArrayDeque<>();
+        private volatile ScheduledFuture<?> expiry;
+
+        private ParkedGame(String username, String authToken) {
+            this.username = username;
+            this.authToken = authToken;
+        }
+
+        private void cancelExpiry() {
+            ScheduledFuture<?> task = expiry;
+            if (task != null) {
+                task.cancel(false);
+            }
+        }
+
+        /**
+         * @return Notifications sent to the game while the session was gone, oldest first
+         */
+        synchronized List<NotificationMessage> missedNotifications() {
+            return new ArrayList<>(missed);
+        }
+
+        /**
+         * @param lastSeq Move count the client last saw
+         * @param moveCount The game's move count now
+         * @return The moves made after lastSeq, oldest first, or null if some of them were not kept
+         */
+        synchronized List<MoveMessage> movesSince(int lastSeq, int moveCount) {
+            if (lastSeq > moveCount) {
+                return null;
+            }
+            if (lastSeq == moveCount) {
+                return List.of();
+            }
+            if (missedMoves.isEmpty() || missedMoves.getFirst().getSeq() > lastSeq + 1
+                    || missedMoves.getLast().getSeq() != moveCount) {
+                return null;
+            }
+            List<MoveMessage> moves = new ArrayList<>();
+            for (MoveMessage move : missedMoves) {
+                if (move.getSeq() > lastSeq) {
+                    moves.add(move);
+                }
+            }
+            return moves;
+        }
+
+        private synchronized void miss(NotificationMessage message) {
+            if (missed.size() == MAX_MISSED) {
+                missed.removeFirst();
+            }
+            missed.addLast(message);
+        }
+
+        private synchronized void miss(MoveMessage move) {
+            if (missedMoves.size() == MAX_MISSED) {
+                missedMoves.removeFirst();
+            }
+            missedMoves.addLast(move);
+        }
+    }
+
+    /**
+     * What a session connected with, kept so its games can be parked when it drops
+     */
+    record Binding(String resumeToken, String username) {
+    }
+
+    private final Map<Session, Binding> bindings = new ConcurrentHashMap<>();
+    // Game ID -> resume token -> parked game. The inner maps are only touched inside compute calls.
+    private final Map<Integer, Map<String, ParkedGame>> parked = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer;
+    private final long graceMillis;
+
+    /**
+     * @param graceMillis How long a dropped session's games are held for it
+     */
+    ResumeRegistry(long graceMillis) {
+        this.graceMillis = graceMillis;
+        timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ws-resume");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Remembers the resume token a session connected with, and the user it connected as
+     */
+    void bind(Session session, String resumeToken, String username) {
+        bindings.put(session, new Binding(resumeToken, username));
+    }
+
+    /**
+     * Forgets a session's resume token
+     * @return What the session connected with, or null if it did not send a resume token
+     */
+    Binding unbind(Session session) {
+        return bindings.remove(session);
+    }
+
+    /**
+     * Holds a game for a dropped session
+     * @param binding What the session connected with
+     * @param authToken Auth token the session connected with. Only the same user can resume the game.
+     * @param gameID Game to hold
+     * @param onExpiry Run if the game is not resumed or cancelled within the grace period
+     */
+    void park(Binding binding, String authToken, int gameID, Runnable onExpiry) {
+        String resumeToken = binding.resumeToken();
+        ParkedGame game = new ParkedGame(binding.username(), authToken);
+        parked.compute(gameID, (id, games) -> {
+            games = games == null ? new HashMap<>() : games;
+            games.put(resumeToken, game);
+            return games;
+        });
+        // Whichever of resume and expiry takes the game first gets it
+        game.expiry = timer.schedule(() -> {
+            if (take(gameID, resumeToken, game)) {
+                onExpiry.run();
+            }
+        }, graceMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Takes back a parked game
+     * @return The parked game, or null if there is none for this token, game and user
+     */
+    ParkedGame resume(String resumeToken, String authToken, int gameID) {
+        ParkedGame game = peek(gameID, resumeToken);
+        if (game == null || !game.authToken.equals(authToken) || !take(gameID, resumeToken, game)) {
+            return null;
+        }
+        game.cancelExpiry();
+        return game;
+    }
+
+    /**
+     * Drops every game a user has parked for a game without running their expiry tasks, because the
+     * user has connected to the game again in a new session
+     */
+    void cancel(String username, int gameID) {
+        List<ParkedGame> cancelled = new ArrayList<>();
+        parked.computeIfPresent(gameID, (id, games) -> {
+            games.values().removeIf(game -> game.username.equals(username) && cancelled.add(game));
+            return games.isEmpty() ? null : games;
+        });
+        for (ParkedGame game : cancelled) {
+            game.cancelExpiry();
+        }
+    }
+
+    /**
+     * Keeps a notification for every session that has this game parked
+     */
+    void notifyParked(int gameID, NotificationMessage message) {
+        parked.computeIfPresent(gameID, (id, games) -> {
+            for (ParkedGame game : games.values()) {
+                game.miss(message);
+            }
+            return games;
+        });
+    }
+
+    /**
+     * Keeps a move for every session that has this game parked
+     */
+    void moveParked(int gameID, MoveMessage move) {
+        parked.computeIfPresent(gameID, (id, games) -> {
+            for (ParkedGame game : games.values()) {
+                game.miss(move);
+            }
+            return games;
+        });
+    }
+
+    private ParkedGame peek(int gameID, String resumeToken) {
+        ParkedGame[] found = new ParkedGame[1];
+        parked.computeIfPresent(gameID, (id, games) -> {
+            found[0] = games.get(resumeToken);
+            return games;
+        });
+        return found[0];
+    }
+
+    private boolean take(int gameID, String resumeToken, ParkedGame game) {
+        boolean[] taken = new boolean[1];
+        parked.computeIfPresent(gameID, (id, games) -> {
+            taken[0] = games.remove(resumeToken, game);
+            return games.isEmpty() ? null : games;
+        });
+        return taken[0];
+    }
+}
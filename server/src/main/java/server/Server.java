@@ -3,26 +3,85 @@ package server;
 import dataaccess.DataAccessException;
 import org.eclipse.jetty.websocket.api.annotations.OnWebSocketMessage;
 import org.eclipse.jetty.websocket.api.annotations.WebSocket;
+import service.DatabaseService;
+import service.GameService;
 import service.ServiceError;
+import service.UserService;
 import spark.*;
+import spark.embeddedserver.EmbeddedServers;
+import spark.embeddedserver.jetty.EmbeddedJettyFactory;
+import util.AsyncLogger;
+import util.DatabaseLimit;
+import util.Metrics;
+import util.ServerConfig;
+import websocket.BinaryProtocol;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 
 @WebSocket
 public class Server {
+    private static final AsyncLogger LOG = AsyncLogger.getLogger(Server.class);
+    private static final int COMPRESS_MIN_BYTES = ServerConfig.getInt("http.compressMinBytes", 1024);
+    // The loopback check sees the address of whatever connected, so behind a reverse proxy on this machine
+    // every request looks local. Block /metrics at the proxy there, or set this and protect it some other way.
+    private static final boolean METRICS_ALLOW_REMOTE = ServerConfig.getBoolean("metrics.allowRemote", false);
+    private static final Metrics.Histogram REQUESTS = Metrics.histogram("chess_http_request_seconds",
+            "Time to handle each HTTP route, including waiting for the database", "route", "status");
 
     public int run(int desiredPort) {
+        return run(desiredPort, ServerConfig.getEnum("server.executionMode", ExecutionMode.PLATFORM));
+    }
+
+    /**
+     * @param desiredPort Port to listen on, or 0 for any free port
+     * @param mode Threads to handle HTTP requests and websocket commands on
+     * @return Port the server is listening on
+     */
+    public int run(int desiredPort, ExecutionMode mode) {
+        // The thread pool has to be chosen before the first route creates the embedded server
+        EmbeddedJettyFactory jetty = new EmbeddedJettyFactory(
+                new SubprotocolJettyFactory(WSServer.PATH, BinaryProtocol.SUBPROTOCOL));
+        if (mode == ExecutionMode.VIRTUAL) {
+            jetty.withThreadPool(new VirtualThreadPool());
+        }
+        EmbeddedServers.add(EmbeddedServers.defaultIdentifier(), jetty);
+        WSHandlers.setExecutionMode(mode);
+
+        // Virtual threads have no pool to cap how many use the database at once, so DatabaseLimit does
+        if (mode == ExecutionMode.VIRTUAL || ServerConfig.getBoolean("server.dbLimitPlatform", false)) {
+            DatabaseLimit.setLimit(ServerConfig.getInt("server.dbConcurrency", 64));
+        } else {
+            DatabaseLimit.setLimit(0);
+        }
+
+        // Build the services once, and hand them to the handlers
+        UserService userService = new UserService(DatabaseService.getUserDAO(), DatabaseService.getAuthDAO());
+        GameService gameService = new GameService(DatabaseService.getGameDAO(), userService,
+                WSHandlers.gameExecutor());
+        Handlers handlers = new Handlers(userService, gameService);
+        WSHandlers.setDataAccess(DatabaseService.getGameDAO(), DatabaseService.getAuthDAO());
+
         Spark.port(desiredPort);
         WSServer.run(desiredPort);
 
         Spark.staticFiles.location("web");
 
         // Register your endpoints and handle exceptions here.
-        Spark.delete("/db", Handlers::clearApplication);
-        Spark.post("/user", Handlers::register);
-        Spark.post("/session", Handlers::login);
-        Spark.delete("/session", Handlers::logout);
-        Spark.get("/game", Handlers::listGames);
-        Spark.post("/game", Handlers::createGame);
-        Spark.put("/game", Handlers::joinGame);
+        Spark.delete("/db", timed("DELETE /db", limited(handlers::clearApplication)));
+        Spark.post("/user", timed("POST /user", limited(handlers::register)));
+        Spark.post("/session", timed("POST /session", limited(handlers::login)));
+        Spark.delete("/session", timed("DELETE /session", limited(handlers::logout)));
+        Spark.get("/game", timed("GET /game", limited(handlers::listGames)));
+        Spark.post("/game", timed("POST /game", limited(handlers::createGame)));
+        Spark.put("/game", timed("PUT /game", limited(handlers::joinGame)));
+
+        // Metrics are only served to this machine, unless metrics.allowRemote is set
+        registerGauges();
+        Spark.get("/metrics", Server::metrics);
+
+        // Spark gzips the body on its way out once the route marks it, if the client accepts gzip
+        Spark.after(Server::compress);
 
         // Handle Service error exception
         Spark.exception(ServiceError.class, (exception, request, response) -> {
@@ -45,8 +104,92 @@ public class Server {
         return Spark.port();
     }
 
+    /**
+     * Makes a route wait for its turn at the database, turning the request away with a 503 if none
+     * comes up in time
+     */
+    private static Route limited(Route route) {
+        return (request, response) -> {
+            if (!DatabaseLimit.acquire()) {
+                throw new ServiceError("Error: server is busy", 503);
+            }
+            try {
+                return route.handle(request, response);
+            } finally {
+                DatabaseLimit.release();
+            }
+        };
+    }
+
+    /**
+     * Records how long a route takes, labelled with the status it ends in. A route that throws is
+     * labelled with the status its exception handler will send.
+     */
+    private static Route timed(String name, Route route) {
+        return (request, response) -> {
+            long start = System.nanoTime();
+            String status = null;
+            try {
+                Object result = route.handle(request, response);
+                status = Integer.toString(response.raw().getStatus());
+                return result;
+            } catch (ServiceError e) {
+                status = Integer.toString(e.getCode());
+                throw e;
+            } finally {
+                REQUESTS.observeSince(start, name, status == null ? "500" : status);
+            }
+        };
+    }
+
+    private static Object metrics(Request request, Response response) throws UnknownHostException {
+        if (!METRICS_ALLOW_REMOTE && !InetAddress.getByName(request.ip()).isLoopbackAddress()) {
+            throw new ServiceError("Error: not found", 404);
+        }
+        response.type("text/plain; version=0.0.4; charset=utf-8");
+        return Metrics.scrape();
+    }
+
+    /**
+     * Exports the numbers other classes already keep, read each time the metrics are scraped
+     */
+    private static void registerGauges() {
+        Metrics.gauge("chess_ws_sessions", "Open websocket sessions", WSServer::sessionCount);
+        Metrics.gauge("chess_ws_outbound_queued_messages", "Messages waiting to be sent, across every session",
+                WSServer::queuedMessages);
+        Metrics.gauge("chess_ws_outbound_deepest_queue", "Messages waiting for the session furthest behind",
+                WSServer::deepestQueue);
+        Metrics.gauge("chess_ws_outbound_max_queued_messages", "Most messages any one session has had waiting at once",
+                SessionOutbox::maxQueuedMessages);
+        Metrics.counter("chess_ws_outbound_dropped_total", "Messages dropped because a session was not keeping up",
+                SessionOutbox::droppedMessages);
+        Metrics.counter("chess_ws_slow_consumer_disconnects_total",
+                "Sessions disconnected because they were not keeping up", SessionOutbox::slowConsumerDisconnects);
+        Metrics.gauge("chess_db_permits_available",
+                "Requests and commands that could start using the database now, or -1 if there is no cap",
+                DatabaseLimit::available);
+        Metrics.counter("chess_log_dropped_entries_total", "Log entries dropped because the log queue was full",
+                AsyncLogger::droppedEntries);
+    }
+
+    private static void compress(Request request, Response response) {
+        String accepted = request.headers("Accept-Encoding");
+        String body = response.body();
+        if (accepted != null && accepted.contains("gzip") && body != null && body.length() >= COMPRESS_MIN_BYTES) {
+            response.header("Content-Encoding", "gzip");
+            response.header("Vary", "Accept-Encoding");
+        }
+    }
+
     public void stop() {
         Spark.stop();
         Spark.awaitStop();
+
+        // Save any games that have only been changed in memory
+        try {
+            DatabaseService.flushGames();
+        } catch (DataAccessException e) {
+            LOG.error("Error saving games on shutdown: {}", e.getMessage());
+        }
     }
 }
@@ -0,0 +1,252 @@
+package server;
+
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.StatusCode;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import util.AsyncLogger;
+import websocket.messages.ServerMessage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Queue of messages waiting to go out to one session. Messages are sent asynchronously one at a time,
+ * so the thread that queues a message never waits on the client. When a client falls so far behind
+ * that its queue fills up, the SlowConsumerPolicy decides what to give up.
+ */
+class SessionOutbox {
+    private static final AsyncLogger LOG = AsyncLogger.getLogger(SessionOutbox.class);
+
+    /**
+     * What to do when a session's queue is full
+     */
+    enum SlowConsumerPolicy {
+        /** Drop the oldest queued LOAD_GAME, since a later one replaces it. Disconnect if there is none. */
+        DROP_OLDEST_LOAD_GAME,
+        /** Only ever keep the newest LOAD_GAME queued. Disconnect if the queue is still full. */
+        COALESCE,
+        /** Disconnect the session */
+        DISCONNECT
+    }
+
+    private static final AtomicLong MAX_DEPTH = new AtomicLong();
+    private static final AtomicLong DROPPED = new AtomicLong();
+    private static final AtomicLong DISCONNECTED = new AtomicLong();
+
+    private final Session session;
+    private final boolean binary;
+    private final int capacity;
+    private final SlowConsumerPolicy policy;
+    private final Deque<EncodedMessage> queue = new ArrayDeque<>();
+    // Written under the lock, read by the metrics without it
+    private volatile int depth;
+    private volatile int maxDepth;
+    private boolean sending;
+    private boolean closed;
+    private int closeStatus;
+    private String closeReason;
+
+    /**
+     * @param binary Send messages in the BinaryProtocol format instead of JSON
+     */
+    SessionOutbox(Session session, boolean binary, int capacity, SlowConsumerPolicy policy) {
+        this.session = session;
+        this.binary = binary;
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    /**
+     * Queues a message, and starts sending if nothing is in flight
+     */
+    void send(EncodedMessage message) {
+        boolean closing;
+        synchronized (this) {
+            closing = queue(message);
+        }
+        if (closing) {
+            closeSession();
+        }
+    }
+
+    /**
+     * @return true if the outbox was closed, and the session must be closed once the lock is let go
+     */
+    private boolean queue(EncodedMessage message) {
+        if (closed) {
+            return false;
+        }
+        if (policy == SlowConsumerPolicy.COALESCE && message.type() == ServerMessage.ServerMessageType.LOAD_GAME) {
+            dropQueued(ServerMessage.ServerMessageType.LOAD_GAME, false);
+        }
+        if (queue.size() >= capacity && !makeRoom()) {
+            DISCONNECTED.incrementAndGet();
+            return close(StatusCode.POLICY_VIOLATION, "Client is not keeping up");
+        }
+
+        queue.add(message);
+        if (!sending) {
+            return sendNext();
+        }
+        updateDepth();
+        return false;
+    }
+
+    private void updateDepth() {
+        depth = queue.size();
+        if (depth > maxDepth) {
+            maxDepth = depth;
+            MAX_DEPTH.accumulateAndGet(depth, Math::max);
+        }
+    }
+
+    private boolean makeRoom() {
+        if (policy == SlowConsumerPolicy.DROP_OLDEST_LOAD_GAME) {
+            return dropQueued(ServerMessage.ServerMessageType.LOAD_GAME, true);
+        }
+        return false;
+    }
+
+    /**
+     * Drops queued messages of a type
+     * @param onlyOldest Stop after the first one
+     * @return true if anything was dropped
+     */
+    private boolean dropQueued(ServerMessage.ServerMessageType type, boolean onlyOldest) {
+        boolean dropped = false;
+        Iterator<EncodedMessage> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().type() == type) {
+                iterator.remove();
+                DROPPED.incrementAndGet();
+                dropped = true;
+                if (onlyOldest) {
+                    break;
+                }
+            }
+        }
+        updateDepth();
+        return dropped;
+    }
+
+    /**
+     * @return true if the outbox was closed, and the session must be closed once the lock is let go
+     */
+    private boolean sendNext() {
+        EncodedMessage next = queue.poll();
+        updateDepth();
+        if (next == null) {
+            sending = false;
+            return false;
+        }
+        sending = true;
+        if (!session.isOpen()) {
+            return close(StatusCode.NORMAL, null);
+        }
+        WriteCallback callback = new WriteCallback() {
+            @Override
+            public void writeFailed(Throwable x) {
+                LOG.warn("Error sending message: {}", x.getMessage());
+                boolean closing;
+                synchronized (SessionOutbox.this) {
+                    closing = close(StatusCode.ABNORMAL, null);
+                }
+                if (closing) {
+                    closeSession();
+                }
+            }
+
+            @Override
+            public void writeSuccess() {
+                boolean closing;
+                synchronized (SessionOutbox.this) {
+                    closing = sendNext();
+                }
+                if (closing) {
+                    closeSession();
+                }
+            }
+        };
+        try {
+            if (binary) {
+                session.getRemote().sendBytes(ByteBuffer.wrap(next.binary()), callback);
+            } else {
+                session.getRemote().sendString(next.text(), callback);
+            }
+        } catch (RuntimeException e) {
+            // The callback will never run, so nothing else would ever be sent
+            LOG.warn("Error sending message: {}", e.getMessage());
+            return close(StatusCode.SERVER_ERROR, null);
+        }
+        return false;
+    }
+
+    /**
+     * Stops the outbox and drops what is queued. The session itself is closed by closeSession(), after
+     * the lock is let go, since closing it can block on the client.
+     * @return true if this call closed the outbox
+     */
+    private boolean close(int statusCode, String reason) {
+        if (closed) {
+            return false;
+        }
+        closed = true;
+        sending = false;
+        queue.clear();
+        updateDepth();
+        closeStatus = statusCode;
+        closeReason = reason;
+        return true;
+    }
+
+    private void closeSession() {
+        int statusCode;
+        String reason;
+        synchronized (this) {
+            statusCode = closeStatus;
+            reason = closeReason;
+        }
+        WSServer.removeOutbox(session);
+        if (session.isOpen()) {
+            session.close(statusCode, reason);
+        }
+    }
+
+    /**
+     * @return Messages waiting to be sent to this session
+     */
+    int depth() {
+        return depth;
+    }
+
+    /**
+     * @return Most messages that have been waiting at once for this session
+     */
+    int maxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @return Most messages any one session has had waiting at once
+     */
+    static long maxQueuedMessages() {
+        return MAX_DEPTH.get();
+    }
+
+    /**
+     * @return Messages dropped because a session was not keeping up
+     */
+    static long droppedMessages() {
+        return DROPPED.get();
+    }
+
+    /**
+     * @return Sessions disconnected because they were not keeping up
+     */
+    static long slowConsumerDisconnects() {
+        return DISCONNECTED.get();
+    }
+}
@@ -0,0 +1,140 @@
+package server;
+
+import org.eclipse.jetty.websocket.api.Session;
+import websocket.messages.LoadGameMessage;
+import websocket.messages.NotificationMessage;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Batches updates to the observers of busy games. Once a game has enough observers, updates meant for
+ * them are held for a short window and then sent together: only the newest board, and one notification
+ * holding every message from the window. Players are not affected and still get every update at once.
+ * <p>
+ * Everything except the timer runs on the game's GameExecutor, so a game's batch is never touched by
+ * two threads at once.
+ */
+class SpectatorCoalescer {
+    private record Note(String text, Session excluded) {}
+
+    private static class Batch {
+        LoadGameMessage latestGame;
+        final List<Note> notes = new ArrayList<>();
+    }
+
+    private final SubscriptionRegistry subscriptions;
+    private final GameExecutor gameExecutor;
+    private final int threshold;
+    private final long windowMillis;
+    private final Map<Integer, Batch> batches = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "spectator-flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param threshold Number of observers at which a game's observer updates start being batched
+     * @param windowMillis How long updates are held, or 0 to never batch
+     */
+    SpectatorCoalescer(SubscriptionRegistry subscriptions, GameExecutor gameExecutor, int threshold, long windowMillis) {
+        this.subscriptions = subscriptions;
+        this.gameExecutor = gameExecutor;
+        this.threshold = threshold;
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * @return true if updates to this game's observers should be queued here instead of sent
+     */
+    boolean isActive(int gameID) {
+        return windowMillis > 0 && subscriptions.observers(gameID).size() >= threshold;
+    }
+
+    /**
+     * Queues a new board for the observers, replacing any board already waiting
+     */
+    void queueGame(int gameID, LoadGameMessage message) {
+        batchFor(gameID).latestGame = message;
+    }
+
+    /**
+     * Queues a notification for the observers
+     * @param excluded Session that should not get this notification, or null
+     */
+    void queueNotification(int gameID, String text, Session excluded) {
+        batchFor(gameID).notes.add(new Note(text, excluded));
+    }
+
+    private Batch batchFor(int gameID) {
+        Batch batch = batches.get(gameID);
+        if (batch == null) {
+            batch = new Batch();
+            batches.put(gameID, batch);
+            timer.schedule(() -> gameExecutor.submit(gameID, () -> flush(gameID)), windowMillis, TimeUnit.MILLISECONDS);
+        }
+        return batch;
+    }
+
+    private void flush(int gameID) {
+        Batch batch = batches.remove(gameID);
+        if (batch == null) {
+            return;
+        }
+
+        // The board is the same for everyone, so it is only serialized once
+        if (batch.latestGame != null) {
+            EncodedMessage encodedGame = WSServer.encode(batch.latestGame);
+            for (Session session : subscriptions.observers(gameID)) {
+                WSServer.sendEncoded(session, encodedGame);
+            }
+        }
+        if (batch.notes.isEmpty()) {
+            return;
+        }
+
+        // Observers that are not excluded from any note share one combined notification
+        Set<Session> excluded = new HashSet<>();
+        for (Note note : batch.notes) {
+            if (note.excluded() != null) {
+                excluded.add(note.excluded());
+            }
+        }
+        EncodedMessage shared = null;
+        for (Session session : subscriptions.observers(gameID)) {
+            if (excluded.contains(session)) {
+                String text = combine(batch.notes, session);
+                if (!text.isEmpty()) {
+                    WSServer.sendMessage(session, new NotificationMessage(text));
+                }
+                continue;
+            }
+            if (shared == null) {
+                shared = WSServer.encode(new NotificationMessage(combine(batch.notes, null)));
+            }
+            WSServer.sendEncoded(session, shared);
+        }
+    }
+
+    private static String combine(List<Note> notes, Session recipient) {
+        StringBuilder text = new StringBuilder();
+        for (Note note : notes) {
+            if (recipient != null && recipient.equals(note.excluded())) {
+                continue;
+            }
+            if (!text.isEmpty()) {
+                text.append('\n');
+            }
+            text.append(note.text());
+        }
+        return text.toString();
+    }
+}
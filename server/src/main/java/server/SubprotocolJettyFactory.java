@@ -0,0 +1,81 @@
+package server;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.component.LifeCycle;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import org.eclipse.jetty.websocket.server.NativeWebSocketConfiguration;
+import org.eclipse.jetty.websocket.servlet.WebSocketCreator;
+import spark.embeddedserver.jetty.JettyServerFactory;
+
+/**
+ * Makes the same Jetty servers Spark does, and lets websocket clients agree on a subprotocol with them.
+ * <p>
+ * Spark maps its websocket paths with a creator that never accepts a subprotocol, so a client that offers
+ * one is always answered without it. Just before the server starts, the creator for the websocket path is
+ * wrapped with one that accepts the first of the server's subprotocols that the client offered.
+ */
+class SubprotocolJettyFactory implements JettyServerFactory {
+    private final String path;
+    private final String[] subprotocols;
+
+    /**
+     * @param path Websocket path, as given to Spark.webSocket
+     * @param subprotocols Subprotocols the server speaks
+     */
+    SubprotocolJettyFactory(String path, String... subprotocols) {
+        this.path = path;
+        this.subprotocols = subprotocols;
+    }
+
+    @Override
+    public Server create(int maxThreads, int minThreads, int threadTimeoutMillis) {
+        // The same defaults as Spark's own factory
+        if (maxThreads <= 0) {
+            return listening(new Server());
+        }
+        return listening(new Server(new QueuedThreadPool(maxThreads, minThreads > 0 ? minThreads : 8,
+                threadTimeoutMillis > 0 ? threadTimeoutMillis : 60_000)));
+    }
+
+    @Override
+    public Server create(ThreadPool threadPool) {
+        return listening(threadPool == null ? new Server() : new Server(threadPool));
+    }
+
+    private Server listening(Server server) {
+        server.addLifeCycleListener(new AbstractLifeCycle.AbstractLifeCycleListener() {
+            @Override
+            public void lifeCycleStarting(LifeCycle event) {
+                acceptSubprotocols(server);
+            }
+        });
+        return server;
+    }
+
+    /**
+     * Wraps the creator Spark mapped for the websocket path. Its handlers are set by the time the server starts.
+     */
+    private void acceptSubprotocols(Server server) {
+        for (var handler : server.getChildHandlersByClass(ServletContextHandler.class)) {
+            var configuration = (NativeWebSocketConfiguration) ((ServletContextHandler) handler).getServletContext()
+                    .getAttribute(NativeWebSocketConfiguration.class.getName());
+            WebSocketCreator creator = configuration == null ? null : configuration.getMapping(path);
+            if (creator == null) {
+                continue;
+            }
+            configuration.removeMapping(path);
+            configuration.addMapping(path, (request, response) -> {
+                for (String subprotocol : subprotocols) {
+                    if (request.hasSubProtocol(subprotocol)) {
+                        response.setAcceptedSubProtocol(subprotocol);
+                        break;
+                    }
+                }
+                return creator.createWebSocket(request, response);
+            });
+        }
+    }
+}
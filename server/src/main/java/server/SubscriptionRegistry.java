@@ -0,0 +1,98 @@
+package server;
+
+import org.eclipse.jetty.websocket.api.Session;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * Tracks which sessions are watching which games. Each game's subscribers are kept in a copy-on-write
+ * set, since they are broadcast to far more often than they change, and a reverse index from session
+ * to games means a session can be cleaned up without looking at every game. Observers are also kept in
+ * a set of their own, so they can be sent updates separately from the players.
+ */
+public class SubscriptionRegistry {
+    private final Map<Integer, Set<Session>> subscribers = new ConcurrentHashMap<>();
+    private final Map<Integer, Set<Session>> observers = new ConcurrentHashMap<>();
+    private final Map<Session, Set<Integer>> subscriptions = new ConcurrentHashMap<>();
+
+    /**
+     * Subscribes a session to a game's broadcasts
+     * @param observer true if the session is watching the game rather than playing in it
+     */
+    public void subscribe(Session session, int gameID, boolean observer) {
+        addSession(subscribers, gameID, session);
+        if (observer) {
+            addSession(observers, gameID, session);
+        } else {
+            removeSession(observers, gameID, session);
+        }
+        subscriptions.compute(session, (s, games) -> {
+            Set<Integer> updated = games == null ? ConcurrentHashMap.newKeySet() : games;
+            updated.add(gameID);
+            return updated;
+        });
+    }
+
+    /**
+     * Stops sending a game's broadcasts to a session
+     */
+    public void unsubscribe(Session session, int gameID) {
+        removeSession(subscribers, gameID, session);
+        removeSession(observers, gameID, session);
+        subscriptions.computeIfPresent(session, (s, games) -> {
+            games.remove(gameID);
+            return games.isEmpty() ? null : games;
+        });
+    }
+
+    /**
+     * @return Sessions subscribed to the game. The collection is safe to iterate while others subscribe.
+     */
+    public Collection<Session> subscribers(int gameID) {
+        Set<Session> sessions = subscribers.get(gameID);
+        return sessions == null ? List.of() : sessions;
+    }
+
+    /**
+     * @return Sessions watching the game rather than playing in it
+     */
+    public Collection<Session> observers(int gameID) {
+        Set<Session> sessions = observers.get(gameID);
+        return sessions == null ? List.of() : sessions;
+    }
+
+    /**
+     * @return true if the session is watching the game rather than playing in it
+     */
+    public boolean isObserver(Session session, int gameID) {
+        return observers(gameID).contains(session);
+    }
+
+    /**
+     * @return Games the session is subscribed to
+     */
+    public Set<Integer> subscriptions(Session session) {
+        Set<Integer> games = subscriptions.get(session);
+        return games == null ? Set.of() : Set.copyOf(games);
+    }
+
+    private static void addSession(Map<Integer, Set<Session>> index, int gameID, Session session) {
+        index.compute(gameID, (id, sessions) -> {
+            Set<Session> updated = sessions == null ? new CopyOnWriteArraySet<>() : sessions;
+            updated.add(session);
+            return updated;
+        });
+    }
+
+    private static void removeSession(Map<Integer, Set<Session>> index, int gameID, Session session) {
+        index.computeIfPresent(gameID, (id, sessions) -> {
+            sessions.remove(session);
+            return sessions.isEmpty() ? null : sessions;
+        });
+    }
+}
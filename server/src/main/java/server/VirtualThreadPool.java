@@ -0,0 +1,55 @@
+package server;
+
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jetty thread pool that runs every task on its own virtual thread. It never runs low on threads, so
+ * Jetty never queues or rejects work because of it.
+ */
+class VirtualThreadPool extends AbstractLifeCycle implements ThreadPool {
+    private volatile ExecutorService executor;
+
+    @Override
+    protected void doStart() throws Exception {
+        executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("jetty-virtual-", 0).factory());
+        super.doStart();
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        executor.shutdown();
+        super.doStop();
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    @Override
+    public void join() throws InterruptedException {
+        while (!executor.awaitTermination(1, TimeUnit.DAYS)) {
+            // Keep waiting until the pool is stopped
+        }
+    }
+
+    @Override
+    public int getThreads() {
+        return 0;
+    }
+
+    @Override
+    public int getIdleThreads() {
+        return 0;
+    }
+
+    @Override
+    public boolean isLowOnThreads() {
+        return false;
+    }
+}
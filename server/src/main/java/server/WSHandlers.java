@@ -3,25 +3,55 @@ package server;
 import chess.ChessGame;
 import chess.ChessMove;
 import chess.ChessPiece;
+import chess.ChessPosition;
 import chess.InvalidMoveException;
+import dataaccess.AuthDAO;
 import dataaccess.DataAccessException;
-import dataaccess.SQLAuthDAO;
-import dataaccess.SQLGameDAO;
+import dataaccess.GameDAO;
+import dataaccess.VersionedGameDAO;
 import model.AuthData;
 import model.GameData;
 import org.eclipse.jetty.websocket.api.Session;
+import util.AsyncLogger;
+import util.DatabaseLimit;
+import util.Metrics;
+import util.ServerConfig;
+import websocket.commands.ConnectCommand;
 import websocket.commands.MakeMoveCommand;
 import websocket.commands.UserGameCommand;
 import websocket.messages.*;
 
-import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class WSHandlers {
-
-    private static final HashMap<Integer, Collection<Session>> SUBSCRIPTION_LISTS = new HashMap<>();
-    private static final HashMap<Session, String> AUTH_TOKEN_LOOKUP = new HashMap<>();
+    private static final AsyncLogger LOG = AsyncLogger.getLogger(WSHandlers.class);
+
+    // Set by Server.run before any command arrives
+    private static volatile GameDAO gameDB;
+    private static volatile AuthDAO authDB;
+    private static final SubscriptionRegistry SUBSCRIPTIONS = new SubscriptionRegistry();
+    private static final Map<Session, String> AUTH_TOKEN_LOOKUP = new ConcurrentHashMap<>();
+    // Sessions that asked for MOVE messages instead of a full LOAD_GAME after each move
+    private static final Set<Session> DELTA_SESSIONS = ConcurrentHashMap.newKeySet();
+    // Commands for the same game run one at a time, in the order they arrived
+    private static final GameExecutor GAME_EXECUTOR = new GameExecutor(Runtime.getRuntime().availableProcessors());
+    // Observers of busy games get their updates in batches, so players are not held up by them
+    private static final SpectatorCoalescer SPECTATORS = new SpectatorCoalescer(SUBSCRIPTIONS, GAME_EXECUTOR,
+            ServerConfig.getInt("ws.spectatorBatchThreshold", 50), ServerConfig.getLong("ws.spectatorBatchMillis", 250));
+    // Games of dropped sessions are held for a while, in case the client reconnects
+    private static final ResumeRegistry RESUMES = new ResumeRegistry(ServerConfig.getLong("ws.resumeGraceMillis", 30_000));
+    // Sessions watching the list of games. Lobby commands run on a lane of their own, as no game has ID 0.
+    private static final int LOBBY_LANE = 0;
+    private static final LobbyFeed LOBBY = new LobbyFeed(GAME_EXECUTOR, LOBBY_LANE,
+            ServerConfig.getInt("lobby.snapshotPageSize", 200));
+    private static final Metrics.Histogram COMMAND_WAITS = Metrics.histogram("chess_ws_command_wait_seconds",
+            "Time each websocket command waits behind earlier commands for its game", "command");
+    private static final Metrics.Histogram COMMANDS = Metrics.histogram("chess_ws_command_seconds",
+            "Time to handle each websocket command, once it starts", "command");
     private static final HashMap<ChessPiece.PieceType, String> PIECE_NAMES = new HashMap<>() {{
         put(ChessPiece.PieceType.PAWN, "Pawn");
         put(ChessPiece.PieceType.ROOK, "Rook");
@@ -36,47 +66,145 @@ public class WSHandlers {
     }};
     private static final String[] COLUMN_NAMES = {"A", "B", "C", "D", "E", "F", "G", "H"};
 
-    private static void sendErrorMessage(Session session, String message) {
+    static void sendErrorMessage(Session session, String message) {
         // Create an error message object
         ErrorMessage errorMessage = new ErrorMessage(message);
         // Send the error message to the client
         WSServer.sendMessage(session, errorMessage);
     }
 
-    private static void notifySubscribers(int gameID, ServerMessage message, Session currSess, boolean includeSelf) {
-        // Get the list of subscribers for the game
-        Collection<Session> sessions = SUBSCRIPTION_LISTS.get(gameID);
-        if (sessions != null) {
-            for (Session session : sessions) {
-                // If includeSelf is false, skip the current session
-                if (!includeSelf && session.equals(currSess)) {
-                    continue;
-                }
-                WSServer.sendMessage(session, message);
+    private static void notifySubscribers(int gameID, NotificationMessage message, Session currSess, boolean includeSelf) {
+        // In a busy game, the observers get this with the next batch instead
+        boolean batchObservers = SPECTATORS.isActive(gameID);
+        if (batchObservers) {
+            SPECTATORS.queueNotification(gameID, message.getMessage(), includeSelf ? null : currSess);
+        }
+
+        // Serialize the message once, and send the same text to every subscriber
+        EncodedMessage msg = null;
+        for (Session session : SUBSCRIPTIONS.subscribers(gameID)) {
+            // If includeSelf is false, skip the current session
+            if (!includeSelf && session.equals(currSess)) {
+                continue;
+            }
+            if (batchObservers && SUBSCRIPTIONS.isObserver(session, gameID)) {
+                continue;
+            }
+            if (msg == null) {
+                msg = WSServer.encode(message);
             }
+            WSServer.sendEncoded(session, msg);
+        }
+
+        // Sessions that dropped out of the game get it if they come back
+        RESUMES.notifyParked(gameID, message);
+    }
+
+    /**
+     * Fills in the auth token the session connected with, for a binary command that was sent without one
+     * @return The command with an auth token, or the command itself if it has one or the session has not connected
+     */
+    private static UserGameCommand withBoundAuthToken(UserGameCommand command, Session session) {
+        String authToken = AUTH_TOKEN_LOOKUP.get(session);
+        if (command.getAuthToken() != null || authToken == null) {
+            return command;
+        }
+        if (command instanceof MakeMoveCommand move) {
+            return new MakeMoveCommand(authToken, move.getGameID(), move.getMove());
+        }
+        return new UserGameCommand(command.getCommandType(), authToken, command.getGameID());
+    }
+
+    /**
+     * Sets the DAOs commands read and write games and auth tokens through
+     */
+    static void setDataAccess(GameDAO games, AuthDAO auths) {
+        gameDB = games;
+        authDB = auths;
+        LOBBY.setDataAccess(games);
+        if (games instanceof VersionedGameDAO versioned) {
+            versioned.addListener(LOBBY);
         }
     }
 
+    /**
+     * @return Executor every game's websocket commands run on, for other changes to a game to go through
+     */
+    static GameExecutor gameExecutor() {
+        return GAME_EXECUTOR;
+    }
+
+    /**
+     * Chooses the threads websocket commands run on
+     */
+    static void setExecutionMode(ExecutionMode mode) {
+        GAME_EXECUTOR.setExecutionMode(mode);
+    }
+
+    /**
+     * Queues a command to be handled on its game's executor. Commands without a game are rejected here,
+     * apart from the lobby commands.
+     */
     public static void parseCommand(UserGameCommand command, Session session) {
+        if (command.getCommandType() == UserGameCommand.CommandType.LOBBY_SUBSCRIBE
+                || command.getCommandType() == UserGameCommand.CommandType.LOBBY_UNSUBSCRIBE) {
+            GAME_EXECUTOR.submit(LOBBY_LANE, timed(command, () -> runLobbyCommand(command, session)));
+            return;
+        }
+        if (command.getGameID() == null) {
+            sendErrorMessage(session, "Game ID is required");
+            return;
+        }
+        GAME_EXECUTOR.submit(command.getGameID(), timed(command, () -> runCommand(command, session)));
+    }
+
+    /**
+     * Wraps a command's task so both its wait in the queue and its run are recorded
+     */
+    private static Runnable timed(UserGameCommand command, Runnable task) {
+        String type = command.getCommandType().name();
+        long queued = System.nanoTime();
+        return () -> {
+            long start = System.nanoTime();
+            COMMAND_WAITS.observe(start - queued, type);
+            try {
+                task.run();
+            } finally {
+                COMMANDS.observeSince(start, type);
+            }
+        };
+    }
+
+    private static void runCommand(UserGameCommand received, Session session) {
         // Is the connection valid?
         if (!session.isOpen()) {
             return;
         }
+        // Read the session's auth token now, so a CONNECT queued just before this one has been handled
+        UserGameCommand command = withBoundAuthToken(received, session);
+        // Wait for a turn at the database, so a burst of commands cannot swamp it
+        if (!DatabaseLimit.acquire()) {
+            sendErrorMessage(session, "Server is busy, try again");
+            return;
+        }
         // Handle the command based on its type
         try {
-            validateCommand(command);
+            CommandContext context = resolveCommand(command);
             switch (command.getCommandType()) {
                 case CONNECT:
-                    handleConnect(command, session);
+                    handleConnect(command, context, session);
                     break;
                 case MAKE_MOVE:
-                    handleMakeMove((MakeMoveCommand) command, session);
+                    handleMakeMove((MakeMoveCommand) command, context, session);
                     break;
                 case LEAVE:
-                    handleLeave(command, session);
+                    handleLeave(context, session);
                     break;
                 case RESIGN:
-                    handleResign(command, session);
+                    handleResign(context, session);
+                    break;
+                case SYNC:
+                    WSServer.sendMessage(session, new LoadGameMessage(context.gameData().game()));
                     break;
                 default:
                     sendErrorMessage(session, "Unknown command type");
@@ -86,10 +214,47 @@ public class WSHandlers {
             sendErrorMessage(session, e.getMessage());
         } catch (InvalidCommand e) {
             sendErrorMessage(session, e.getMessage());
+        } finally {
+            DatabaseLimit.release();
+        }
+    }
+
+    private static void runLobbyCommand(UserGameCommand command, Session session) {
+        if (!session.isOpen()) {
+            return;
+        }
+        if (command.getCommandType() == UserGameCommand.CommandType.LOBBY_UNSUBSCRIBE) {
+            LOBBY.unsubscribe(session);
+            return;
+        }
+        if (command.getAuthToken() == null || command.getAuthToken().isEmpty()) {
+            sendErrorMessage(session, "Auth token is required");
+            return;
+        }
+        if (!DatabaseLimit.acquire()) {
+            sendErrorMessage(session, "Server is busy, try again");
+            return;
+        }
+        try {
+            if (authDB.getAuth(command.getAuthToken()) == null) {
+                sendErrorMessage(session, "Auth token does not exist");
+                return;
+            }
+            LOBBY.subscribe(session);
+        } catch (DataAccessException e) {
+            sendErrorMessage(session, e.getMessage());
+        } finally {
+            DatabaseLimit.release();
         }
     }
 
-    private static void validateCommand(UserGameCommand command) throws InvalidCommand, DataAccessException {
+    /**
+     * Checks that a command is valid, and looks up the user and game it refers to
+     * @param command Command to resolve
+     * @return Context for the handlers to work from
+     * @throws InvalidCommand if the command is missing fields, or refers to a game or auth token that does not exist
+     */
+    private static CommandContext resolveCommand(UserGameCommand command) throws InvalidCommand, DataAccessException {
         // Check the gameID
         if (command.getGameID() == null) {
             throw new InvalidCommand("Game ID is required");
@@ -100,58 +265,54 @@ public class WSHandlers {
         }
 
         // Make sure gameID exists in the database
-        SQLGameDAO gameDatabase = new SQLGameDAO();
-        GameData gameData = gameDatabase.getGame(command.getGameID());
+        GameData gameData = gameDB.getGame(command.getGameID());
         if (gameData == null) {
             throw new InvalidCommand("Game ID does not exist");
         }
         // Make sure the authToken exists in the auth database
-        SQLAuthDAO authDatabase = new SQLAuthDAO();
-        AuthData authData = authDatabase.getAuth(command.getAuthToken());
+        AuthData authData = authDB.getAuth(command.getAuthToken());
         if (authData == null) {
             throw new InvalidCommand("Auth token does not exist");
         }
+
+        return new CommandContext(authData, gameData, userTeam(authData.username(), gameData));
     }
 
     public static void handleDisconnect(Session session) {
-        // Remove the session from all subscription lists
-        for (Integer gameID : SUBSCRIPTION_LISTS.keySet()) {
-            removeSubscription(session, gameID);
-            // For each game the user was subscribed to, mock a leave command to notify others
-            UserGameCommand leaveCommand = new UserGameCommand(UserGameCommand.CommandType.LEAVE, AUTH_TOKEN_LOOKUP.get(session), gameID);
-            try {
-                handleLeave(leaveCommand, session);
-            } catch (DataAccessException e) {
-                // Do nothing, as the user is already disconnected
-            }
+        // Remove the session from the auth token lookup. Only one call gets the token, so a session
+        // that both errors and closes is only cleaned up once.
+        String authToken = AUTH_TOKEN_LOOKUP.remove(session);
+        DELTA_SESSIONS.remove(session);
+        LOBBY.unsubscribe(session);
+        ResumeRegistry.Binding resumeBinding = RESUMES.unbind(session);
+        if (authToken == null) {
+            return;
         }
 
-        // Remove the session from the auth token lookup
-        AUTH_TOKEN_LOOKUP.remove(session);
-    }
+        for (int gameID : SUBSCRIPTIONS.subscriptions(session)) {
+            // Stop sending to the session straight away
+            SUBSCRIPTIONS.unsubscribe(session, gameID);
+
+            // Mock a leave command to notify others, on the game's executor
+            UserGameCommand leaveCommand = new UserGameCommand(UserGameCommand.CommandType.LEAVE, authToken, gameID);
+            Runnable leave = () -> GAME_EXECUTOR.submit(gameID, () -> {
+                try {
+                    handleLeave(resolveCommand(leaveCommand), session);
+                } catch (DataAccessException | InvalidCommand e) {
+                    LOG.warn("Error leaving game {} after disconnect: {}", gameID, e.getMessage());
+                }
+            });
 
-    private static void addSubscription(Session session, int gameID) {
-        if (!SUBSCRIPTION_LISTS.containsKey(gameID)) {
-            SUBSCRIPTION_LISTS.put(gameID, new ArrayList<>());
+            // A client that can resume keeps its place until the grace period runs out
+            if (resumeBinding != null) {
+                RESUMES.park(resumeBinding, authToken, gameID, leave);
+            } else {
+                leave.run();
+            }
         }
-
-        Collection<Session> sessions = SUBSCRIPTION_LISTS.get(gameID);
-        sessions.add(session);
-    }
-
-    private static String getUsername(String authToken) throws DataAccessException {
-        // Get the user's username from the auth database
-        SQLAuthDAO authDatabase = new SQLAuthDAO();
-        AuthData auth = authDatabase.getAuth(authToken);
-        return auth.username();
     }
 
-    private static ChessGame.TeamColor userTeam(String authToken, int gameID) throws DataAccessException {
-        // Get username
-        String username = getUsername(authToken);
-        // Get game data
-        SQLGameDAO gameDatabase = new SQLGameDAO();
-        GameData gameData = gameDatabase.getGame(gameID);
+    private static ChessGame.TeamColor userTeam(String username, GameData gameData) {
         String whitePlayer = gameData.whiteUsername();
         String blackPlayer = gameData.blackUsername();
         // Determine if the user is white, black, or an observer
@@ -164,12 +325,72 @@ public class WSHandlers {
         }
     }
 
-    private static LoadGameMessage generateLoadGameMessage(int gameID) throws DataAccessException {
-        // Get the game data
-        SQLGameDAO gameDatabase = new SQLGameDAO();
-        GameData gameData = gameDatabase.getGame(gameID);
-        // Create a LoadGameMessage object
-        return new LoadGameMessage(gameData.game());
+    /**
+     * Sends a move to every subscriber of a game, as a MOVE to sessions that asked for deltas and as a
+     * full LOAD_GAME to everyone else. Each form is serialized at most once. The move is also kept for
+     * sessions that have dropped out of the game, to replay if they resume.
+     */
+    private static void broadcastMove(int gameID, LoadGameMessage loadMessage, MoveMessage moveMessage) {
+        RESUMES.moveParked(gameID, moveMessage);
+
+        // In a busy game, the observers only get the newest board at the end of the batch
+        boolean batchObservers = SPECTATORS.isActive(gameID);
+        if (batchObservers) {
+            SPECTATORS.queueGame(gameID, loadMessage);
+        }
+
+        EncodedMessage encodedLoad = null;
+        EncodedMessage encodedMove = null;
+        for (Session session : SUBSCRIPTIONS.subscribers(gameID)) {
+            if (batchObservers && SUBSCRIPTIONS.isObserver(session, gameID)) {
+                continue;
+            }
+            if (DELTA_SESSIONS.contains(session)) {
+                if (encodedMove == null) {
+                    encodedMove = WSServer.encode(moveMessage);
+                }
+                WSServer.sendEncoded(session, encodedMove);
+            } else {
+                if (encodedLoad == null) {
+                    encodedLoad = WSServer.encode(loadMessage);
+                }
+                WSServer.sendEncoded(session, encodedLoad);
+            }
+        }
+    }
+
+    /**
+     * @return The rook's half of the move if it is castling, otherwise null. Must be called before the move is made.
+     */
+    private static ChessMove castlingRookMove(ChessGame game, ChessMove move) {
+        ChessPosition start = move.getStartPosition();
+        ChessPosition end = move.getEndPosition();
+        ChessPiece piece = game.getBoard().getPiece(start);
+        if (piece == null || piece.getPieceType() != ChessPiece.PieceType.KING
+                || Math.abs(end.getColumn() - start.getColumn()) != 2) {
+            return null;
+        }
+        boolean kingSide = end.getColumn() > start.getColumn();
+        ChessPosition rookStart = new ChessPosition(start.getRow(), kingSide ? 8 : 1);
+        ChessPosition rookEnd = new ChessPosition(start.getRow(), kingSide ? end.getColumn() - 1 : end.getColumn() + 1);
+        return new ChessMove(rookStart, rookEnd, null);
+    }
+
+    /**
+     * @return Square of the piece the move captures, or null. Must be called before the move is made.
+     */
+    private static ChessPosition capturedPosition(ChessGame game, ChessMove move) {
+        ChessPosition start = move.getStartPosition();
+        ChessPosition end = move.getEndPosition();
+        if (game.getBoard().getPiece(end) != null) {
+            return end;
+        }
+        // A pawn moving diagonally onto an empty square is taking en passant
+        ChessPiece piece = game.getBoard().getPiece(start);
+        if (piece != null && piece.getPieceType() == ChessPiece.PieceType.PAWN && start.getColumn() != end.getColumn()) {
+            return new ChessPosition(start.getRow(), end.getColumn());
+        }
+        return null;
     }
 
     private static String convertMoveToText(String username, ChessMove move, ChessGame game) {
@@ -182,19 +403,74 @@ public class WSHandlers {
         return username + " performed the move " + pieceName + " to " + destSquare;
     }
 
-    private static void handleConnect(UserGameCommand command, Session session) throws DataAccessException {
+    /**
+     * Adds the session to the game, and remembers how it wants to be sent updates
+     */
+    private static void subscribe(UserGameCommand command, CommandContext context, Session session) {
+        // If this user's auth token is not already in the lookup, add it
+        AUTH_TOKEN_LOOKUP.putIfAbsent(session, command.getAuthToken());
+        if (command instanceof ConnectCommand connect && connect.wantsDeltaUpdates()) {
+            DELTA_SESSIONS.add(session);
+        } else {
+            DELTA_SESSIONS.remove(session);
+        }
+        if (command instanceof ConnectCommand connect && connect.getResumeToken() != null) {
+            RESUMES.bind(session, connect.getResumeToken(), context.username());
+        }
+
         // Add the user to the subscription list for the game
-        int gameID = command.getGameID();
-        String authToken = command.getAuthToken();
-        addSubscription(session, gameID);
+        SUBSCRIPTIONS.subscribe(session, context.gameID(), context.isObserver());
+    }
 
-        // If this user's auth token is not already in the lookup, add it
-        if (!AUTH_TOKEN_LOOKUP.containsKey(session)) {
-            AUTH_TOKEN_LOOKUP.put(session, authToken);
+    /**
+     * Picks up a game the client dropped out of, if it is still being held. The client only gets what it
+     * missed: the moves made while it was gone, then the notifications. A client that did not ask for
+     * deltas, or that missed more moves than were kept, gets the whole board instead. The other
+     * subscribers are not told, as they never saw the client leave.
+     * @return false if the game was not being held, in which case this is a normal connect
+     */
+    private static boolean resumeConnect(ConnectCommand command, CommandContext context, Session session) {
+        ResumeRegistry.ParkedGame parked = RESUMES.resume(command.getResumeToken(), command.getAuthToken(),
+                context.gameID());
+        if (parked == null) {
+            return false;
+        }
+        subscribe(command, context, session);
+        LOG.debug("{} resumed game {}", context.username(), context.gameID());
+
+        ChessGame game = context.gameData().game();
+        List<MoveMessage> moves = command.wantsDeltaUpdates()
+                ? parked.movesSince(command.getLastSeq(), game.getMoveCount())
+                : null;
+        // A game that ended without a move (a resignation) still needs the board to say so
+        boolean movesTellEnd = !game.isGameOver() || (moves != null && !moves.isEmpty() && moves.getLast().isGameOver());
+        if (moves != null && movesTellEnd) {
+            for (MoveMessage move : moves) {
+                WSServer.sendMessage(session, move);
+            }
+        } else if (command.getLastSeq() != game.getMoveCount() || game.isGameOver()) {
+            WSServer.sendMessage(session, new LoadGameMessage(game));
+        }
+        for (NotificationMessage missed : parked.missedNotifications()) {
+            WSServer.sendMessage(session, missed);
+        }
+        return true;
+    }
+
+    private static void handleConnect(UserGameCommand command, CommandContext context, Session session) {
+        boolean resumed = command instanceof ConnectCommand connect && connect.isResume()
+                && resumeConnect(connect, context, session);
+        // This session takes over from any dropped session of the same user, whose put-off leave must not run
+        RESUMES.cancel(context.username(), context.gameID());
+        if (resumed) {
+            return;
         }
 
+        int gameID = context.gameID();
+        subscribe(command, context, session);
+
         // Get the user's role
-        ChessGame.TeamColor userTeam = userTeam(authToken, gameID);
+        ChessGame.TeamColor userTeam = context.team();
 
         // Determine if the user has connected as white, black, or observer
         String userType;
@@ -206,33 +482,32 @@ public class WSHandlers {
             userType = "an observer";
         }
 
-        String username = getUsername(authToken);
+        String username = context.username();
         // Send a LOAD_GAME message to the user
-        LoadGameMessage loadMessage = generateLoadGameMessage(gameID);
-        System.out.println("Sending LOAD_GAME message to " + username);
+        LoadGameMessage loadMessage = new LoadGameMessage(context.gameData().game());
+        LOG.debug("Sending LOAD_GAME message to {}", username);
         WSServer.sendMessage(session, loadMessage);
 
         // Send a message to other subscribers that this user has connected
         String message = username + " has connected as " + userType;
-        ServerMessage serverMessage = new NotificationMessage(message);
-        System.out.println("Sending NOTIFICATION message to other subscribers: " + message);
+        NotificationMessage serverMessage = new NotificationMessage(message);
+        LOG.debug("Sending NOTIFICATION message to other subscribers: {}", message);
         notifySubscribers(gameID, serverMessage, session, false);
     }
 
-    private static void handleMakeMove(MakeMoveCommand command, Session session) throws DataAccessException {
-        int gameID = command.getGameID();
+    private static void handleMakeMove(MakeMoveCommand command, CommandContext context, Session session) throws DataAccessException {
+        int gameID = context.gameID();
         // Get user team
-        ChessGame.TeamColor userTeamColor = userTeam(command.getAuthToken(), command.getGameID());
+        ChessGame.TeamColor userTeamColor = context.team();
 
-        if (userTeamColor == null) {
+        if (context.isObserver()) {
             sendErrorMessage(session, "You are an observer in this game");
             return;
         }
 
         ChessMove move = command.getMove();
         // Get the chess game
-        SQLGameDAO gameDatabase = new SQLGameDAO();
-        GameData gameData = gameDatabase.getGame(command.getGameID());
+        GameData gameData = context.gameData();
         ChessGame game = gameData.game();
 
         // If the game is over, do not allow moves
@@ -256,6 +531,10 @@ public class WSHandlers {
             return;
         }
 
+        // Work out what else the move changes before the board changes under it
+        ChessMove rookMove = castlingRookMove(game, move);
+        ChessPosition capturedPosition = capturedPosition(game, move);
+
         // Make the move
         try {
             game.makeMove(move);
@@ -264,95 +543,83 @@ public class WSHandlers {
             return;
         }
 
-        // Update the game data in the database
-        gameDatabase.updateGame(gameData);
+        // Save the move in the database
+        gameDB.recordMove(gameData, move);
 
         // Notify all subscribers to update their boards
-        LoadGameMessage loadMessage = generateLoadGameMessage(command.getGameID());
-        notifySubscribers(gameID, loadMessage, session, true);
+        LoadGameMessage loadMessage = new LoadGameMessage(game);
+        MoveMessage moveMessage = new MoveMessage(game.getMoveCount(), move, rookMove, capturedPosition,
+                game.isGameOver(), game.getWinner());
+        broadcastMove(gameID, loadMessage, moveMessage);
 
         // Notify other subscribers of the move
-        String username = getUsername(command.getAuthToken());
+        String username = context.username();
         String message = convertMoveToText(username, move, game);
-        ServerMessage serverMessage = new NotificationMessage(message);
+        NotificationMessage serverMessage = new NotificationMessage(message);
         notifySubscribers(gameID, serverMessage, session, false);
 
         // Check for check, checkmate, or stalemate
         ChessGame.TeamColor enemy = ChessGame.enemyTeam(userTeamColor);
         if (game.isInCheckmate(enemy)) {
             String checkmateMessage = "Checkmate! " + username + " (" + TEAM_NAMES.get(userTeamColor) + ") wins!";
-            ServerMessage checkmateNotification = new NotificationMessage(checkmateMessage);
+            NotificationMessage checkmateNotification = new NotificationMessage(checkmateMessage);
             notifySubscribers(gameID, checkmateNotification, session, true);
         } else if (game.isInStalemate(enemy)) {
             String stalemateMessage = "Stalemate! The game is a draw.";
-            ServerMessage stalemateNotification = new NotificationMessage(stalemateMessage);
+            NotificationMessage stalemateNotification = new NotificationMessage(stalemateMessage);
             notifySubscribers(gameID, stalemateNotification, session, true);
         } else if (game.isInCheck(enemy)) {
             String checkMessage = "Check!";
-            ServerMessage checkNotification = new NotificationMessage(checkMessage);
+            NotificationMessage checkNotification = new NotificationMessage(checkMessage);
             notifySubscribers(gameID, checkNotification, session, true);
         }
     }
 
-    private static void handleLeave(UserGameCommand command, Session session) throws DataAccessException {
-        int gameID = command.getGameID();
-        String authToken = command.getAuthToken();
-        String username = getUsername(authToken);
+    private static void handleLeave(CommandContext context, Session session) throws DataAccessException {
+        int gameID = context.gameID();
+        String username = context.username();
 
         // Get user role
-        ChessGame.TeamColor userTeam = userTeam(authToken, gameID);
+        ChessGame.TeamColor userTeam = context.team();
 
         // If the user is an observer, just remove them from the subscription list
         if (userTeam != null) {
             // Remove the user from the game
-            SQLGameDAO gameDatabase = new SQLGameDAO();
-            GameData gameData = gameDatabase.getGame(gameID);
+            GameData gameData = context.gameData();
             GameData updatedData;
 
             if (userTeam == ChessGame.TeamColor.WHITE) {
-                updatedData = new GameData(gameData.game(), gameData.gameName(), gameData.blackUsername(), null, gameData.gameID());
+                updatedData = gameData.withPlayers(gameData.blackUsername(), null);
             } else {
-                updatedData = new GameData(gameData.game(), gameData.gameName(), null, gameData.whiteUsername(), gameData.gameID());
+                updatedData = gameData.withPlayers(null, gameData.whiteUsername());
             }
 
             // Update the game data in the database
-            gameDatabase.updateGame(updatedData);
+            gameDB.updateGame(updatedData);
         }
 
         // Notify other subscribers that the user has left
         String message = username + " has left the game";
-        ServerMessage serverMessage = new NotificationMessage(message);
+        NotificationMessage serverMessage = new NotificationMessage(message);
         notifySubscribers(gameID, serverMessage, session, false);
 
         // Remove the user from the subscription list
-        removeSubscription(session, gameID);
-    }
-
-    private static void removeSubscription(Session session, int gameID) {
-        Collection<Session> sessions = SUBSCRIPTION_LISTS.get(gameID);
-        if (sessions != null) {
-            sessions.remove(session);
-            if (sessions.isEmpty()) {
-                SUBSCRIPTION_LISTS.remove(gameID);
-            }
-        }
+        SUBSCRIPTIONS.unsubscribe(session, gameID);
     }
 
-    private static void handleResign(UserGameCommand command, Session session) throws DataAccessException {
-        int gameID = command.getGameID();
-        String authToken = command.getAuthToken();
-        String username = getUsername(authToken);
+    private static void handleResign(CommandContext context, Session session) throws DataAccessException {
+        int gameID = context.gameID();
+        String username = context.username();
 
         // Get user role
-        ChessGame.TeamColor userTeam = userTeam(authToken, gameID);
+        ChessGame.TeamColor userTeam = context.team();
         if (userTeam == null) {
             sendErrorMessage(session, "You are an observer in this game");
             return;
         }
 
         // Get the game data
-        SQLGameDAO gameDatabase = new SQLGameDAO();
-        GameData gameData = gameDatabase.getGame(gameID);
+        GameData gameData = context.gameData();
         ChessGame game = gameData.game();
 
         // Can't resign if the game is already over
@@ -368,11 +635,11 @@ public class WSHandlers {
 
         // Mark the enemy as the winner and save the game
         game.markWinner(ChessGame.enemyTeam(userTeam));
-        gameDatabase.updateGame(gameData);
+        gameDB.updateGame(gameData);
 
         // Notify all subscribers of the resignation
         String message = username + " has resigned. " + TEAM_NAMES.get(ChessGame.enemyTeam(userTeam)) + " wins!";
-        ServerMessage serverMessage = new NotificationMessage(message);
+        NotificationMessage serverMessage = new NotificationMessage(message);
         notifySubscribers(gameID, serverMessage, session, true);
     }
 }
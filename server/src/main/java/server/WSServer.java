@@ -1,61 +1,211 @@
 package server;
 
-import chess.ChessGame;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketClose;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketConnect;
 import org.eclipse.jetty.websocket.api.annotations.OnWebSocketError;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketFrame;
 import org.eclipse.jetty.websocket.api.annotations.OnWebSocketMessage;
 import org.eclipse.jetty.websocket.api.annotations.WebSocket;
+import org.eclipse.jetty.websocket.api.extensions.Frame;
 import org.eclipse.jetty.websocket.api.Session;
 import spark.Spark;
-import websocket.commands.MakeMoveCommand;
+import util.AsyncLogger;
+import util.Metrics;
+import util.ServerConfig;
+import websocket.BinaryProtocol;
+import websocket.WebSocketJson;
 import websocket.commands.UserGameCommand;
 import websocket.messages.ServerMessage;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 @WebSocket
 public class WSServer {
+    static final String PATH = "/ws";
+    private static final AsyncLogger LOG = AsyncLogger.getLogger(WSServer.class);
+    private static final int OUTBOX_CAPACITY = ServerConfig.getInt("ws.outboxCapacity", 64);
+    private static final SessionOutbox.SlowConsumerPolicy SLOW_CONSUMER_POLICY =
+            ServerConfig.getEnum("ws.slowConsumerPolicy", SessionOutbox.SlowConsumerPolicy.DROP_OLDEST_LOAD_GAME);
+    private static final Map<Session, SessionOutbox> OUTBOXES = new ConcurrentHashMap<>();
+    private static final Set<Session> BINARY_SESSIONS = ConcurrentHashMap.newKeySet();
+    // Pings every session, and drops the ones that stop answering
+    private static final Heartbeat HEARTBEAT = new Heartbeat(ServerConfig.getLong("ws.pingIntervalMillis", 15_000),
+            ServerConfig.getLong("ws.idleTimeoutMillis", 45_000), WSServer::reap);
+    private static final Metrics.Histogram DECODE = Metrics.histogram("chess_ws_decode_seconds",
+            "Time to parse each incoming websocket command", "format");
 
     public static void run(int port) {
         // Start the WebSocket server
         Spark.port(port);
-        Spark.webSocket("/ws", WSServer.class);
+        Spark.webSocket(PATH, WSServer.class);
+    }
+
+    /**
+     * Wraps a message so it can be sent to any number of sessions with sendEncoded, while only being
+     * serialized once for each protocol
+     * @param message Message to send
+     * @return Wrapped message
+     */
+    static EncodedMessage encode(ServerMessage message) {
+        return new EncodedMessage(message);
+    }
+
+    static String toJson(ServerMessage message) {
+        String msg = WebSocketJson.GSON.toJson(message);
+        LOG.debugSampled("Serialized message: {}", msg);
+        return msg;
+    }
+
+    /**
+     * @return Sessions that are open, or have not yet been found to have gone
+     */
+    static int sessionCount() {
+        return HEARTBEAT.sessionCount();
+    }
+
+    /**
+     * @return Messages waiting to be sent, across every session
+     */
+    static long queuedMessages() {
+        long queued = 0;
+        for (SessionOutbox outbox : OUTBOXES.values()) {
+            queued += outbox.depth();
+        }
+        return queued;
+    }
+
+    /**
+     * @return Messages waiting for the session furthest behind
+     */
+    static int deepestQueue() {
+        int deepest = 0;
+        for (SessionOutbox outbox : OUTBOXES.values()) {
+            deepest = Math.max(deepest, outbox.depth());
+        }
+        return deepest;
     }
 
     public static void sendMessage(Session session, ServerMessage message) {
-        // Serialize message
-        System.out.println("Serializing message");
-        GsonBuilder gsonBuilder = new GsonBuilder();
-        gsonBuilder.registerTypeAdapter(ChessGame.class, new ChessGame.ChessGameAdapter());
-        gsonBuilder.registerTypeAdapter(ChessGame.class, new ChessGame.ChessGameDeserializer());
-        Gson serializer = gsonBuilder.create();
-        String msg = serializer.toJson(message);
-        System.out.println("Serialized message: " + msg);
-        // Send message to the client.
+        sendEncoded(session, encode(message));
+    }
+
+    /**
+     * Queues a message that has already been wrapped by encode. The message is sent in the
+     * background, so this never waits on the client.
+     * <p>
+     * The message is serialized here, on the calling thread. Messages can hold a game that is still being
+     * played, and only the thread running that game's commands can safely read it.
+     * @param session Session to send to
+     * @param msg Wrapped message
+     */
+    static void sendEncoded(Session session, EncodedMessage msg) {
+        boolean binary = BINARY_SESSIONS.contains(session);
+        if (binary) {
+            msg.binary();
+        } else {
+            msg.text();
+        }
+        OUTBOXES.computeIfAbsent(session, s -> new SessionOutbox(s, binary, OUTBOX_CAPACITY, SLOW_CONSUMER_POLICY))
+                .send(msg);
+    }
+
+    /**
+     * Forgets a session's outbox, dropping anything still queued for it
+     */
+    static void removeOutbox(Session session) {
+        OUTBOXES.remove(session);
+    }
+
+    /**
+     * Drops a session that has stopped answering pings
+     */
+    private static void reap(Session session) {
+        sessionClosed(session);
         try {
-            session.getRemote().sendString(msg);
+            session.disconnect();
         } catch (IOException e) {
-            System.err.println("Error sending message: " + e.getMessage());
-            throw new RuntimeException("Error sending message to client", e);
+            LOG.debug("Error disconnecting idle session: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Forgets everything kept for a session that has gone. Safe to call more than once for a session.
+     */
+    private static void sessionClosed(Session session) {
+        HEARTBEAT.forget(session);
+        removeOutbox(session);
+        BINARY_SESSIONS.remove(session);
+        WSHandlers.handleDisconnect(session);
+    }
+
+    @OnWebSocketConnect
+    public void onConnect(Session session) {
+        HEARTBEAT.touch(session);
+        // Clients ask for the binary protocol in the websocket handshake, and only get it if the server accepted
+        if (BinaryProtocol.SUBPROTOCOL.equals(session.getUpgradeResponse().getAcceptedSubProtocol())) {
+            BINARY_SESSIONS.add(session);
         }
     }
 
     @OnWebSocketMessage
     public void onMessage(Session session, String message) {
-        // Deserialize the message
-        UserGameCommand command = new Gson().fromJson(message, UserGameCommand.class);
-        if (command.getCommandType() == UserGameCommand.CommandType.MAKE_MOVE) {
-            command = new Gson().fromJson(message, MakeMoveCommand.class);
+        HEARTBEAT.touch(session);
+        // Deserialize the message, straight into the right command class
+        UserGameCommand command;
+        long start = System.nanoTime();
+        try {
+            command = WebSocketJson.GSON.fromJson(message, UserGameCommand.class);
+        } catch (JsonParseException e) {
+            WSHandlers.sendErrorMessage(session, "Malformed command: " + e.getMessage());
+            return;
+        } finally {
+            DECODE.observeSince(start, "json");
         }
 
         // Pass the command to the command parser
         WSHandlers.parseCommand(command, session);
     }
 
+    @OnWebSocketMessage
+    public void onBinaryMessage(Session session, byte[] buffer, int offset, int length) {
+        HEARTBEAT.touch(session);
+        byte[] frame = Arrays.copyOfRange(buffer, offset, offset + length);
+        UserGameCommand command;
+        long start = System.nanoTime();
+        try {
+            // Only CONNECT carries the auth token. The one the session connected with is filled in for
+            // every other command when it runs, after any CONNECT queued ahead of it.
+            command = BinaryProtocol.decodeCommand(frame);
+        } catch (IllegalArgumentException e) {
+            WSHandlers.sendErrorMessage(session, e.getMessage());
+            return;
+        } finally {
+            DECODE.observeSince(start, "binary");
+        }
+        WSHandlers.parseCommand(command, session);
+    }
+
+    @OnWebSocketFrame
+    public void onFrame(Session session, Frame frame) {
+        // Messages are handled above, this only needs to see the answers to our pings
+        if (frame.getType() == Frame.Type.PONG) {
+            HEARTBEAT.touch(session);
+        }
+    }
+
+    @OnWebSocketClose
+    public void onClose(Session session, int statusCode, String reason) {
+        sessionClosed(session);
+    }
+
     @OnWebSocketError
     public void onError(Session session, Throwable throwable) {
         // Handle WebSocket errors
-        WSHandlers.handleDisconnect(session);
+        sessionClosed(session);
     }
 }
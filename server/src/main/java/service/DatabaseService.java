@@ -1,35 +1,83 @@
 package service;
 
 import dataaccess.*;
+import util.Metrics;
+import util.ServerConfig;
 
+/**
+ * Builds the DAOs the whole server shares, once. Setting dao.storage=memory in server.properties keeps
+ * everything in memory instead of the database.
+ */
 public class DatabaseService {
-    static SQLUserDAO userDB;
+    static UserDAO userDB;
+    static VersionedGameDAO gameDB;
+    static WriteBehindGameDAO writeBehindGameDB;
+    static AuthDAO authDB;
 
     static {
         try {
-            userDB = new SQLUserDAO();
+            GameDAO games;
+            if (ServerConfig.getString("dao.storage", "sql").equals("memory")) {
+                userDB = new MemoryUserDAO();
+                games = new MemoryGameDAO();
+                authDB = new MemoryAuthDAO();
+            } else {
+                userDB = new SQLUserDAO();
+
+                // Games are kept in memory and written behind, unless the flush interval is turned off
+                GameDAO sqlGameDB = new SQLGameDAO();
+                long flushInterval = ServerConfig.getLong("game.flushIntervalMillis", 200);
+                if (flushInterval > 0) {
+                    writeBehindGameDB = WriteBehindGameDAO.start(sqlGameDB, flushInterval);
+                    games = writeBehindGameDB;
+                } else {
+                    games = sqlGameDB;
+                }
+
+                // Tokens are checked on every request, so recently used ones are kept in memory
+                AuthDAO sqlAuthDB = new SQLAuthDAO();
+                int cacheSize = ServerConfig.getInt("auth.cacheSize", 10_000);
+                authDB = cacheSize > 0
+                        ? new CachingAuthDAO(sqlAuthDB, cacheSize, ServerConfig.getLong("auth.cacheTtlMillis", 60_000))
+                        : sqlAuthDB;
+            }
+
+            // Time every call the rest of the server makes, caches included
+            userDB = Metrics.timed(UserDAO.class, userDB);
+            gameDB = new VersionedGameDAO(Metrics.timed(GameDAO.class, games));
+            authDB = Metrics.timed(AuthDAO.class, authDB);
         } catch (DataAccessException e) {
             throw new RuntimeException(e);
         }
     }
 
-    static SQLGameDAO gameDB;
+    /**
+     * @return The user DAO shared by the whole server
+     */
+    public static UserDAO getUserDAO() {
+        return userDB;
+    }
 
-    static {
-        try {
-            gameDB = new SQLGameDAO();
-        } catch (DataAccessException e) {
-            throw new RuntimeException(e);
-        }
+    /**
+     * @return The game DAO shared by the whole server
+     */
+    public static GameDAO getGameDAO() {
+        return gameDB;
     }
 
-    static SQLAuthDAO authDB;
+    /**
+     * @return The auth DAO shared by the whole server
+     */
+    public static AuthDAO getAuthDAO() {
+        return authDB;
+    }
 
-    static {
-        try {
-            authDB = new SQLAuthDAO();
-        } catch (DataAccessException e) {
-            throw new RuntimeException(e);
+    /**
+     * Writes any games that are only changed in memory to the database
+     */
+    public static void flushGames() throws DataAccessException {
+        if (writeBehindGameDB != null) {
+            writeBehindGameDB.flush();
         }
     }
 
@@ -0,0 +1,20 @@
+package service;
+
+/**
+ * Runs tasks for a game one at a time, in the order they were submitted, alongside the websocket
+ * commands for the same game. Changes to a game that is being played go through here, so they never
+ * race a move or overwrite each other.
+ */
+public interface GameLanes {
+    /**
+     * Runs everything on the calling thread, for when no websocket commands are being handled
+     */
+    GameLanes DIRECT = (gameID, task) -> task.run();
+
+    /**
+     * Queues a task to run after every task already submitted for the same game
+     * @param gameID Game the task works on
+     * @param task Task to run
+     */
+    void submit(int gameID, Runnable task);
+}
@@ -2,30 +2,96 @@ package service;
 
 import chess.ChessGame;
 import dataaccess.DataAccessException;
+import dataaccess.GameDAO;
+import dataaccess.GameQuery;
 import dataaccess.MemoryAuthDAO;
 import dataaccess.MemoryGameDAO;
-import dataaccess.SQLGameDAO;
+import dataaccess.VersionedGameDAO;
 import model.*;
+import util.DatabaseLimit;
 
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Random;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
 
 public class GameService {
-    private final SQLGameDAO gameDB;
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    public static final int MAX_PAGE_SIZE = 200;
+
+    // How many gameIDs newGame tries before giving up, when other games keep taking them first
+    private static final int CREATE_ATTEMPTS = 5;
+    private final GameDAO gameDB;
     private final UserService userService;
+    private final GameLanes lanes;
 
     public GameService() throws DataAccessException {
-        userService = new UserService();
-        gameDB = new SQLGameDAO();
+        this(DatabaseService.getGameDAO(), new UserService());
+    }
+
+    /**
+     * @param gameDB Where games are stored
+     * @param userService Service used to check auth tokens
+     */
+    public GameService(GameDAO gameDB, UserService userService) {
+        this(gameDB, userService, GameLanes.DIRECT);
+    }
+
+    /**
+     * @param gameDB Where games are stored
+     * @param userService Service used to check auth tokens
+     * @param lanes Where changes to a game are run, so they take turns with the game's websocket commands
+     */
+    public GameService(GameDAO gameDB, UserService userService, GameLanes lanes) {
+        this.gameDB = gameDB;
+        this.userService = userService;
+        this.lanes = lanes;
+    }
+
+    /**
+     * @return A tag that changes whenever the games change, or null if the games are not versioned.
+     * Read it before listing, so a listing is never older than the tag sent with it.
+     */
+    public String listVersion() {
+        return gameDB instanceof VersionedGameDAO versioned ? versioned.versionTag() : null;
     }
 
     public ListGamesResult listGames(ListGamesRequest listRequest) throws ServiceError, DataAccessException {
+        List<GameData> games = new ArrayList<>();
+        Integer nextCursor = forEachGame(listRequest, games::add);
+        return new ListGamesResult(games.toArray(new GameData[0]), nextCursor);
+    }
+
+    /**
+     * Lists a page of games one at a time, without holding the page in memory. The auth token and page
+     * size are checked before action is first called.
+     * @param listRequest Page to list
+     * @param action Called with each game in the page, in gameID order
+     * @return Cursor of the next page, or null if this is the last page
+     */
+    public Integer forEachGame(ListGamesRequest listRequest, Consumer<GameData> action) throws ServiceError, DataAccessException {
         // Check authentication
         userService.checkAuth(listRequest.authToken());
 
-        // Get games
-        return new ListGamesResult(gameDB.listGames().toArray(new GameData[0]));
+        // Check that the page size is sensible
+        int limit = listRequest.limit() == null ? DEFAULT_PAGE_SIZE : listRequest.limit();
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new ServiceError("Error: bad request", 400);
+        }
+
+        // Fetch one extra game so we know whether there is another page
+        GameQuery query = new GameQuery(listRequest.cursor(), limit + 1, listRequest.openSeats(),
+                listRequest.player(), listRequest.finished());
+        int[] seen = new int[1];
+        int[] lastID = new int[1];
+        gameDB.forEachGame(query, game -> {
+            if (++seen[0] <= limit) {
+                lastID[0] = game.gameID();
+                action.accept(game);
+            }
+        });
+        return seen[0] > limit ? lastID[0] : null;
     }
 
     public NewGameResult newGame(NewGameRequest newGameRequest) throws ServiceError, DataAccessException {
@@ -37,26 +103,22 @@ public class GameService {
             throw new ServiceError("Error: bad request", 400);
         }
 
-        // Get a list of current gameIDs to ensure the new game is unique
-        Collection<GameData> games = gameDB.listGames();
-        Collection<Integer> idList = new ArrayList<>();
-
-        for (GameData game : games) {
-            idList.add(game.gameID());
-        }
-        int gameID = 0;
-
-        Random random = new Random();
-        while (gameID == 0 || idList.contains(gameID)) {
-            gameID = random.nextInt(9999);
+        // Take the next gameID after the largest one. Two games created at once can pick the same one, in
+        // which case the one that loses tries again with the next.
+        int gameID = gameDB.maxGameID() + 1;
+        for (int attempt = 1; ; attempt++) {
+            GameData game = new GameData(new ChessGame(), newGameRequest.gameName(), null, null, gameID);
+            try {
+                gameDB.createGame(game);
+                break;
+            } catch (DataAccessException e) {
+                if (attempt == CREATE_ATTEMPTS || gameDB.getGame(gameID) == null) {
+                    throw e;
+                }
+                gameID = Math.max(gameID, gameDB.maxGameID()) + 1;
+            }
         }
 
-        // Create a new chessgame
-        ChessGame newGame = new ChessGame();
-
-        GameData game = new GameData(newGame, newGameRequest.gameName(), null, null, gameID);
-        gameDB.createGame(game);
-
         // Create response
         return new NewGameResult(gameID);
     }
@@ -69,6 +131,45 @@ public class GameService {
         if (joinRequest.playerColor() == null || !(joinRequest.playerColor().equals("WHITE") || joinRequest.playerColor().equals("BLACK"))) {
             throw new ServiceError("Error: bad request", 400);
         }
+
+        // Join on the game's lane, so a move or a player leaving over the websocket cannot happen halfway through.
+        // The lane takes its own database turn like the websocket commands do, so this thread gives its turn
+        // back rather than holding it while it waits. Nothing after the join uses the database.
+        DatabaseLimit.releaseHeld();
+        CompletableFuture<Void> joined = new CompletableFuture<>();
+        lanes.submit(joinRequest.gameID(), () -> {
+            if (!DatabaseLimit.acquire()) {
+                joined.completeExceptionally(new ServiceError("Error: server is busy", 503));
+                return;
+            }
+            // Give the turn back before the caller hears the join is done
+            Throwable failure = null;
+            try {
+                doJoin(joinRequest, auth);
+            } catch (Throwable e) {
+                failure = e;
+            } finally {
+                DatabaseLimit.release();
+            }
+            if (failure == null) {
+                joined.complete(null);
+            } else {
+                joined.completeExceptionally(failure);
+            }
+        });
+        try {
+            joined.join();
+        } catch (CompletionException e) {
+            switch (e.getCause()) {
+                case ServiceError error -> throw error;
+                case DataAccessException error -> throw error;
+                case RuntimeException error -> throw error;
+                default -> throw e;
+            }
+        }
+    }
+
+    private void doJoin(JoinGameRequest joinRequest, AuthData auth) throws ServiceError, DataAccessException {
         GameData game = gameDB.getGame(joinRequest.gameID());
 
         if (game == null) {
@@ -91,14 +192,14 @@ public class GameService {
         if (joinRequest.playerColor().equals("WHITE")) {
             if (game.whiteUsername() == null) {
                 // Join the game
-                newGame = new GameData(game.game(), game.gameName(), game.blackUsername(), auth.username(), game.gameID());
+                newGame = game.withPlayers(game.blackUsername(), auth.username());
             } else {
                 throw new ServiceError("Error: already taken", 403);
             }
         } else {
             if (game.blackUsername() == null) {
                 // Join game
-                newGame = new GameData(game.game(), game.gameName(), auth.username(), game.whiteUsername(), game.gameID());
+                newGame = game.withPlayers(auth.username(), game.whiteUsername());
             } else {
                 throw new ServiceError("Error: already taken", 403);
             }
@@ -0,0 +1,109 @@
+package service;
+
+import org.mindrot.jbcrypt.BCrypt;
+import util.DatabaseLimit;
+import util.ServerConfig;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashes and checks passwords on a small pool of its own, so a burst of logins only ever keeps a few
+ * threads busy and leaves the rest of the server free. When the pool and its queue are full, new work is
+ * turned away straight away with a 503 instead of waiting. A request waiting on a hash gives its
+ * DatabaseLimit turn to someone else until the hash is done.
+ * <p>
+ * New hashes are made at auth.bcryptCost in server.properties, and passwords hashed at another cost are
+ * rehashed the next time the user logs in. auth.hashThreads sets the pool's size, by default half the
+ * processors so logins can never take up the whole machine, and auth.hashQueueSize how many passwords can
+ * wait for it.
+ */
+public class PasswordHasher {
+    private static final int COST = ServerConfig.getInt("auth.bcryptCost", 10);
+    private static final int THREADS = ServerConfig.getInt("auth.hashThreads",
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    private static final ThreadPoolExecutor POOL = new ThreadPoolExecutor(
+            THREADS, THREADS, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(ServerConfig.getInt("auth.hashQueueSize", 64)),
+            runnable -> {
+                Thread thread = new Thread(runnable, "password-hasher");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /**
+     * @param password Password to hash
+     * @return Hash of the password at the configured cost
+     * @throws ServiceError 503 if too many passwords are already waiting
+     */
+    public static String hash(String password) throws ServiceError {
+        return run(() -> BCrypt.hashpw(password, BCrypt.gensalt(COST)));
+    }
+
+    /**
+     * @param password Password to check
+     * @param hash Stored hash
+     * @return true if the password matches
+     * @throws ServiceError 503 if too many passwords are already waiting
+     */
+    public static boolean check(String password, String hash) throws ServiceError {
+        return run(() -> BCrypt.checkpw(password, hash));
+    }
+
+    /**
+     * @param hash Stored hash
+     * @return true if the hash was made at a different cost than the configured one
+     */
+    public static boolean needsRehash(String hash) {
+        // BCrypt hashes look like $2a$10$..., where 10 is the cost
+        String[] parts = hash.split("\\$");
+        if (parts.length < 3) {
+            return true;
+        }
+        try {
+            return Integer.parseInt(parts[2]) != COST;
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Runs a task on the pool and waits for it, without holding a database turn while it waits
+     */
+    static <T> T run(Callable<T> task) throws ServiceError {
+        Future<T> result;
+        try {
+            result = POOL.submit(task);
+        } catch (RejectedExecutionException e) {
+            throw new ServiceError("Error: server is busy", 503);
+        }
+
+        boolean released = DatabaseLimit.releaseHeld();
+        T value = await(result);
+        if (released && !DatabaseLimit.acquire()) {
+            throw new ServiceError("Error: server is busy", 503);
+        }
+        return value;
+    }
+
+    private static <T> T await(Future<T> result) throws ServiceError {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new ServiceError("Error: interrupted", 500);
+        } catch (ExecutionException e) {
+            // Fail the same way as if the hashing had run on this thread
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new ServiceError("Error: " + e.getCause().getMessage(), 500);
+        }
+    }
+}
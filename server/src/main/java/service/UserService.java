@@ -2,17 +2,24 @@ package service;
 
 import dataaccess.*;
 import model.*;
-import org.mindrot.jbcrypt.BCrypt;
 
 import java.util.UUID;
 
 public class UserService {
-    private final SQLUserDAO userDB;
-    private final SQLAuthDAO authDB;
+    private final UserDAO userDB;
+    private final AuthDAO authDB;
 
     public UserService() throws DataAccessException {
-        userDB = new SQLUserDAO();
-        authDB = new SQLAuthDAO();
+        this(DatabaseService.getUserDAO(), DatabaseService.getAuthDAO());
+    }
+
+    /**
+     * @param userDB Where users are stored
+     * @param authDB Where auth tokens are stored
+     */
+    public UserService(UserDAO userDB, AuthDAO authDB) {
+        this.userDB = userDB;
+        this.authDB = authDB;
     }
 
     private static String generateAuthToken() {
@@ -44,7 +51,7 @@ public class UserService {
         }
 
         // Create a new user and auth data
-        String hashedPassword = BCrypt.hashpw(registerRequest.password(), BCrypt.gensalt());
+        String hashedPassword = PasswordHasher.hash(registerRequest.password());
         UserData user = new UserData(registerRequest.username(), hashedPassword, registerRequest.email());
         AuthData auth = new AuthData(generateAuthToken(), user.username());
         userDB.createUser(user);
@@ -59,10 +66,15 @@ public class UserService {
         UserData user = userDB.getUser(loginRequest.username());
 
         // Check if the user submitted the correct password
-        if (user == null || !BCrypt.checkpw(loginRequest.password(), user.password())) {
+        if (user == null || !PasswordHasher.check(loginRequest.password(), user.password())) {
             throw new ServiceError("Error: unauthorized", 401);
         }
 
+        // Bring the stored hash up to the current cost while we have the password
+        if (PasswordHasher.needsRehash(user.password())) {
+            userDB.updatePassword(user.username(), PasswordHasher.hash(loginRequest.password()));
+        }
+
         // Create auth data
         AuthData auth = new AuthData(generateAuthToken(), user.username());
         authDB.createAuth(auth);
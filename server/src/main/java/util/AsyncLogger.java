@@ -0,0 +1,83 @@
+package util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SLF4J logger that writes on a background thread, so handler threads never wait on the console.
+ * <p>
+ * Levels are checked on the calling thread, so a disabled level costs nothing more than the check.
+ * Entries wait in a bounded queue (log.queueCapacity in server.properties) and are dropped if it
+ * fills up. Message payloads go through debugSampled, which only logs one in log.payloadSampleRate
+ * of them. Levels are set in simplelogger.properties.
+ */
+public class AsyncLogger {
+    private static final int QUEUE_CAPACITY = ServerConfig.getInt("log.queueCapacity", 10_000);
+    private static final int PAYLOAD_SAMPLE_RATE = Math.max(1, ServerConfig.getInt("log.payloadSampleRate", 100));
+    private static final AtomicLong DROPPED = new AtomicLong();
+    private static final ThreadPoolExecutor WRITER = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(QUEUE_CAPACITY),
+            runnable -> {
+                Thread thread = new Thread(runnable, "log-writer");
+                thread.setDaemon(true);
+                return thread;
+            },
+            (runnable, executor) -> DROPPED.incrementAndGet());
+
+    private final Logger logger;
+    private final AtomicLong sampled = new AtomicLong();
+
+    private AsyncLogger(Logger logger) {
+        this.logger = logger;
+    }
+
+    public static AsyncLogger getLogger(Class<?> type) {
+        return new AsyncLogger(LoggerFactory.getLogger(type));
+    }
+
+    /**
+     * @return Number of log entries dropped because the queue was full
+     */
+    public static long droppedEntries() {
+        return DROPPED.get();
+    }
+
+    public void debug(String format, Object... args) {
+        if (logger.isDebugEnabled()) {
+            WRITER.execute(() -> logger.debug(format, args));
+        }
+    }
+
+    /**
+     * Logs at debug, but only one call in every log.payloadSampleRate. Meant for message payloads,
+     * which are large and sent far too often to log them all.
+     */
+    public void debugSampled(String format, Object... args) {
+        if (logger.isDebugEnabled() && sampled.getAndIncrement() % PAYLOAD_SAMPLE_RATE == 0) {
+            WRITER.execute(() -> logger.debug(format, args));
+        }
+    }
+
+    public void info(String format, Object... args) {
+        if (logger.isInfoEnabled()) {
+            WRITER.execute(() -> logger.info(format, args));
+        }
+    }
+
+    public void warn(String format, Object... args) {
+        if (logger.isWarnEnabled()) {
+            WRITER.execute(() -> logger.warn(format, args));
+        }
+    }
+
+    public void error(String format, Object... args) {
+        if (logger.isErrorEnabled()) {
+            WRITER.execute(() -> logger.error(format, args));
+        }
+    }
+}
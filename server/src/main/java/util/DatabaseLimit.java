@@ -0,0 +1,88 @@
+package util;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caps how many HTTP requests and websocket commands can be running (and so using the database) at
+ * once. Jetty's thread pool used to be the only cap, which virtual threads take away. Set the cap with
+ * server.dbConcurrency in server.properties. A request that waits longer than
+ * server.dbAcquireTimeoutMillis for its turn is turned away.
+ * <p>
+ * The server only sets the cap when it runs on virtual threads, as the thread pools already cap platform
+ * threads. Set server.dbLimitPlatform to true to cap platform threads as well.
+ * <p>
+ * Turns are tracked per thread, so work that does not need the database (hashing a password) can give
+ * its thread's turn back while it waits, and take it again afterwards.
+ */
+public class DatabaseLimit {
+    private static final long ACQUIRE_TIMEOUT_MILLIS = ServerConfig.getLong("server.dbAcquireTimeoutMillis", 5_000);
+    private static final ThreadLocal<int[]> HELD = ThreadLocal.withInitial(() -> new int[1]);
+    // Null when there is no cap
+    private static volatile Semaphore permits = new Semaphore(ServerConfig.getInt("server.dbConcurrency", 64), true);
+
+    /**
+     * Changes the cap. Only call this while no turns are taken, such as when the server starts.
+     * @param limit Turns that can be taken at once, or 0 for no cap
+     */
+    public static void setLimit(int limit) {
+        permits = limit > 0 ? new Semaphore(limit, true) : null;
+    }
+
+    /**
+     * Waits for a turn. Every successful call must be followed by release().
+     * @return false if no turn came up in time
+     */
+    public static boolean acquire() {
+        Semaphore permits = DatabaseLimit.permits;
+        if (permits == null) {
+            return true;
+        }
+        try {
+            if (!permits.tryAcquire(ACQUIRE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        HELD.get()[0]++;
+        return true;
+    }
+
+    /**
+     * Gives back a turn taken by this thread. Does nothing if the thread has already given it back
+     * with releaseHeld() and could not take it again.
+     */
+    public static void release() {
+        int[] held = HELD.get();
+        Semaphore permits = DatabaseLimit.permits;
+        if (held[0] > 0) {
+            held[0]--;
+            if (permits != null) {
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * Gives back a turn this thread holds, ahead of work that does not use the database. Call acquire()
+     * afterwards to take it again.
+     * @return true if the thread held a turn and gave it back
+     */
+    public static boolean releaseHeld() {
+        if (HELD.get()[0] == 0) {
+            return false;
+        }
+        release();
+        return true;
+    }
+
+    /**
+     * @return Turns that could be taken right now without waiting, or -1 if there is no cap
+     */
+    public static int available() {
+        Semaphore permits = DatabaseLimit.permits;
+        return permits != null ? permits.availablePermits() : -1;
+    }
+}
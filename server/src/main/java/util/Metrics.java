@@ -0,0 +1,216 @@
+package util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Latency histograms, gauges and counters for the whole server, exported in the Prometheus text format
+ * on /metrics.
+ * <p>
+ * Metrics are registered by name, and registering the same name again returns the one already there,
+ * so callers can keep them in static fields. Recording is lock-free: each set of label values gets its
+ * own adders, made the first time the values are seen. Latencies are recorded in nanoseconds and
+ * exported in seconds.
+ */
+public class Metrics {
+    // Upper bounds of the latency buckets, in seconds
+    private static final double[] BUCKETS = {0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+    private static final double NANOS_PER_SECOND = 1e9;
+    private static final Map<String, Metric> METRICS = new ConcurrentSkipListMap<>();
+    private static final Histogram DAO_CALLS = histogram("chess_dao_call_seconds",
+            "Time spent in each DAO method", "dao", "method");
+
+    private interface Metric {
+        void write(String name, StringBuilder out);
+    }
+
+    /**
+     * Latency histogram, with one series per set of label values
+     */
+    public static final class Histogram implements Metric {
+        private final String help;
+        private final String[] labelNames;
+        private final Map<List<String>, Series> series = new ConcurrentHashMap<>();
+
+        private Histogram(String help, String[] labelNames) {
+            this.help = help;
+            this.labelNames = labelNames;
+        }
+
+        /**
+         * Records one observation
+         * @param nanos How long it took
+         * @param labelValues One value per label name, in the same order
+         */
+        public void observe(long nanos, String... labelValues) {
+            series.computeIfAbsent(List.of(labelValues), values -> new Series()).observe(nanos / NANOS_PER_SECOND);
+        }
+
+        /**
+         * Records the time since start, a System.nanoTime() reading
+         */
+        public void observeSince(long start, String... labelValues) {
+            observe(System.nanoTime() - start, labelValues);
+        }
+
+        @Override
+        public void write(String name, StringBuilder out) {
+            header(out, name, help, "histogram");
+            for (Map.Entry<List<String>, Series> entry : sorted(series).entrySet()) {
+                Series counts = entry.getValue();
+                long cumulative = 0;
+                for (int i = 0; i <= BUCKETS.length; i++) {
+                    cumulative += counts.buckets[i].sum();
+                    String le = i < BUCKETS.length ? BigDecimal.valueOf(BUCKETS[i]).stripTrailingZeros().toPlainString() : "+Inf";
+                    sample(out, name + "_bucket", labelNames, entry.getKey(), "le", le, cumulative);
+                }
+                sample(out, name + "_sum", labelNames, entry.getKey(), null, null, counts.sum.sum());
+                sample(out, name + "_count", labelNames, entry.getKey(), null, null, counts.count.sum());
+            }
+        }
+
+        private static final class Series {
+            private final LongAdder[] buckets = new LongAdder[BUCKETS.length + 1];
+            private final DoubleAdder sum = new DoubleAdder();
+            private final LongAdder count = new LongAdder();
+
+            private Series() {
+                Arrays.setAll(buckets, i -> new LongAdder());
+            }
+
+            private void observe(double seconds) {
+                int bucket = 0;
+                while (bucket < BUCKETS.length && seconds > BUCKETS[bucket]) {
+                    bucket++;
+                }
+                buckets[bucket].increment();
+                sum.add(seconds);
+                count.increment();
+            }
+        }
+    }
+
+    /**
+     * A single value read from elsewhere each time the metrics are scraped
+     */
+    private record Sampled(String help, String type, DoubleSupplier value) implements Metric {
+        @Override
+        public void write(String name, StringBuilder out) {
+            header(out, name, help, type);
+            sample(out, name, new String[0], List.of(), null, null, value.getAsDouble());
+        }
+    }
+
+    /**
+     * @param name Metric name. By convention latencies end in _seconds.
+     * @param help One line describing the metric
+     * @param labelNames Names of the labels each observation is recorded with
+     */
+    public static Histogram histogram(String name, String help, String... labelNames) {
+        return (Histogram) METRICS.computeIfAbsent(name, n -> new Histogram(help, labelNames));
+    }
+
+    /**
+     * Exports a value that can go up and down, such as a queue depth. Replaces any gauge of the same name.
+     */
+    public static void gauge(String name, String help, DoubleSupplier value) {
+        METRICS.put(name, new Sampled(help, "gauge", value));
+    }
+
+    /**
+     * Exports a count that is already being kept elsewhere. By convention counters end in _total.
+     * Replaces any counter of the same name.
+     */
+    public static void counter(String name, String help, DoubleSupplier value) {
+        METRICS.put(name, new Sampled(help, "counter", value));
+    }
+
+    /**
+     * Wraps a DAO so the time spent in each of its methods is recorded, labelled with the interface's
+     * name and the method's name
+     * @param type Interface the DAO is used through
+     * @param target DAO to wrap
+     * @return A DAO that times each call and passes it on to target
+     */
+    public static <T> T timed(Class<T> type, T target) {
+        Object proxy = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, (p, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                return method.invoke(target, args);
+            }
+            long start = System.nanoTime();
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                // Throw what the DAO threw, not the reflection wrapper
+                throw e.getCause();
+            } finally {
+                DAO_CALLS.observeSince(start, type.getSimpleName(), method.getName());
+            }
+        });
+        return type.cast(proxy);
+    }
+
+    /**
+     * @return Every metric, in the Prometheus text exposition format
+     */
+    public static String scrape() {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, Metric> entry : METRICS.entrySet()) {
+            entry.getValue().write(entry.getKey(), out);
+        }
+        return out.toString();
+    }
+
+    private static <V> Map<List<String>, V> sorted(Map<List<String>, V> series) {
+        Map<List<String>, V> sorted = new TreeMap<>((a, b) -> String.join("\u0000", a).compareTo(String.join("\u0000", b)));
+        sorted.putAll(series);
+        return sorted;
+    }
+
+    private static void header(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String[] labelNames, List<String> labelValues,
+                               String extraName, String extraValue, double value) {
+        out.append(name);
+        if (labelNames.length > 0 || extraName != null) {
+            out.append('{');
+            String separator = "";
+            for (int i = 0; i < labelNames.length; i++) {
+                out.append(separator).append(labelNames[i]).append("=\"").append(escape(labelValues.get(i))).append('"');
+                separator = ",";
+            }
+            if (extraName != null) {
+                out.append(separator).append(extraName).append("=\"").append(extraValue).append('"');
+            }
+            out.append('}');
+        }
+        out.append(' ').append(format(value)).append('\n');
+    }
+
+    private static String format(double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    private static String escape(String value) {
+        if (value == null) {
+            return "";
+        }
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
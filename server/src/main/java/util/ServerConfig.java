@@ -0,0 +1,46 @@
+package util;
+
+import java.io.IOException;
+import java.util.Properties;
+
+/**
+ * Server settings, read from an optional server.properties file on the classpath. Every setting has a
+ * default, so the server runs without the file.
+ */
+public class ServerConfig {
+    private static final Properties PROPERTIES = new Properties();
+
+    static {
+        try (var propStream = Thread.currentThread().getContextClassLoader().getResourceAsStream("server.properties")) {
+            if (propStream != null) {
+                PROPERTIES.load(propStream);
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException("unable to process server.properties. " + ex.getMessage());
+        }
+    }
+
+    public static String getString(String key, String defaultValue) {
+        return PROPERTIES.getProperty(key, defaultValue);
+    }
+
+    public static int getInt(String key, int defaultValue) {
+        String value = PROPERTIES.getProperty(key);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    public static long getLong(String key, long defaultValue) {
+        String value = PROPERTIES.getProperty(key);
+        return value == null ? defaultValue : Long.parseLong(value.trim());
+    }
+
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = PROPERTIES.getProperty(key);
+        return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+
+    public static <T extends Enum<T>> T getEnum(String key, T defaultValue) {
+        String value = PROPERTIES.getProperty(key);
+        return value == null ? defaultValue : Enum.valueOf(defaultValue.getDeclaringClass(), value.trim());
+    }
+}
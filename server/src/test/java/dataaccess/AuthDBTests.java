@@ -99,6 +99,60 @@ public class AuthDBTests {
 
     @Test
     @Order(7)
+    public void cachedAuthInvalidation() {
+        assertDoesNotThrow(() -> {
+            AuthDAO sqlDAO = new SQLAuthDAO();
+            AuthDAO authDAO = new CachingAuthDAO(sqlDAO, 100, 60000);
+            AuthData authData = new AuthData("cachedToken", "Tester12");
+            authDAO.createAuth(authData);
+
+            // Deleting behind the cache's back is not seen until the TTL runs out
+            sqlDAO.deleteAuth(authData);
+            assertEquals(authData, authDAO.getAuth("cachedToken"));
+
+            // Deleting through the cache is seen straight away
+            sqlDAO.createAuth(authData);
+            authDAO.deleteAuth(authData);
+            assertNull(authDAO.getAuth("cachedToken"));
+
+            // A token deleted while a lookup is reading it is not cached by that lookup
+            sqlDAO.createAuth(authData);
+            AuthDAO[] racing = new AuthDAO[1];
+            boolean[] deleteOnRead = {true};
+            AuthDAO deletingDAO = new AuthDAO() {
+                @Override
+                public AuthData getAuth(String authToken) throws DataAccessException {
+                    AuthData found = sqlDAO.getAuth(authToken);
+                    if (deleteOnRead[0]) {
+                        deleteOnRead[0] = false;
+                        racing[0].deleteAuth(found);
+                    }
+                    return found;
+                }
+
+                @Override
+                public void createAuth(AuthData auth) throws DataAccessException {
+                    sqlDAO.createAuth(auth);
+                }
+
+                @Override
+                public void deleteAuth(AuthData auth) throws DataAccessException {
+                    sqlDAO.deleteAuth(auth);
+                }
+
+                @Override
+                public void clear() throws DataAccessException {
+                    sqlDAO.clear();
+                }
+            };
+            racing[0] = new CachingAuthDAO(deletingDAO, 100, 60000);
+            assertEquals(authData, racing[0].getAuth("cachedToken"));
+            assertNull(racing[0].getAuth("cachedToken"));
+        });
+    }
+
+    @Test
+    @Order(8)
     public void clearAuth() {
         assertDoesNotThrow(() -> {
             AuthDAO authDAO = new SQLAuthDAO();
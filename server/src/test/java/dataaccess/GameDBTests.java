@@ -3,10 +3,13 @@ package dataaccess;
 import chess.ChessGame;
 import chess.ChessMove;
 import chess.ChessPosition;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
 import model.GameData;
 import org.junit.jupiter.api.*;
 
 import java.util.Collection;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -141,6 +144,314 @@ public class GameDBTests {
 
     @Test
     @Order(9)
+    public void updateKeepsGameState() {
+        assertDoesNotThrow(() -> {
+            SQLGameDAO gameDB = new SQLGameDAO();
+            GameData gameData = gameDB.getGame(2222);
+
+            // End the game and save it
+            gameData.game().markWinner(ChessGame.TeamColor.BLACK);
+            gameDB.updateGame(gameData);
+
+            // The winner and turn should survive the round trip
+            GameData reloaded = gameDB.getGame(2222);
+            assertTrue(reloaded.game().isGameOver(), "Game over flag was not saved");
+            assertEquals(ChessGame.TeamColor.BLACK, reloaded.game().getWinner(), "Winner was not saved");
+            assertEquals(ChessGame.TeamColor.WHITE, reloaded.game().getTeamTurn(), "Turn was not saved");
+        });
+    }
+
+    @Test
+    @Order(10)
+    public void recordMovesReplayLog() {
+        assertDoesNotThrow(() -> {
+            // Snapshot every other move, so the last move is only in the log
+            SQLGameDAO gameDB = new SQLGameDAO(2);
+            gameDB.createGame(new GameData(new ChessGame(), "Logged Game", null, null, 3333));
+
+            ChessMove[] moves = {
+                    new ChessMove(new ChessPosition(2, 5), new ChessPosition(4, 5), null),
+                    new ChessMove(new ChessPosition(7, 5), new ChessPosition(5, 5), null),
+                    new ChessMove(new ChessPosition(1, 7), new ChessPosition(3, 6), null)
+            };
+            for (ChessMove move : moves) {
+                GameData gameData = gameDB.getGame(3333);
+                gameData.game().makeMove(move);
+                gameDB.recordMove(gameData, move);
+            }
+
+            // The reloaded game should match one that made the same moves in memory
+            ChessGame expected = new ChessGame();
+            for (ChessMove move : moves) {
+                expected.makeMove(move);
+            }
+            ChessGame reloaded = gameDB.getGame(3333).game();
+            assertEquals(expected.getBoard(), reloaded.getBoard(), "Board was not rebuilt from the move log");
+            assertEquals(ChessGame.TeamColor.BLACK, reloaded.getTeamTurn(), "Turn was not rebuilt from the move log");
+            assertEquals(3, reloaded.getMoveCount(), "Move count was not rebuilt from the move log");
+
+            // Recording the same move number twice should be rejected
+            GameData stale = gameDB.getGame(3333);
+            assertThrows(DataAccessException.class, () -> gameDB.recordMove(stale, moves[2]));
+        });
+    }
+
+    @Test
+    @Order(11)
+    public void writeBehindFlush() {
+        assertDoesNotThrow(() -> {
+            // Use a long interval so only the explicit flush writes anything
+            SQLGameDAO sqlDB = new SQLGameDAO();
+            WriteBehindGameDAO gameDB = WriteBehindGameDAO.start(sqlDB, 60000);
+            gameDB.createGame(new GameData(new ChessGame(), "Cached Game", null, null, 4444));
+
+            ChessMove move = new ChessMove(new ChessPosition(2, 4), new ChessPosition(4, 4), null);
+            GameData gameData = gameDB.getGame(4444);
+            gameData.game().makeMove(move);
+            gameDB.recordMove(gameData, move);
+
+            // The move is visible through the cache, but not in the database yet
+            assertEquals(ChessGame.TeamColor.BLACK, gameDB.getGame(4444).game().getTeamTurn());
+            assertEquals(ChessGame.TeamColor.WHITE, sqlDB.getGame(4444).game().getTeamTurn());
+
+            gameDB.flush();
+            assertEquals(ChessGame.TeamColor.BLACK, sqlDB.getGame(4444).game().getTeamTurn(),
+                    "Flush did not write the move");
+        });
+    }
+
+    @Test
+    @Order(12)
+    public void writeBehindMoveLog() {
+        assertDoesNotThrow(() -> {
+            // Snapshot every other move, so the flushed moves must go through the move log
+            SQLGameDAO sqlDB = new SQLGameDAO(2);
+            WriteBehindGameDAO gameDB = WriteBehindGameDAO.start(sqlDB, 60000);
+            gameDB.createGame(new GameData(new ChessGame(), "Logged Cached Game", null, null, 5555));
+
+            ChessMove[] moves = {
+                    new ChessMove(new ChessPosition(2, 3), new ChessPosition(4, 3), null),
+                    new ChessMove(new ChessPosition(7, 3), new ChessPosition(5, 3), null),
+                    new ChessMove(new ChessPosition(1, 2), new ChessPosition(3, 3), null)
+            };
+            for (ChessMove move : moves) {
+                GameData gameData = gameDB.getGame(5555);
+                gameData.game().makeMove(move);
+                gameDB.recordMove(gameData, move);
+            }
+            // A player joining after the moves should not undo them
+            GameData joined = gameDB.getGame(5555).withPlayers("black", "white");
+            gameDB.updateGame(joined);
+            gameDB.flush();
+
+            try (var conn = DatabaseManager.getConnection();
+                 var ps = conn.prepareStatement("SELECT COUNT(*) FROM game_move WHERE gameId = 5555");
+                 var rs = ps.executeQuery()) {
+                rs.next();
+                assertEquals(3, rs.getInt(1), "Flushed moves were not written to the move log");
+            }
+            GameData reloaded = sqlDB.getGame(5555);
+            assertEquals(3, reloaded.game().getMoveCount(), "Flush lost moves");
+            assertEquals(ChessGame.TeamColor.BLACK, reloaded.game().getTeamTurn());
+            assertEquals("white", reloaded.whiteUsername(), "Flush lost the player update");
+        });
+    }
+
+    @Test
+    @Order(13)
+    public void writeBehindEvictsIdleGames() {
+        assertDoesNotThrow(() -> {
+            SQLGameDAO sqlDB = new SQLGameDAO();
+            WriteBehindGameDAO gameDB = WriteBehindGameDAO.start(sqlDB, 60000, 0);
+            gameDB.createGame(new GameData(new ChessGame(), "Idle Game", null, null, 6666));
+
+            GameData gameData = gameDB.getGame(6666);
+            gameDB.updateGame(gameData.withPlayers(null, "white"));
+
+            // A game with changes waiting is kept, however long it has been idle
+            Thread.sleep(5);
+            gameDB.evictIdleGames();
+            GameData cached = gameDB.getGame(6666);
+            assertEquals("white", cached.whiteUsername());
+
+            gameDB.flush();
+            Thread.sleep(5);
+            gameDB.evictIdleGames();
+            GameData reloaded = gameDB.getGame(6666);
+            assertNotSame(cached, reloaded, "Idle game was not dropped from memory");
+            assertEquals("white", reloaded.whiteUsername());
+        });
+    }
+
+    @Test
+    @Order(14)
+    public void writeBehindListsUnflushedChanges() {
+        assertDoesNotThrow(() -> {
+            SQLGameDAO sqlDB = new SQLGameDAO();
+            WriteBehindGameDAO gameDB = WriteBehindGameDAO.start(sqlDB, 60000);
+            for (int gameID = 7771; gameID <= 7773; gameID++) {
+                gameDB.createGame(new GameData(new ChessGame(), "Listed Game", null, null, gameID));
+            }
+            gameDB.updateGame(gameDB.getGame(7771).withPlayers(null, "lister"));
+            gameDB.flush();
+
+            // Joins that have not been written, and a player leaving a game the database still has them in
+            gameDB.updateGame(gameDB.getGame(7772).withPlayers("lister", null));
+            gameDB.updateGame(gameDB.getGame(7773).withPlayers(null, "lister"));
+            GameQuery firstPage = new GameQuery(null, 2, null, "lister", null);
+            assertEquals(List.of(7771, 7772), ids(gameDB.listGames(firstPage)));
+            assertEquals(List.of(7773), ids(gameDB.listGames(new GameQuery(7772, 2, null, "lister", null))));
+
+            gameDB.updateGame(gameDB.getGame(7771).withPlayers(null, null));
+            assertEquals(List.of(7772, 7773), ids(gameDB.listGames(firstPage)), "Listing used the database's old players");
+            assertEquals(List.of(7771), ids(sqlDB.listGames(firstPage)), "Listing flushed the changes");
+            assertNull(gameDB.listGames(firstPage).iterator().next().game(), "Listings should not carry the board");
+        });
+    }
+
+    @Test
+    @Order(15)
+    public void migrateLegacyTable() {
+        assertDoesNotThrow(() -> {
+            // Put back the game table as the first version of the server made it, with games stored as JSON
+            Gson legacy = new GsonBuilder()
+                    .registerTypeAdapter(ChessGame.class, new ChessGame.ChessGameAdapter())
+                    .create();
+            ChessGame played = new ChessGame();
+            played.makeMove(new ChessMove(new ChessPosition(2, 5), new ChessPosition(4, 5), null));
+            ChessGame resigned = new ChessGame();
+            resigned.markWinner(ChessGame.TeamColor.WHITE);
+            try (var conn = DatabaseManager.getConnection()) {
+                for (String statement : new String[] {
+                        "DROP TABLE game",
+                        """
+                        CREATE TABLE game (
+                            `json` TEXT DEFAULT NULL,
+                            `name` varchar(32) NOT NULL,
+                            `blackUsername` varchar(32) DEFAULT NULL,
+                            `whiteUsername` varchar(32) DEFAULT NULL,
+                            `gameId` int NOT NULL,
+                            PRIMARY KEY (`gameId`)
+                        )"""}) {
+                    try (var ps = conn.prepareStatement(statement)) {
+                        ps.executeUpdate();
+                    }
+                }
+                try (var ps = conn.prepareStatement("INSERT INTO game (json, name, blackUsername, whiteUsername, gameId) VALUES (?, ?, ?, ?, ?)")) {
+                    ps.setString(1, legacy.toJson(played, ChessGame.class));
+                    ps.setString(2, "Old Game");
+                    ps.setString(3, null);
+                    ps.setString(4, "white");
+                    ps.setInt(5, 7777);
+                    ps.addBatch();
+                    ps.setString(1, legacy.toJson(resigned, ChessGame.class));
+                    ps.setString(2, "Old Resigned Game");
+                    ps.setString(3, "black");
+                    ps.setString(4, "white");
+                    ps.setInt(5, 7778);
+                    ps.addBatch();
+                    ps.executeBatch();
+                }
+            }
+
+            // Making the DAO adds the missing columns and indexes
+            SQLGameDAO gameDB = new SQLGameDAO();
+            GameData old = gameDB.getGame(7777);
+            assertEquals("Old Game", old.gameName());
+            assertEquals("white", old.whiteUsername());
+            assertEquals(played.getBoard(), old.game().getBoard(), "JSON board was not read back");
+            assertEquals(ChessGame.TeamColor.BLACK, old.game().getTeamTurn());
+
+            Collection<GameData> finished = gameDB.listGames(new GameQuery(null, 10, null, null, true));
+            assertEquals(1, finished.size(), "Finished JSON game was not marked finished");
+            assertEquals(7778, finished.iterator().next().gameID());
+
+            // The next write converts the row to the binary format
+            gameDB.updateGame(old.withPlayers("black", "white"));
+            assertEquals(played.getBoard(), gameDB.getGame(7777).game().getBoard());
+            try (var conn = DatabaseManager.getConnection();
+                 var ps = conn.prepareStatement("SELECT format, json FROM game WHERE gameId = 7777");
+                 var rs = ps.executeQuery()) {
+                rs.next();
+                assertEquals(1, rs.getInt("format"), "Row was not converted to the binary format");
+                assertNull(rs.getString("json"));
+            }
+
+            // Making it again leaves the migrated table alone
+            assertEquals("black", new SQLGameDAO().getGame(7777).blackUsername());
+        });
+    }
+
+    @Test
+    @Order(16)
+    public void versionCountsListedChanges() {
+        assertDoesNotThrow(() -> {
+            VersionedGameDAO gameDB = new VersionedGameDAO(new SQLGameDAO());
+            String empty = gameDB.versionTag();
+            gameDB.createGame(new GameData(new ChessGame(), "Versioned Game", null, null, 6666));
+            String created = gameDB.versionTag();
+            assertNotEquals(empty, created, "Creating a game did not change the version");
+
+            // Moves are not in a listing, until one ends the game
+            ChessMove[] moves = {
+                    new ChessMove(new ChessPosition(2, 6), new ChessPosition(3, 6), null),
+                    new ChessMove(new ChessPosition(7, 5), new ChessPosition(5, 5), null),
+                    new ChessMove(new ChessPosition(2, 7), new ChessPosition(4, 7), null),
+                    new ChessMove(new ChessPosition(8, 4), new ChessPosition(4, 8), null)
+            };
+            for (int i = 0; i < moves.length - 1; i++) {
+                GameData gameData = gameDB.getGame(6666);
+                gameData.game().makeMove(moves[i]);
+                gameDB.recordMove(gameData, moves[i]);
+            }
+            assertEquals(created, gameDB.versionTag(), "A move changed the version");
+
+            GameData joined = gameDB.getGame(6666).withPlayers("black", "white");
+            gameDB.updateGame(joined);
+            String seated = gameDB.versionTag();
+            assertNotEquals(created, seated, "Joining a game did not change the version");
+
+            GameData finished = gameDB.getGame(6666);
+            finished.game().makeMove(moves[3]);
+            gameDB.recordMove(finished, moves[3]);
+            assertTrue(finished.game().isGameOver());
+            assertNotEquals(seated, gameDB.versionTag(), "Ending a game did not change the version");
+        });
+    }
+
+    @Test
+    @Order(17)
+    public void memoryStoresCopies() {
+        assertDoesNotThrow(() -> {
+            MemoryGameDAO gameDB = new MemoryGameDAO();
+            gameDB.clear();
+            for (int gameID = 7003; gameID >= 7001; gameID--) {
+                gameDB.createGame(new GameData(new ChessGame(), "Memory Game " + gameID, null, null, gameID));
+            }
+
+            // Changing a game that was read does not change the stored game until it is written
+            GameData read = gameDB.getGame(7002);
+            read.game().makeMove(new ChessMove(new ChessPosition(2, 5), new ChessPosition(4, 5), null));
+            assertEquals(ChessGame.TeamColor.WHITE, gameDB.getGame(7002).game().getTeamTurn());
+            gameDB.recordMove(read, new ChessMove(new ChessPosition(2, 5), new ChessPosition(4, 5), null));
+            read.game().setTeamTurn(ChessGame.TeamColor.WHITE);
+            assertEquals(ChessGame.TeamColor.BLACK, gameDB.getGame(7002).game().getTeamTurn());
+
+            // Pages come in gameID order, starting after the cursor
+            Collection<GameData> page = gameDB.listGames(new GameQuery(7001, 1, null, null, false));
+            assertEquals(1, page.size());
+            assertEquals(7002, page.iterator().next().gameID());
+            assertEquals(List.of(7001, 7002, 7003),
+                    gameDB.listGames(new GameQuery(null, 10, null, null, null)).stream().map(GameData::gameID).toList());
+
+            // Listing does not decode the stored games
+            assertFalse(page.iterator().next().isGameLoaded());
+            gameDB.clear();
+        });
+    }
+
+    @Test
+    @Order(18)
     public void clearGames() {
         assertDoesNotThrow(() -> {
             // Clear the database
@@ -151,4 +462,8 @@ public class GameDBTests {
             assertEquals(0, games.size(), "Database not cleared");
         });
     }
+
+    private static List<Integer> ids(Collection<GameData> games) {
+        return games.stream().map(GameData::gameID).toList();
+    }
 }
@@ -59,6 +59,27 @@ public class UserDBTests {
 
     @Test
     @Order(5)
+    public void updatePassword() {
+        assertDoesNotThrow(() -> {
+            SQLUserDAO userDB = new SQLUserDAO();
+            userDB.updatePassword("testUser", "newPassword");
+            UserData user = userDB.getUser("testUser");
+            assertEquals("newPassword", user.password());
+            assertEquals("test@test.com", user.email());
+        });
+    }
+
+    @Test
+    @Order(6)
+    public void updateNonExistentPassword() {
+        assertThrows(DataAccessException.class, () -> {
+            SQLUserDAO userDB = new SQLUserDAO();
+            userDB.updatePassword("nonExistentUser", "newPassword");
+        });
+    }
+
+    @Test
+    @Order(7)
     public void clear() {
         assertDoesNotThrow(() -> {
             SQLUserDAO userDB = new SQLUserDAO();
@@ -0,0 +1,112 @@
+package server;
+
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * A websocket session that records what is sent to it instead of sending it. Sends complete straight
+ * away, unless holdSends is set, in which case they wait until complete() or fail() is called.
+ */
+class FakeSession {
+    private final List<String> sent = new ArrayList<>();
+    private final Deque<WriteCallback> inFlight = new ArrayDeque<>();
+    private boolean holdSends;
+    private boolean open = true;
+    private Integer closeCode;
+    private Runnable onClose = () -> { };
+    final Session session;
+
+    FakeSession() {
+        RemoteEndpoint remote = (RemoteEndpoint) Proxy.newProxyInstance(RemoteEndpoint.class.getClassLoader(),
+                new Class<?>[] {RemoteEndpoint.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "sendString" -> {
+                        sent((String) args[0], (WriteCallback) args[1]);
+                        yield null;
+                    }
+                    case "toString" -> "FakeRemote";
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+        session = (Session) Proxy.newProxyInstance(Session.class.getClassLoader(), new Class<?>[] {Session.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getRemote" -> remote;
+                    case "isOpen" -> isOpen();
+                    case "close" -> {
+                        onClose.run();
+                        closed(args != null && args.length == 2 ? (Integer) args[0] : null);
+                        yield null;
+                    }
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> "FakeSession";
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    synchronized void holdSends() {
+        holdSends = true;
+    }
+
+    /**
+     * @param onClose Run on the closing thread whenever the session is closed
+     */
+    void onClose(Runnable onClose) {
+        this.onClose = onClose;
+    }
+
+    private void sent(String text, WriteCallback callback) {
+        synchronized (this) {
+            sent.add(text);
+            if (holdSends) {
+                inFlight.add(callback);
+                return;
+            }
+        }
+        callback.writeSuccess();
+    }
+
+    /**
+     * Completes the oldest send still in flight
+     */
+    void complete() {
+        WriteCallback callback;
+        synchronized (this) {
+            callback = inFlight.poll();
+        }
+        callback.writeSuccess();
+    }
+
+    /**
+     * Fails the oldest send still in flight
+     */
+    void fail() {
+        WriteCallback callback;
+        synchronized (this) {
+            callback = inFlight.poll();
+        }
+        callback.writeFailed(new RuntimeException("Connection reset"));
+    }
+
+    synchronized List<String> sent() {
+        return new ArrayList<>(sent);
+    }
+
+    synchronized boolean isOpen() {
+        return open;
+    }
+
+    synchronized Integer closeCode() {
+        return closeCode;
+    }
+
+    private synchronized void closed(Integer code) {
+        open = false;
+        closeCode = code;
+    }
+}
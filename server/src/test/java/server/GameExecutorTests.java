@@ -0,0 +1,85 @@
+package server;
+
+import org.junit.jupiter.api.*;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GameExecutorTests {
+
+    @Test
+    public void drainedMailboxesDropped() throws InterruptedException {
+        GameExecutor executor = new GameExecutor(2);
+        List<Integer> ran = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(60);
+        for (int i = 0; i < 20; i++) {
+            for (int gameID = 1; gameID <= 3; gameID++) {
+                int order = i;
+                int game = gameID;
+                executor.submit(gameID, () -> {
+                    if (game == 1) {
+                        ran.add(order);
+                    }
+                    done.countDown();
+                });
+            }
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(IntStream.range(0, 20).boxed().toList(), ran, "Tasks for a game ran out of order");
+
+        awaitNoMailboxes(executor);
+
+        // A game that comes back gets a new mailbox
+        CountDownLatch again = new CountDownLatch(1);
+        executor.submit(1, again::countDown);
+        assertTrue(again.await(5, TimeUnit.SECONDS));
+        awaitNoMailboxes(executor);
+    }
+
+    @Test
+    public void modeChangeKeepsRunningTasks() throws InterruptedException {
+        GameExecutor executor = new GameExecutor(1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        List<String> ran = new CopyOnWriteArrayList<>();
+        executor.submit(1, () -> {
+            started.countDown();
+            try {
+                finish.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            ran.add("platform");
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // The old pool is shut down, but the drain already running on it still finishes its game's tasks
+        executor.setExecutionMode(ExecutionMode.VIRTUAL);
+        CountDownLatch done = new CountDownLatch(2);
+        executor.submit(1, () -> {
+            ran.add("queued");
+            done.countDown();
+        });
+        executor.submit(2, () -> {
+            ran.add(Thread.currentThread().isVirtual() ? "virtual" : "platform");
+            done.countDown();
+        });
+        finish.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(ran.indexOf("platform") < ran.indexOf("queued"), "Tasks for a game ran out of order");
+        assertTrue(ran.contains("virtual"), "New game did not run on a virtual thread");
+    }
+
+    private static void awaitNoMailboxes(GameExecutor executor) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (executor.mailboxCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, executor.mailboxCount(), "Drained mailboxes were kept");
+    }
+}
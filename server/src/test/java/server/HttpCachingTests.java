@@ -0,0 +1,134 @@
+package server;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class HttpCachingTests {
+    private static final Gson GSON = new Gson();
+    private static final HttpClient CLIENT = HttpClient.newHttpClient();
+    private static Server server;
+    private static String baseUrl;
+    private static String authToken;
+    private static int gameID;
+    private static String listTag;
+
+    @BeforeAll
+    static public void startServer() throws Exception {
+        server = new Server();
+        baseUrl = "http://localhost:" + server.run(0);
+        send(HttpRequest.newBuilder(URI.create(baseUrl + "/db")).DELETE());
+
+        HttpResponse<byte[]> registered = send(HttpRequest.newBuilder(URI.create(baseUrl + "/user"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"username\":\"cacher\",\"password\":\"pw\",\"email\":\"c@c.com\"}")));
+        authToken = json(registered.body()).get("authToken").getAsString();
+
+        HttpResponse<byte[]> created = send(authorized("/game")
+                .POST(HttpRequest.BodyPublishers.ofString("{\"gameName\":\"cachedGame\"}")));
+        gameID = json(created.body()).get("gameID").getAsInt();
+    }
+
+    @AfterAll
+    static public void stopServer() {
+        server.stop();
+    }
+
+    @Test
+    @Order(1)
+    public void listingHasETag() throws Exception {
+        HttpResponse<byte[]> response = send(authorized("/game").GET());
+        assertEquals(200, response.statusCode());
+        listTag = response.headers().firstValue("ETag").orElse(null);
+        assertNotNull(listTag);
+        assertEquals("no-cache", response.headers().firstValue("Cache-Control").orElse(null));
+    }
+
+    @Test
+    @Order(2)
+    public void unchangedListingNotModified() throws Exception {
+        HttpResponse<byte[]> response = send(authorized("/game").header("If-None-Match", listTag).GET());
+        assertEquals(304, response.statusCode());
+        assertEquals(0, response.body().length);
+
+        // The tag is only accepted along with a valid auth token
+        HttpResponse<byte[]> unauthorized = send(HttpRequest.newBuilder(URI.create(baseUrl + "/game"))
+                .header("Authorization", "badToken").header("If-None-Match", listTag).GET());
+        assertEquals(401, unauthorized.statusCode());
+    }
+
+    @Test
+    @Order(3)
+    public void joinChangesETag() throws Exception {
+        HttpResponse<byte[]> joined = send(authorized("/game").PUT(HttpRequest.BodyPublishers.ofString(
+                "{\"playerColor\":\"WHITE\",\"gameID\":" + gameID + "}")));
+        assertEquals(200, joined.statusCode());
+
+        HttpResponse<byte[]> response = send(authorized("/game").header("If-None-Match", listTag).GET());
+        assertEquals(200, response.statusCode());
+        String newTag = response.headers().firstValue("ETag").orElse(null);
+        assertNotEquals(listTag, newTag);
+        assertTrue(new String(response.body(), StandardCharsets.UTF_8).contains("cacher"));
+    }
+
+    @Test
+    @Order(4)
+    public void listingGzipped() throws Exception {
+        HttpResponse<byte[]> response = send(authorized("/game").header("Accept-Encoding", "gzip").GET());
+        assertEquals(200, response.statusCode());
+        assertEquals("gzip", response.headers().firstValue("Content-Encoding").orElse(null));
+        JsonObject listing = json(gunzip(response.body()));
+        assertEquals(gameID, listing.getAsJsonArray("games").get(0).getAsJsonObject().get("gameID").getAsInt());
+    }
+
+    @Test
+    @Order(5)
+    public void largeBodiesGzipped() throws Exception {
+        // The metrics are well over the minimum size, and this request comes from the loopback address
+        HttpResponse<byte[]> response = send(HttpRequest.newBuilder(URI.create(baseUrl + "/metrics"))
+                .header("Accept-Encoding", "gzip").GET());
+        assertEquals(200, response.statusCode());
+        assertEquals("gzip", response.headers().firstValue("Content-Encoding").orElse(null));
+        assertTrue(new String(gunzip(response.body()), StandardCharsets.UTF_8).contains("# TYPE "));
+    }
+
+    @Test
+    @Order(6)
+    public void smallBodiesNotGzipped() throws Exception {
+        HttpResponse<byte[]> response = send(HttpRequest.newBuilder(URI.create(baseUrl + "/session"))
+                .header("Accept-Encoding", "gzip")
+                .POST(HttpRequest.BodyPublishers.ofString("{\"username\":\"cacher\",\"password\":\"pw\"}")));
+        assertEquals(200, response.statusCode());
+        assertTrue(response.headers().firstValue("Content-Encoding").isEmpty());
+        assertNotNull(json(response.body()).get("authToken"));
+    }
+
+    private static HttpRequest.Builder authorized(String path) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path)).header("Authorization", authToken);
+    }
+
+    private static HttpResponse<byte[]> send(HttpRequest.Builder request) throws IOException, InterruptedException {
+        return CLIENT.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private static JsonObject json(byte[] body) {
+        return GSON.fromJson(new String(body, StandardCharsets.UTF_8), JsonObject.class);
+    }
+
+    private static byte[] gunzip(byte[] body) throws IOException {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+            return in.readAllBytes();
+        }
+    }
+}
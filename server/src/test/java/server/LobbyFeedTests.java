@@ -0,0 +1,109 @@
+package server;
+
+import chess.ChessGame;
+import dataaccess.DataAccessException;
+import dataaccess.MemoryGameDAO;
+import model.GameData;
+import org.junit.jupiter.api.*;
+import service.GameLanes;
+import websocket.WebSocketJson;
+import websocket.messages.LobbyMessage;
+import websocket.messages.ServerMessage;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LobbyFeedTests {
+
+    @Test
+    public void snapshotHoldsFirstPageOfUnfinishedGames() throws DataAccessException {
+        MemoryGameDAO games = seededGames();
+        LobbyFeed feed = new LobbyFeed(GameLanes.DIRECT, 0, 2);
+        feed.setDataAccess(games);
+        FakeSession first = new FakeSession();
+        FakeSession second = new FakeSession();
+        try {
+            feed.subscribe(first.session);
+            LobbyMessage snapshot = received(first, 0);
+            assertEquals(LobbyMessage.Event.SNAPSHOT, snapshot.getEvent());
+            assertEquals(List.of(1, 2), ids(snapshot));
+            assertEquals(2, snapshot.getNextCursor(), "Snapshot should say where the rest of the games start");
+
+            // A game that ends is sent once more, and then leaves the lobby
+            ChessGame over = new ChessGame();
+            over.markWinner(ChessGame.TeamColor.WHITE);
+            feed.gameChanged(new GameData(over, "game1", "black", "white", 1));
+            LobbyMessage finished = received(first, 1);
+            assertEquals(LobbyMessage.Event.GAME_FINISHED, finished.getEvent());
+            assertEquals(List.of(1), ids(finished));
+
+            feed.subscribe(second.session);
+            LobbyMessage later = received(second, 0);
+            assertEquals(List.of(2, 3), ids(later), "Finished games should not be in the snapshot");
+            assertNull(later.getNextCursor());
+        } finally {
+            WSServer.removeOutbox(first.session);
+            WSServer.removeOutbox(second.session);
+        }
+    }
+
+    @Test
+    public void onlyVisibleChangesSent() throws DataAccessException {
+        MemoryGameDAO games = seededGames();
+        LobbyFeed feed = new LobbyFeed(GameLanes.DIRECT, 0, 10);
+        feed.setDataAccess(games);
+        FakeSession fake = new FakeSession();
+        try {
+            feed.subscribe(fake.session);
+
+            // Players leaving a finished game, which the lobby no longer shows
+            feed.gameChanged(games.getGame(4).withPlayers(null, null));
+            // A move that leaves the seats as they were
+            ChessGame moved = new ChessGame();
+            moved.setTeamTurn(ChessGame.TeamColor.BLACK);
+            feed.gameChanged(new GameData(moved, "game2", null, null, 2));
+            assertEquals(1, fake.sent().size(), "Changes the lobby cannot see were sent");
+
+            feed.gameChanged(games.getGame(3).withPlayers("black", null));
+            LobbyMessage seats = received(fake, 1);
+            assertEquals(LobbyMessage.Event.SEATS_CHANGED, seats.getEvent());
+            assertEquals("black", seats.getGames()[0].blackUsername());
+
+            feed.gameChanged(new GameData(new ChessGame(), "game5", null, null, 5));
+            assertEquals(LobbyMessage.Event.GAME_CREATED, received(fake, 2).getEvent());
+        } finally {
+            WSServer.removeOutbox(fake.session);
+        }
+    }
+
+    @Test
+    public void pageSizeMustFitMessage() {
+        assertThrows(IllegalArgumentException.class, () -> new LobbyFeed(GameLanes.DIRECT, 0, 0));
+        assertThrows(IllegalArgumentException.class, () -> new LobbyFeed(GameLanes.DIRECT, 0, 0x10000));
+    }
+
+    /**
+     * @return Games 1 to 3, which have not finished, and game 4, which has
+     */
+    private static MemoryGameDAO seededGames() throws DataAccessException {
+        MemoryGameDAO games = new MemoryGameDAO();
+        games.clear();
+        for (int gameID = 1; gameID <= 3; gameID++) {
+            games.createGame(new GameData(new ChessGame(), "game" + gameID, null, null, gameID));
+        }
+        ChessGame over = new ChessGame();
+        over.markWinner(ChessGame.TeamColor.BLACK);
+        games.createGame(new GameData(over, "game4", "black", "white", 4));
+        return games;
+    }
+
+    private static LobbyMessage received(FakeSession fake, int index) {
+        return (LobbyMessage) WebSocketJson.GSON.fromJson(fake.sent().get(index), ServerMessage.class);
+    }
+
+    private static List<Integer> ids(LobbyMessage message) {
+        return Arrays.stream(message.getGames()).map(LobbyMessage.Game::gameID).toList();
+    }
+}
@@ -0,0 +1,58 @@
+package server;
+
+import chess.ChessMove;
+import chess.ChessPosition;
+import org.junit.jupiter.api.*;
+import websocket.messages.MoveMessage;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ResumeRegistryTests {
+    private static final int GAME_ID = 7;
+    private static final ResumeRegistry.Binding BINDING = new ResumeRegistry.Binding("resume", "player");
+
+    @Test
+    public void replaysMovesThatFit() {
+        ResumeRegistry resumes = new ResumeRegistry(60_000);
+        resumes.park(BINDING, "token", GAME_ID, () -> { });
+        for (int seq = 5; seq <= 8; seq++) {
+            resumes.moveParked(GAME_ID, move(seq));
+        }
+        ResumeRegistry.ParkedGame parked = resumes.resume("resume", "token", GAME_ID);
+        assertNotNull(parked);
+
+        assertEquals(List.of(5, 6, 7, 8), seqs(parked.movesSince(4, 8)));
+        assertEquals(List.of(8), seqs(parked.movesSince(7, 8)));
+        assertEquals(List.of(), parked.movesSince(8, 8));
+
+        // The client missed a move made before the game was parked, or is ahead of the server
+        assertNull(parked.movesSince(3, 8));
+        assertNull(parked.movesSince(9, 8));
+        // A move was made that was not kept
+        assertNull(parked.movesSince(4, 9));
+    }
+
+    @Test
+    public void keepsOnlyNewestMoves() {
+        ResumeRegistry resumes = new ResumeRegistry(60_000);
+        resumes.park(BINDING, "token", GAME_ID, () -> { });
+        for (int seq = 1; seq <= 40; seq++) {
+            resumes.moveParked(GAME_ID, move(seq));
+        }
+        ResumeRegistry.ParkedGame parked = resumes.resume("resume", "token", GAME_ID);
+
+        assertNull(parked.movesSince(0, 40), "Moves past the limit should fall back to the whole board");
+        assertEquals(32, parked.movesSince(8, 40).size());
+    }
+
+    private static MoveMessage move(int seq) {
+        ChessMove move = new ChessMove(new ChessPosition(2, 1), new ChessPosition(3, 1), null);
+        return new MoveMessage(seq, move, null, null, false, null);
+    }
+
+    private static List<Integer> seqs(List<MoveMessage> moves) {
+        return moves.stream().map(MoveMessage::getSeq).toList();
+    }
+}
@@ -0,0 +1,182 @@
+package server;
+
+import chess.ChessGame;
+import org.eclipse.jetty.websocket.api.StatusCode;
+import org.junit.jupiter.api.*;
+import websocket.messages.LoadGameMessage;
+import websocket.messages.NotificationMessage;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SessionOutboxTests {
+    private static final EncodedMessage FIRST_NOTE = note("first");
+    private static final EncodedMessage SECOND_NOTE = note("second");
+    private static final EncodedMessage THIRD_NOTE = note("third");
+    private static final EncodedMessage WHITE_BOARD = board(ChessGame.TeamColor.WHITE);
+    private static final EncodedMessage BLACK_BOARD = board(ChessGame.TeamColor.BLACK);
+
+    @Test
+    public void sendsOneAtATimeInOrder() {
+        FakeSession fake = new FakeSession();
+        fake.holdSends();
+        SessionOutbox outbox = outbox(fake, 4, SessionOutbox.SlowConsumerPolicy.DISCONNECT);
+        outbox.send(FIRST_NOTE);
+        outbox.send(SECOND_NOTE);
+        outbox.send(THIRD_NOTE);
+        assertEquals(texts(FIRST_NOTE), fake.sent(), "A message was sent before the one in flight finished");
+
+        fake.complete();
+        assertEquals(texts(FIRST_NOTE, SECOND_NOTE), fake.sent());
+        fake.complete();
+        fake.complete();
+        assertEquals(texts(FIRST_NOTE, SECOND_NOTE, THIRD_NOTE), fake.sent());
+        assertTrue(fake.isOpen());
+    }
+
+    @Test
+    public void dropOldestLoadGame() {
+        FakeSession fake = new FakeSession();
+        fake.holdSends();
+        SessionOutbox outbox = outbox(fake, 2, SessionOutbox.SlowConsumerPolicy.DROP_OLDEST_LOAD_GAME);
+        outbox.send(FIRST_NOTE);
+        outbox.send(WHITE_BOARD);
+        outbox.send(BLACK_BOARD);
+
+        // The queue is full, so the older board makes room
+        outbox.send(SECOND_NOTE);
+        for (int i = 0; i < 3; i++) {
+            fake.complete();
+        }
+        assertEquals(texts(FIRST_NOTE, BLACK_BOARD, SECOND_NOTE), fake.sent());
+        assertTrue(fake.isOpen());
+    }
+
+    @Test
+    public void dropOldestDisconnectsWithoutLoadGame() {
+        FakeSession fake = new FakeSession();
+        fake.holdSends();
+        SessionOutbox outbox = outbox(fake, 2, SessionOutbox.SlowConsumerPolicy.DROP_OLDEST_LOAD_GAME);
+        outbox.send(FIRST_NOTE);
+        outbox.send(SECOND_NOTE);
+        outbox.send(THIRD_NOTE);
+        outbox.send(WHITE_BOARD);
+        assertFalse(fake.isOpen());
+        assertEquals(StatusCode.POLICY_VIOLATION, fake.closeCode());
+    }
+
+    @Test
+    public void coalesceKeepsNewestLoadGame() {
+        FakeSession fake = new FakeSession();
+        fake.holdSends();
+        SessionOutbox outbox = outbox(fake, 4, SessionOutbox.SlowConsumerPolicy.COALESCE);
+        outbox.send(FIRST_NOTE);
+        outbox.send(WHITE_BOARD);
+        outbox.send(SECOND_NOTE);
+
+        // A new board replaces the queued one even though there is room, and goes to the back
+        outbox.send(BLACK_BOARD);
+        for (int i = 0; i < 3; i++) {
+            fake.complete();
+        }
+        assertEquals(texts(FIRST_NOTE, SECOND_NOTE, BLACK_BOARD), fake.sent());
+        assertTrue(fake.isOpen());
+    }
+
+    @Test
+    public void coalesceDisconnectsWhenStillFull() {
+        FakeSession fake = new FakeSession();
+        fake.holdSends();
+        SessionOutbox outbox = outbox(fake, 1, SessionOutbox.SlowConsumerPolicy.COALESCE);
+        outbox.send(FIRST_NOTE);
+        outbox.send(SECOND_NOTE);
+        outbox.send(THIRD_NOTE);
+        assertFalse(fake.isOpen());
+        assertEquals(StatusCode.POLICY_VIOLATION, fake.closeCode());
+    }
+
+    @Test
+    public void disconnectWhenFull() {
+        FakeSession fake = new FakeSession();
+        fake.holdSends();
+        SessionOutbox outbox = outbox(fake, 1, SessionOutbox.SlowConsumerPolicy.DISCONNECT);
+        outbox.send(FIRST_NOTE);
+        outbox.send(WHITE_BOARD);
+        outbox.send(BLACK_BOARD);
+        assertFalse(fake.isOpen());
+        assertEquals(StatusCode.POLICY_VIOLATION, fake.closeCode());
+
+        // Nothing more is sent once the outbox has closed
+        fake.complete();
+        outbox.send(SECOND_NOTE);
+        assertEquals(texts(FIRST_NOTE), fake.sent());
+    }
+
+    @Test
+    public void failedSendCloses() {
+        FakeSession fake = new FakeSession();
+        fake.holdSends();
+        SessionOutbox outbox = outbox(fake, 4, SessionOutbox.SlowConsumerPolicy.DISCONNECT);
+        outbox.send(FIRST_NOTE);
+        outbox.send(SECOND_NOTE);
+        fake.fail();
+        assertFalse(fake.isOpen());
+        assertEquals(StatusCode.ABNORMAL, fake.closeCode());
+        assertEquals(texts(FIRST_NOTE), fake.sent());
+    }
+
+    @Test
+    public void closesSessionOutsideLock() {
+        FakeSession fake = new FakeSession();
+        fake.holdSends();
+        SessionOutbox outbox = outbox(fake, 1, SessionOutbox.SlowConsumerPolicy.DISCONNECT);
+        boolean[] heldLock = {true};
+        fake.onClose(() -> heldLock[0] = Thread.holdsLock(outbox));
+        outbox.send(FIRST_NOTE);
+        outbox.send(SECOND_NOTE);
+        outbox.send(THIRD_NOTE);
+        assertFalse(fake.isOpen());
+        assertFalse(heldLock[0], "Session was closed while holding the outbox's lock");
+    }
+
+    @Test
+    public void depthTrackedPerOutbox() {
+        FakeSession slow = new FakeSession();
+        FakeSession fast = new FakeSession();
+        slow.holdSends();
+        SessionOutbox slowOutbox = outbox(slow, 4, SessionOutbox.SlowConsumerPolicy.DISCONNECT);
+        SessionOutbox fastOutbox = outbox(fast, 4, SessionOutbox.SlowConsumerPolicy.DISCONNECT);
+        for (EncodedMessage message : List.of(FIRST_NOTE, SECOND_NOTE, THIRD_NOTE)) {
+            slowOutbox.send(message);
+            fastOutbox.send(message);
+        }
+
+        // One message is in flight, the rest wait behind it
+        assertEquals(2, slowOutbox.depth());
+        assertEquals(0, fastOutbox.depth());
+        slow.complete();
+        assertEquals(1, slowOutbox.depth());
+        assertEquals(2, slowOutbox.maxDepth());
+        assertEquals(0, fastOutbox.maxDepth());
+    }
+
+    private static SessionOutbox outbox(FakeSession fake, int capacity, SessionOutbox.SlowConsumerPolicy policy) {
+        return new SessionOutbox(fake.session, false, capacity, policy);
+    }
+
+    private static EncodedMessage note(String text) {
+        return WSServer.encode(new NotificationMessage(text));
+    }
+
+    private static EncodedMessage board(ChessGame.TeamColor turn) {
+        ChessGame game = new ChessGame();
+        game.setTeamTurn(turn);
+        return WSServer.encode(new LoadGameMessage(game));
+    }
+
+    private static List<String> texts(EncodedMessage... messages) {
+        return Arrays.stream(messages).map(EncodedMessage::text).toList();
+    }
+}
@@ -0,0 +1,80 @@
+package server;
+
+import chess.ChessGame;
+import org.junit.jupiter.api.*;
+import websocket.messages.LoadGameMessage;
+import websocket.messages.NotificationMessage;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SpectatorCoalescerTests {
+    private static final int GAME_ID = 42;
+
+    @Test
+    public void onlyActiveAtThreshold() {
+        SubscriptionRegistry subscriptions = new SubscriptionRegistry();
+        SpectatorCoalescer coalescer = new SpectatorCoalescer(subscriptions, new GameExecutor(1), 2, 50);
+        subscriptions.subscribe(new FakeSession().session, GAME_ID, true);
+        subscriptions.subscribe(new FakeSession().session, GAME_ID, false);
+        assertFalse(coalescer.isActive(GAME_ID), "Players were counted as observers");
+
+        subscriptions.subscribe(new FakeSession().session, GAME_ID, true);
+        assertTrue(coalescer.isActive(GAME_ID));
+
+        // A window of 0 turns batching off
+        assertFalse(new SpectatorCoalescer(subscriptions, new GameExecutor(1), 2, 0).isActive(GAME_ID));
+    }
+
+    @Test
+    public void flushSendsNewestBoardAndOneNotification() throws InterruptedException {
+        SubscriptionRegistry subscriptions = new SubscriptionRegistry();
+        GameExecutor executor = new GameExecutor(1);
+        SpectatorCoalescer coalescer = new SpectatorCoalescer(subscriptions, executor, 2, 50);
+        FakeSession first = new FakeSession();
+        FakeSession second = new FakeSession();
+        FakeSession leaving = new FakeSession();
+        FakeSession player = new FakeSession();
+        subscriptions.subscribe(first.session, GAME_ID, true);
+        subscriptions.subscribe(second.session, GAME_ID, true);
+        subscriptions.subscribe(leaving.session, GAME_ID, true);
+        subscriptions.subscribe(player.session, GAME_ID, false);
+
+        ChessGame older = new ChessGame();
+        ChessGame newer = new ChessGame();
+        newer.setTeamTurn(ChessGame.TeamColor.BLACK);
+        executor.submit(GAME_ID, () -> {
+            coalescer.queueGame(GAME_ID, new LoadGameMessage(older));
+            coalescer.queueNotification(GAME_ID, "white moved", null);
+            coalescer.queueGame(GAME_ID, new LoadGameMessage(newer));
+            coalescer.queueNotification(GAME_ID, "observer left", leaving.session);
+        });
+
+        try {
+            awaitSent(leaving, 2);
+            awaitSent(first, 2);
+            awaitSent(second, 2);
+            String board = WSServer.toJson(new LoadGameMessage(newer));
+            List<String> combined = List.of(board, WSServer.toJson(new NotificationMessage("white moved\nobserver left")));
+            assertEquals(combined, first.sent());
+            assertEquals(combined, second.sent());
+
+            // A session left out of a notification gets the others on their own
+            assertEquals(List.of(board, WSServer.toJson(new NotificationMessage("white moved"))), leaving.sent());
+            assertTrue(player.sent().isEmpty(), "Players should not get the observers' batch");
+        } finally {
+            for (FakeSession fake : List.of(first, second, leaving, player)) {
+                WSServer.removeOutbox(fake.session);
+            }
+        }
+    }
+
+    private static void awaitSent(FakeSession fake, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (fake.sent().size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, fake.sent().size(), "Batch was not flushed");
+    }
+}
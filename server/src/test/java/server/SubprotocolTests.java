@@ -0,0 +1,106 @@
+package server;
+
+import org.junit.jupiter.api.*;
+import websocket.BinaryProtocol;
+import websocket.WebSocketJson;
+import websocket.commands.UserGameCommand;
+import websocket.messages.ErrorMessage;
+import websocket.messages.ServerMessage;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SubprotocolTests {
+    private static final UserGameCommand SUBSCRIBE =
+            new UserGameCommand(UserGameCommand.CommandType.LOBBY_SUBSCRIBE, "not-a-token", null);
+    private static Server server;
+    private static URI uri;
+
+    @BeforeAll
+    static public void startServer() {
+        server = new Server();
+        uri = URI.create("ws://localhost:" + server.run(0) + "/ws");
+    }
+
+    @AfterAll
+    static public void stopServer() {
+        server.stop();
+    }
+
+    @Test
+    public void binaryAccepted() throws Exception {
+        FirstMessage reply = new FirstMessage();
+        WebSocket socket = HttpClient.newHttpClient().newWebSocketBuilder()
+                .subprotocols(BinaryProtocol.SUBPROTOCOL)
+                .buildAsync(uri, reply).get(5, TimeUnit.SECONDS);
+        try {
+            assertEquals(BinaryProtocol.SUBPROTOCOL, socket.getSubprotocol(), "Server did not accept the binary protocol");
+            socket.sendBinary(ByteBuffer.wrap(BinaryProtocol.encodeCommand(SUBSCRIBE)), true);
+
+            Object message = reply.get();
+            ByteBuffer binary = assertInstanceOf(ByteBuffer.class, message, "Reply was not sent in binary");
+            byte[] bytes = new byte[binary.remaining()];
+            binary.get(bytes);
+            assertInstanceOf(ErrorMessage.class, BinaryProtocol.decodeMessage(bytes));
+        } finally {
+            socket.sendClose(WebSocket.NORMAL_CLOSURE, "");
+        }
+    }
+
+    @Test
+    public void unknownSubprotocolGetsJson() throws Exception {
+        FirstMessage reply = new FirstMessage();
+        WebSocket socket = HttpClient.newHttpClient().newWebSocketBuilder()
+                .subprotocols("chess-unknown")
+                .buildAsync(uri, reply).get(5, TimeUnit.SECONDS);
+        try {
+            assertEquals("", socket.getSubprotocol());
+            socket.sendText(WebSocketJson.GSON.toJson(SUBSCRIBE), true);
+
+            String text = assertInstanceOf(String.class, reply.get(), "Reply was not sent as JSON");
+            assertInstanceOf(ErrorMessage.class, WebSocketJson.GSON.fromJson(text, ServerMessage.class));
+        } finally {
+            socket.sendClose(WebSocket.NORMAL_CLOSURE, "");
+        }
+    }
+
+    /**
+     * Keeps the first whole message the server sends, text or binary
+     */
+    private static class FirstMessage implements WebSocket.Listener {
+        private final CompletableFuture<Object> message = new CompletableFuture<>();
+        private final StringBuilder text = new StringBuilder();
+        private ByteBuffer binary = ByteBuffer.allocate(0);
+
+        @Override
+        public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+            text.append(data);
+            if (last) {
+                message.complete(text.toString());
+            }
+            webSocket.request(1);
+            return null;
+        }
+
+        @Override
+        public CompletionStage<?> onBinary(WebSocket webSocket, ByteBuffer data, boolean last) {
+            binary = ByteBuffer.allocate(binary.remaining() + data.remaining()).put(binary).put(data).flip();
+            if (last) {
+                message.complete(binary);
+            }
+            webSocket.request(1);
+            return null;
+        }
+
+        Object get() throws Exception {
+            return message.get(5, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -3,6 +3,11 @@ package service;
 import dataaccess.DataAccessException;
 import model.*;
 import org.junit.jupiter.api.*;
+import util.DatabaseLimit;
+import util.ServerConfig;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import static org.eclipse.jetty.util.LazyList.size;
 import static org.junit.jupiter.api.Assertions.*;
@@ -140,4 +145,105 @@ public class GameServiceTests {
         assertEquals(401, noAuth.getCode());
         assertEquals("Error: unauthorized", noAuth.getMessage());
     }
+
+    @Test
+    @Order(10)
+    public void listGamesPaged() throws DataAccessException {
+        // Add two more games so there are three in total
+        gameService.newGame(new NewGameRequest(userAuthToken, "secondGame"));
+        gameService.newGame(new NewGameRequest(userAuthToken, "thirdGame"));
+
+        // The first page should stop after two games and hand back a cursor
+        ListGamesResult firstPage = gameService.listGames(new ListGamesRequest(userAuthToken, null, 2, null, null, null));
+        assertEquals(2, firstPage.games().length);
+        assertNotNull(firstPage.nextCursor());
+
+        // The second page should hold the last game and no cursor
+        ListGamesResult secondPage = gameService.listGames(
+                new ListGamesRequest(userAuthToken, firstPage.nextCursor(), 2, null, null, null));
+        assertEquals(1, secondPage.games().length);
+        assertNull(secondPage.nextCursor());
+        assertTrue(secondPage.games()[0].gameID() > firstPage.nextCursor());
+    }
+
+    @Test
+    @Order(11)
+    public void listGamesFiltered() throws DataAccessException {
+        // Only the first game has a player in it
+        ListGamesResult playerGames = gameService.listGames(
+                new ListGamesRequest(userAuthToken, null, null, null, "tester12", null));
+        assertEquals(1, playerGames.games().length);
+        assertEquals(gameID, playerGames.games()[0].gameID());
+
+        // Every game still has an open seat and none of them are over
+        ListGamesResult fullGames = gameService.listGames(
+                new ListGamesRequest(userAuthToken, null, null, false, null, null));
+        assertEquals(0, fullGames.games().length);
+        ListGamesResult finishedGames = gameService.listGames(
+                new ListGamesRequest(userAuthToken, null, null, null, null, true));
+        assertEquals(0, finishedGames.games().length);
+    }
+
+    @Test
+    @Order(12)
+    public void listGamesBadLimit() {
+        // Page sizes outside the allowed range are rejected
+        ListGamesRequest request = new ListGamesRequest(userAuthToken, null, GameService.MAX_PAGE_SIZE + 1, null, null, null);
+        ServiceError error = assertThrows(ServiceError.class, () -> gameService.listGames(request));
+        assertEquals(400, error.getCode());
+        assertEquals("Error: bad request", error.getMessage());
+    }
+
+    @Test
+    @Order(13)
+    public void joinRunsOnGameLane() throws DataAccessException {
+        // Run each join on another thread, the way the game executor would
+        List<Integer> lanesUsed = new CopyOnWriteArrayList<>();
+        GameService laneService = new GameService(DatabaseService.getGameDAO(), userService, (id, task) -> {
+            lanesUsed.add(id);
+            Thread.ofPlatform().start(task);
+        });
+
+        assertDoesNotThrow(() -> laneService.joinGame(new JoinGameRequest(userAuthToken, "BLACK", gameID)));
+        assertEquals(List.of(gameID), lanesUsed);
+        GameData game = gameService.listGames(new ListGamesRequest(userAuthToken, null, null, null, "tester12", null)).games()[0];
+        assertEquals("tester12", game.blackUsername());
+
+        // Errors from the lane still reach the caller
+        ServiceError taken = assertThrows(ServiceError.class,
+                () -> laneService.joinGame(new JoinGameRequest(userAuthToken, "BLACK", gameID)));
+        assertEquals(403, taken.getCode());
+    }
+
+    @Test
+    @Order(14)
+    public void joinGivesBackDatabaseTurn() throws Exception {
+        int joinID = gameService.newGame(new NewGameRequest(userAuthToken, "laneGame")).gameID();
+        GameService laneService = new GameService(DatabaseService.getGameDAO(), userService,
+                (id, task) -> Thread.ofPlatform().start(task));
+
+        // Leave a single turn at the database and take it, the way Server.limited does for the request
+        DatabaseLimit.setLimit(1);
+        try {
+            assertTrue(DatabaseLimit.acquire());
+            try {
+                assertDoesNotThrow(() -> laneService.joinGame(new JoinGameRequest(userAuthToken, "WHITE", joinID)),
+                        "The lane could not get a turn while the request waited for it");
+            } finally {
+                DatabaseLimit.release();
+            }
+            assertEquals(1, DatabaseLimit.available(), "A turn was not given back after the join");
+        } finally {
+            DatabaseLimit.setLimit(ServerConfig.getInt("server.dbConcurrency", 64));
+        }
+    }
+
+    @Test
+    @Order(15)
+    public void newGameTakesNextID() throws Exception {
+        int first = gameService.newGame(new NewGameRequest(userAuthToken, "first")).gameID();
+        int second = gameService.newGame(new NewGameRequest(userAuthToken, "second")).gameID();
+        assertEquals(first + 1, second);
+        assertEquals(second, DatabaseService.getGameDAO().maxGameID());
+    }
 }
@@ -1,8 +1,15 @@
 package service;
 
 import dataaccess.DataAccessException;
+import dataaccess.SQLUserDAO;
 import model.*;
 import org.junit.jupiter.api.*;
+import org.mindrot.jbcrypt.BCrypt;
+import util.DatabaseLimit;
+import util.ServerConfig;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -99,4 +106,59 @@ public class UserServiceTests {
         assertEquals(401, error.getCode());
         assertEquals("Error: unauthorized", error.getMessage());
     }
+
+    @Test
+    @Order(8)
+    public void loginRehashesPassword() throws DataAccessException {
+        // Store a user whose password was hashed at a lower cost than the server uses
+        SQLUserDAO userDB = new SQLUserDAO();
+        userDB.createUser(new UserData("oldHash", BCrypt.hashpw("qwerty", BCrypt.gensalt(4)), "old@test.com"));
+
+        // Logging in works, and leaves the password hashed at the current cost
+        userService.login(new LoginRequest("oldHash", "qwerty"));
+        String storedHash = userDB.getUser("oldHash").password();
+        assertFalse(PasswordHasher.needsRehash(storedHash));
+        assertTrue(BCrypt.checkpw("qwerty", storedHash));
+    }
+
+    @Test
+    @Order(9)
+    public void stalledHashDoesNotHoldDatabaseTurn() throws Exception {
+        String token = userService.register(new RegisterRequest("lister", "qwerty", "l@l.com")).authToken();
+        GameService gameService = new GameService(DatabaseService.getGameDAO(), userService);
+
+        // Leave a single turn at the database, and take it with a request whose hash never finishes
+        DatabaseLimit.setLimit(1);
+        CountDownLatch hashing = new CountDownLatch(1);
+        CountDownLatch finishHash = new CountDownLatch(1);
+        try {
+            Thread request = Thread.ofPlatform().start(() -> {
+                assertTrue(DatabaseLimit.acquire());
+                try {
+                    PasswordHasher.run(() -> {
+                        hashing.countDown();
+                        return finishHash.await(10, TimeUnit.SECONDS);
+                    });
+                } finally {
+                    DatabaseLimit.release();
+                }
+            });
+            assertTrue(hashing.await(5, TimeUnit.SECONDS));
+
+            // A listing still gets its turn while the hash is stuck
+            assertTrue(DatabaseLimit.acquire(), "Stalled hash kept its database turn");
+            try {
+                assertNotNull(gameService.listGames(new ListGamesRequest(token)).games());
+            } finally {
+                DatabaseLimit.release();
+            }
+
+            finishHash.countDown();
+            request.join(5000);
+            assertEquals(1, DatabaseLimit.available(), "Turn was not given back after the hash");
+        } finally {
+            finishHash.countDown();
+            DatabaseLimit.setLimit(ServerConfig.getInt("server.dbConcurrency", 64));
+        }
+    }
 }
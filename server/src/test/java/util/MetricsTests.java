@@ -0,0 +1,90 @@
+package util;
+
+import org.junit.jupiter.api.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MetricsTests {
+
+    @Test
+    public void histogramRegisteredOnce() {
+        Metrics.Histogram first = Metrics.histogram("test_registry_seconds", "First help", "op");
+        Metrics.Histogram second = Metrics.histogram("test_registry_seconds", "Second help", "op");
+        assertSame(first, second, "Registering the same name made a second histogram");
+
+        String scraped = Metrics.scrape();
+        assertTrue(scraped.contains("# HELP test_registry_seconds First help\n"));
+        assertFalse(scraped.contains("Second help"));
+    }
+
+    @Test
+    public void histogramExposition() {
+        Metrics.Histogram histogram = Metrics.histogram("test_histogram_seconds", "Test latencies", "op");
+        histogram.observe(2_000_000, "read");
+        histogram.observe(3_000_000_000L, "read");
+        histogram.observe(100_000, "say \"hi\"");
+
+        List<String> lines = lines(Metrics.scrape(), "test_histogram_seconds");
+        assertEquals("# HELP test_histogram_seconds Test latencies", lines.get(0));
+        assertEquals("# TYPE test_histogram_seconds histogram", lines.get(1));
+
+        // Buckets are cumulative, with le after the histogram's own labels
+        assertTrue(lines.contains("test_histogram_seconds_bucket{op=\"read\",le=\"0.001\"} 0"));
+        assertTrue(lines.contains("test_histogram_seconds_bucket{op=\"read\",le=\"0.0025\"} 1"));
+        assertTrue(lines.contains("test_histogram_seconds_bucket{op=\"read\",le=\"2.5\"} 1"));
+        assertTrue(lines.contains("test_histogram_seconds_bucket{op=\"read\",le=\"5\"} 2"));
+        assertTrue(lines.contains("test_histogram_seconds_bucket{op=\"read\",le=\"+Inf\"} 2"));
+        assertTrue(lines.contains("test_histogram_seconds_sum{op=\"read\"} 3.002"));
+        assertTrue(lines.contains("test_histogram_seconds_count{op=\"read\"} 2"));
+
+        // Label values are escaped
+        assertTrue(lines.contains("test_histogram_seconds_bucket{op=\"say \\\"hi\\\"\",le=\"0.0005\"} 1"));
+
+        // One series per set of label values, each with a line per bucket plus the sum and count
+        assertEquals(2 + 2 * (15 + 2), lines.size());
+    }
+
+    @Test
+    public void gaugesAndCounters() {
+        Metrics.gauge("test_gauge", "Test gauge", () -> 3);
+        Metrics.counter("test_total", "Test counter", () -> 1.5);
+        String scraped = Metrics.scrape();
+        assertEquals(List.of("# HELP test_gauge Test gauge", "# TYPE test_gauge gauge", "test_gauge 3"),
+                lines(scraped, "test_gauge"));
+        assertEquals(List.of("# HELP test_total Test counter", "# TYPE test_total counter", "test_total 1.5"),
+                lines(scraped, "test_total"));
+
+        // Registering a gauge again replaces it
+        Metrics.gauge("test_gauge", "Test gauge", () -> 4);
+        assertTrue(lines(Metrics.scrape(), "test_gauge").contains("test_gauge 4"));
+    }
+
+    @Test
+    public void timedProxy() {
+        @SuppressWarnings("unchecked")
+        Supplier<String> timed = Metrics.timed(Supplier.class, () -> "value");
+        assertEquals("value", timed.get());
+        assertTrue(Metrics.scrape().contains("chess_dao_call_seconds_count{dao=\"Supplier\",method=\"get\"} 1"));
+
+        // The proxy throws what the target threw
+        @SuppressWarnings("unchecked")
+        Supplier<String> failing = Metrics.timed(Supplier.class, () -> {
+            throw new IllegalStateException("failed");
+        });
+        assertThrows(IllegalStateException.class, failing::get);
+    }
+
+    /**
+     * @return The lines of the scrape that belong to the named metric
+     */
+    private static List<String> lines(String scraped, String name) {
+        return Arrays.stream(scraped.split("\n"))
+                .filter(line -> line.startsWith(name + " ") || line.startsWith(name + "{") || line.startsWith(name + "_")
+                        || line.startsWith("# HELP " + name + " ") || line.startsWith("# TYPE " + name + " "))
+                .toList();
+    }
+}
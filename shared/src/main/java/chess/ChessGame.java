@@ -19,6 +19,7 @@ public class ChessGame {
     ChessBoard board;
     TeamColor winner;
     boolean gameOver;
+    int moveCount;
 
     public ChessGame() {
         currentTurn = TeamColor.WHITE;
@@ -26,6 +27,18 @@ public class ChessGame {
         board.resetBoard();
         winner = null;
         gameOver = false;
+        moveCount = 0;
+    }
+
+    /**
+     * Creates a game from saved state, skipping the board setup done by the default constructor
+     */
+    ChessGame(ChessBoard board, TeamColor currentTurn, TeamColor winner, boolean gameOver, int moveCount) {
+        this.board = board;
+        this.currentTurn = currentTurn;
+        this.winner = winner;
+        this.gameOver = gameOver;
+        this.moveCount = moveCount;
     }
 
     /**
@@ -74,6 +87,13 @@ public class ChessGame {
         return gameOver;
     }
 
+    /**
+     * @return Number of moves made in this game so far
+     */
+    public int getMoveCount() {
+        return moveCount;
+    }
+
     /**
      * Gets a valid moves for a piece at the given location
      *
@@ -260,6 +280,7 @@ public class ChessGame {
         piece.setPieceMoved();
         makeMoveDirect(move);
         currentTurn = enemyTeam(currentTurn);
+        moveCount++;
         if (matchingMove instanceof SpecialMove) {
             ((SpecialMove) matchingMove).executeMove(board);
         }
@@ -388,6 +409,7 @@ public class ChessGame {
             jsonObject.add("currentTurn", context.serialize(src.getTeamTurn()));
             jsonObject.add("winner", context.serialize(src.getWinner()));
             jsonObject.add("game_over", context.serialize(src.isGameOver()));
+            jsonObject.add("move_count", context.serialize(src.getMoveCount()));
             return jsonObject;
         }
     }
@@ -403,6 +425,9 @@ public class ChessGame {
             ChessGame.TeamColor currentTurn = context.deserialize(jsonObject.get("currentTurn"), ChessGame.TeamColor.class);
             game.setWinner(context.deserialize(jsonObject.get("winner"), ChessGame.TeamColor.class));
             game.setGameOver(jsonObject.get("game_over").getAsBoolean());
+            if (jsonObject.has("move_count")) {
+                game.moveCount = jsonObject.get("move_count").getAsInt();
+            }
             game.setTeamTurn(currentTurn);
 
             // Deserialize the board
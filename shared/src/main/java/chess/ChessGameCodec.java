@@ -0,0 +1,212 @@
+package chess;
+
+import java.util.Map;
+
+/**
+ * Compact binary form of a ChessGame, used where the JSON form is too large or too slow to parse.
+ * <p>
+ * Layout: a format version byte, a state byte (turn, game over and winner), a two byte move count,
+ * a piece count, and then two bytes per piece. The first piece byte is the square index, the second
+ * packs the piece type, team and movement flags.
+ * <p>
+ * An encoded game may be followed by a two byte count and that many encoded moves (see encodeMove).
+ * Those moves are replayed on top of the board when the game is decoded.
+ */
+public class ChessGameCodec {
+    public static final byte VERSION = 2;
+
+    // Version 1 had no move count
+    private static final byte VERSION_1 = 1;
+    private static final int VERSION_1_HEADER_SIZE = 3;
+
+    private static final int HEADER_SIZE = 5;
+    private static final int BLACK_TURN = 1;
+    private static final int GAME_OVER = 1 << 1;
+    private static final int WINNER_SHIFT = 2;
+    private static final int BLACK_PIECE = 1 << 3;
+    private static final int PIECE_MOVED = 1 << 4;
+    private static final int PIECE_DOUBLE_MOVED = 1 << 5;
+    private static final int TYPE_MASK = 0x7;
+
+    private static final ChessPiece.PieceType[] PIECE_TYPES = ChessPiece.PieceType.values();
+
+    /**
+     * Encodes a game into its binary form
+     * @param game Game to encode
+     * @return Encoded game
+     */
+    public static byte[] encode(ChessGame game) {
+        var entries = game.getBoard().getEntries();
+        byte[] bytes = new byte[HEADER_SIZE + entries.size() * 2];
+
+        int state = game.getTeamTurn() == ChessGame.TeamColor.BLACK ? BLACK_TURN : 0;
+        if (game.isGameOver()) {
+            state |= GAME_OVER;
+        }
+        if (game.getWinner() != null) {
+            state |= (game.getWinner().ordinal() + 1) << WINNER_SHIFT;
+        }
+        bytes[0] = VERSION;
+        bytes[1] = (byte) state;
+        writeShort(bytes, 2, game.getMoveCount());
+        bytes[4] = (byte) entries.size();
+
+        int i = HEADER_SIZE;
+        for (Map.Entry<ChessPosition, ChessPiece> entry : entries) {
+            ChessPiece piece = entry.getValue();
+            int flags = piece.getPieceType().ordinal();
+            if (piece.getTeamColor() == ChessGame.TeamColor.BLACK) {
+                flags |= BLACK_PIECE;
+            }
+            if (!piece.hasNotMoved()) {
+                flags |= PIECE_MOVED;
+            }
+            if (piece.hasDoubleMoved()) {
+                flags |= PIECE_DOUBLE_MOVED;
+            }
+            bytes[i++] = (byte) squareIndex(entry.getKey());
+            bytes[i++] = (byte) flags;
+        }
+        return bytes;
+    }
+
+    /**
+     * Decodes a game from its binary form
+     * @param bytes Encoded game
+     * @return Decoded game
+     * @throws IllegalArgumentException if the bytes are not a game this codec understands
+     */
+    public static ChessGame decode(byte[] bytes) {
+        int state;
+        int moveCount;
+        int pieces;
+        int i;
+        if (bytes.length >= HEADER_SIZE && bytes[0] == VERSION) {
+            state = bytes[1];
+            moveCount = readShort(bytes, 2);
+            pieces = bytes[4] & 0xFF;
+            i = HEADER_SIZE;
+        } else if (bytes.length >= VERSION_1_HEADER_SIZE && bytes[0] == VERSION_1) {
+            state = bytes[1];
+            moveCount = 0;
+            pieces = bytes[2] & 0xFF;
+            i = VERSION_1_HEADER_SIZE;
+        } else {
+            throw new IllegalArgumentException("Unsupported game encoding");
+        }
+        if (bytes.length < i + pieces * 2) {
+            throw new IllegalArgumentException("Truncated game encoding");
+        }
+
+        ChessBoard board = new ChessBoard();
+        for (int p = 0; p < pieces; p++) {
+            ChessPosition position = squarePosition(bytes[i++]);
+            int flags = bytes[i++];
+            ChessPiece piece = new ChessPiece(
+                    (flags & BLACK_PIECE) != 0 ? ChessGame.TeamColor.BLACK : ChessGame.TeamColor.WHITE,
+                    PIECE_TYPES[flags & TYPE_MASK]);
+            if ((flags & PIECE_MOVED) != 0) {
+                piece.setPieceMoved();
+            }
+            piece.setDoubleMove((flags & PIECE_DOUBLE_MOVED) != 0);
+            board.addPiece(position, piece);
+        }
+
+        int winner = (state >> WINNER_SHIFT) & 0x3;
+        ChessGame game = new ChessGame(board,
+                (state & BLACK_TURN) != 0 ? ChessGame.TeamColor.BLACK : ChessGame.TeamColor.WHITE,
+                winner == 0 ? null : ChessGame.TeamColor.values()[winner - 1],
+                (state & GAME_OVER) != 0, moveCount);
+
+        // Replay any moves that were appended after the board
+        if (bytes.length >= i + 2) {
+            int moves = readShort(bytes, i);
+            i += 2;
+            for (int m = 0; m < moves; m++) {
+                try {
+                    game.makeMove(decodeMove(readShort(bytes, i)));
+                } catch (InvalidMoveException e) {
+                    throw new IllegalArgumentException("Encoded move " + (m + 1) + " could not be replayed", e);
+                }
+                i += 2;
+            }
+        }
+        return game;
+    }
+
+    /**
+     * Appends moves to an encoded game, so they are replayed when it is decoded
+     * @param bytes Encoded game with no moves appended
+     * @param moves Encoded moves (see encodeMove), in the order they were made
+     * @return Encoded game with the moves appended
+     */
+    public static byte[] appendMoves(byte[] bytes, int[] moves) {
+        if (moves.length == 0) {
+            return bytes;
+        }
+        byte[] result = new byte[bytes.length + 2 + moves.length * 2];
+        System.arraycopy(bytes, 0, result, 0, bytes.length);
+        int i = bytes.length;
+        writeShort(result, i, moves.length);
+        i += 2;
+        for (int move : moves) {
+            writeShort(result, i, move);
+            i += 2;
+        }
+        return result;
+    }
+
+    /**
+     * Packs a move into 15 bits: start square, end square, and promotion piece (0 for none)
+     * @param move Move to encode
+     * @return Encoded move
+     */
+    public static int encodeMove(ChessMove move) {
+        int promotion = move.getPromotionPiece() == null ? 0 : move.getPromotionPiece().ordinal() + 1;
+        return squareIndex(move.getStartPosition())
+                | squareIndex(move.getEndPosition()) << 6
+                | promotion << 12;
+    }
+
+    /**
+     * @param move Move packed by encodeMove
+     * @return Decoded move
+     */
+    public static ChessMove decodeMove(int move) {
+        int promotion = (move >> 12) & TYPE_MASK;
+        return new ChessMove(squarePosition(move & 0x3F), squarePosition((move >> 6) & 0x3F),
+                promotion == 0 ? null : PIECE_TYPES[promotion - 1]);
+    }
+
+    private static int readShort(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 8 | (bytes[offset + 1] & 0xFF);
+    }
+
+    private static void writeShort(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >> 8);
+        bytes[offset + 1] = (byte) value;
+    }
+
+    /**
+     * Reads the game over flag without decoding the board
+     * @param bytes Encoded game
+     * @return true if the encoded game is over
+     */
+    public static boolean isGameOver(byte[] bytes) {
+        return (bytes[1] & GAME_OVER) != 0;
+    }
+
+    /**
+     * @return 0-63 index of the square, counting along each row from the bottom left
+     */
+    public static int squareIndex(ChessPosition position) {
+        return (position.getRow() - 1) * 8 + (position.getColumn() - 1);
+    }
+
+    /**
+     * @return Position of the square with the given 0-63 index
+     */
+    public static ChessPosition squarePosition(int index) {
+        return new ChessPosition(index / 8 + 1, index % 8 + 1);
+    }
+}
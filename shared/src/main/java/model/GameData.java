@@ -1,6 +1,157 @@
 package model;
 
 import chess.ChessGame;
+import chess.ChessGameCodec;
 
+import java.util.Arrays;
+import java.util.Objects;
 
-public record GameData(ChessGame game, String gameName, String blackUsername, String whiteUsername, int gameID) {}
+/**
+ * A game and the players in it.
+ * <p>
+ * The game can be held in its encoded form (see ChessGameCodec), in which case it is only decoded the
+ * first time game() is called. Code that only looks at the name or players never pays for the decode.
+ */
+public final class GameData {
+    private ChessGame game;
+    private transient byte[] encodedGame;
+    private final String gameName;
+    private final String blackUsername;
+    private final String whiteUsername;
+    private final int gameID;
+
+    public GameData(ChessGame game, String gameName, String blackUsername, String whiteUsername, int gameID) {
+        this.game = game;
+        this.gameName = gameName;
+        this.blackUsername = blackUsername;
+        this.whiteUsername = whiteUsername;
+        this.gameID = gameID;
+    }
+
+    public GameData(byte[] encodedGame, String gameName, String blackUsername, String whiteUsername, int gameID) {
+        this.encodedGame = encodedGame;
+        this.gameName = gameName;
+        this.blackUsername = blackUsername;
+        this.whiteUsername = whiteUsername;
+        this.gameID = gameID;
+    }
+
+    /**
+     * @return The game, decoding it first if needed, or null if this data was loaded without it
+     */
+    public synchronized ChessGame game() {
+        if (game == null && encodedGame != null) {
+            game = ChessGameCodec.decode(encodedGame);
+            encodedGame = null;
+        }
+        return game;
+    }
+
+    /**
+     * @return The game in its encoded form, or null if this data was loaded without it. A game that
+     * has already been decoded is encoded again so any changes made to it are included.
+     */
+    public synchronized byte[] encodedGame() {
+        if (game != null) {
+            return ChessGameCodec.encode(game);
+        }
+        return encodedGame;
+    }
+
+    /**
+     * @return true if the game has been decoded (or was never encoded), so it may have been changed
+     */
+    public synchronized boolean isGameLoaded() {
+        return game != null;
+    }
+
+    /**
+     * Copies this data with new players, without decoding the game
+     * @param blackUsername New black player
+     * @param whiteUsername New white player
+     * @return Updated copy
+     */
+    public synchronized GameData withPlayers(String blackUsername, String whiteUsername) {
+        if (game != null) {
+            return new GameData(game, gameName, blackUsername, whiteUsername, gameID);
+        }
+        return new GameData(encodedGame, gameName, blackUsername, whiteUsername, gameID);
+    }
+
+    /**
+     * Copies this data, including a separate copy of the game if it has been decoded, so later
+     * changes to this game do not show up in the copy
+     * @return Copy of this data
+     */
+    public synchronized GameData snapshot() {
+        if (game != null) {
+            ChessGame copy = ChessGameCodec.decode(ChessGameCodec.encode(game));
+            return new GameData(copy, gameName, blackUsername, whiteUsername, gameID);
+        }
+        return this;
+    }
+
+    public String gameName() {
+        return gameName;
+    }
+
+    public String blackUsername() {
+        return blackUsername;
+    }
+
+    public String whiteUsername() {
+        return whiteUsername;
+    }
+
+    public int gameID() {
+        return gameID;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        GameData that = (GameData) o;
+        return gameID == that.gameID && Objects.equals(gameName, that.gameName)
+                && Objects.equals(blackUsername, that.blackUsername)
+                && Objects.equals(whiteUsername, that.whiteUsername)
+                && sameGame(that);
+    }
+
+    /**
+     * Compares the games without decoding either one in place. Two encoded games with the same bytes are
+     * the same game. Otherwise a copy is decoded just for the comparison, since the same game can be
+     * encoded more than one way (with moves still to replay, or in an older format).
+     */
+    private boolean sameGame(GameData that) {
+        Object mine = gameState();
+        Object theirs = that.gameState();
+        if (mine instanceof byte[] myBytes && theirs instanceof byte[] theirBytes && Arrays.equals(myBytes, theirBytes)) {
+            return true;
+        }
+        return Objects.equals(asGame(mine), asGame(theirs));
+    }
+
+    /**
+     * @return The decoded game if there is one, otherwise the encoded game (or null)
+     */
+    private synchronized Object gameState() {
+        return game != null ? game : encodedGame;
+    }
+
+    private static ChessGame asGame(Object state) {
+        return state instanceof byte[] bytes ? ChessGameCodec.decode(bytes) : (ChessGame) state;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(gameName, blackUsername, whiteUsername, gameID);
+    }
+
+    @Override
+    public String toString() {
+        return "GameData[gameName=" + gameName + ", blackUsername=" + blackUsername
+                + ", whiteUsername=" + whiteUsername + ", gameID=" + gameID + "]";
+    }
+}
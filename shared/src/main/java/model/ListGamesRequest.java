@@ -1,4 +1,8 @@
 package model;
 
-public record ListGamesRequest(String authToken) {
+public record ListGamesRequest(String authToken, Integer cursor, Integer limit, Boolean openSeats, String player,
+                               Boolean finished) {
+    public ListGamesRequest(String authToken) {
+        this(authToken, null, null, null, null, null);
+    }
 }
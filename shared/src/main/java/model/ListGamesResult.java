@@ -1,4 +1,7 @@
 package model;
 
-public record ListGamesResult(GameData[] games) {
+public record ListGamesResult(GameData[] games, Integer nextCursor) {
+    public ListGamesResult(GameData[] games) {
+        this(games, null);
+    }
 }
@@ -0,0 +1,296 @@
+package websocket;
+
+import chess.ChessGame;
+import chess.ChessGameCodec;
+import chess.ChessMove;
+import chess.ChessPosition;
+import websocket.commands.ConnectCommand;
+import websocket.commands.MakeMoveCommand;
+import websocket.commands.UserGameCommand;
+import websocket.messages.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact binary form of the websocket commands and messages, used by clients that ask for the
+ * SUBPROTOCOL when they connect. JSON stays the default.
+ * <p>
+ * Every frame starts with a type byte (the command or message type's ordinal). Commands follow it with
+ * the game ID. Only CONNECT carries the auth token, which the server then remembers for the session,
+ * so a move is seven bytes: type, game ID and the move packed by ChessGameCodec.encodeMove. CONNECT
+ * also carries the resume token and last move count when the client has them. LOBBY_SUBSCRIBE carries
+ * the auth token too, as a session may watch the lobby before it connects to any game; lobby commands
+ * send 0 for the game ID.
+ * Boards are sent in the ChessGameCodec format.
+ */
+public class BinaryProtocol {
+    public static final String SUBPROTOCOL = "chess-binary";
+    // Most games a lobby message can carry, as the count is an unsigned short
+    public static final int MAX_LOBBY_GAMES = 0xFFFF;
+
+    private static final int DELTA_UPDATES = 1;
+    private static final int HAS_RESUME_TOKEN = 1 << 1;
+    private static final int HAS_LAST_SEQ = 1 << 2;
+
+    private static final int GAME_OVER = 1;
+    private static final int WINNER_SHIFT = 1;
+    private static final int HAS_ROOK_MOVE = 1 << 3;
+    private static final int HAS_CAPTURE = 1 << 4;
+
+    private static final UserGameCommand.CommandType[] COMMAND_TYPES = UserGameCommand.CommandType.values();
+    private static final ServerMessage.ServerMessageType[] MESSAGE_TYPES = ServerMessage.ServerMessageType.values();
+
+    /**
+     * @param command Command to encode
+     * @return Encoded command
+     */
+    public static byte[] encodeCommand(UserGameCommand command) {
+        byte[] token = command.getCommandType() == UserGameCommand.CommandType.CONNECT
+                || command.getCommandType() == UserGameCommand.CommandType.LOBBY_SUBSCRIBE
+                ? command.getAuthToken().getBytes(StandardCharsets.UTF_8)
+                : new byte[0];
+        ConnectCommand connect = command instanceof ConnectCommand c ? c : null;
+        byte[] resumeToken = connect != null && connect.getResumeToken() != null
+                ? connect.getResumeToken().getBytes(StandardCharsets.UTF_8)
+                : new byte[0];
+        ByteBuffer buffer = ByteBuffer.allocate(12 + token.length + resumeToken.length);
+        buffer.put((byte) command.getCommandType().ordinal());
+        buffer.putInt(command.getGameID() == null ? 0 : command.getGameID());
+        switch (command.getCommandType()) {
+            case CONNECT -> {
+                int flags = connect != null && connect.wantsDeltaUpdates() ? DELTA_UPDATES : 0;
+                if (resumeToken.length > 0) {
+                    flags |= HAS_RESUME_TOKEN;
+                }
+                if (connect != null && connect.getLastSeq() != null) {
+                    flags |= HAS_LAST_SEQ;
+                }
+                buffer.put((byte) flags);
+                buffer.putShort((short) token.length);
+                buffer.put(token);
+                if ((flags & HAS_RESUME_TOKEN) != 0) {
+                    buffer.putShort((short) resumeToken.length);
+                    buffer.put(resumeToken);
+                }
+                if ((flags & HAS_LAST_SEQ) != 0) {
+                    buffer.putShort((short) connect.getLastSeq().intValue());
+                }
+            }
+            case MAKE_MOVE -> buffer.putShort((short) ChessGameCodec.encodeMove(((MakeMoveCommand) command).getMove()));
+            case LOBBY_SUBSCRIBE -> {
+                buffer.putShort((short) token.length);
+                buffer.put(token);
+            }
+            default -> { }
+        }
+        return trim(buffer);
+    }
+
+    /**
+     * @param bytes Encoded command
+     * @return Decoded command. Only CONNECT and LOBBY_SUBSCRIBE have an auth token, the server fills in
+     * the one the session connected with for every other command.
+     * @throws IllegalArgumentException if the bytes are not a command
+     */
+    public static UserGameCommand decodeCommand(byte[] bytes) {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            UserGameCommand.CommandType type = COMMAND_TYPES[buffer.get()];
+            int gameID = buffer.getInt();
+            return switch (type) {
+                case CONNECT -> {
+                    int flags = buffer.get();
+                    String token = decodeShortString(buffer);
+                    String resumeToken = (flags & HAS_RESUME_TOKEN) != 0 ? decodeShortString(buffer) : null;
+                    Integer lastSeq = (flags & HAS_LAST_SEQ) != 0 ? buffer.getShort() & 0xFFFF : null;
+                    yield new ConnectCommand(token, gameID, (flags & DELTA_UPDATES) != 0, resumeToken, lastSeq);
+                }
+                case MAKE_MOVE -> new MakeMoveCommand(null, gameID,
+                        ChessGameCodec.decodeMove(buffer.getShort() & 0xFFFF));
+                case LOBBY_SUBSCRIBE -> new UserGameCommand(type, decodeShortString(buffer), null);
+                case LOBBY_UNSUBSCRIBE -> new UserGameCommand(type, null, null);
+                default -> new UserGameCommand(type, null, gameID);
+            };
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Malformed command frame", e);
+        }
+    }
+
+    /**
+     * @param message Message to encode
+     * @return Encoded message
+     */
+    public static byte[] encodeMessage(ServerMessage message) {
+        byte type = (byte) message.getServerMessageType().ordinal();
+        return switch (message.getServerMessageType()) {
+            case LOAD_GAME -> {
+                byte[] game = ChessGameCodec.encode(((LoadGameMessage) message).getGame());
+                yield trim(ByteBuffer.allocate(1 + game.length).put(type).put(game));
+            }
+            case MOVE -> encodeMove(type, (MoveMessage) message);
+            case NOTIFICATION -> encodeText(type, ((NotificationMessage) message).getMessage());
+            case ERROR -> encodeText(type, ((ErrorMessage) message).getErrorMessage());
+            case LOBBY -> encodeLobby(type, (LobbyMessage) message);
+        };
+    }
+
+    /**
+     * @param bytes Encoded message
+     * @return Decoded message
+     * @throws IllegalArgumentException if the bytes are not a message
+     */
+    public static ServerMessage decodeMessage(byte[] bytes) {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            ServerMessage.ServerMessageType type = MESSAGE_TYPES[buffer.get()];
+            return switch (type) {
+                case LOAD_GAME -> {
+                    byte[] game = new byte[buffer.remaining()];
+                    buffer.get(game);
+                    yield new LoadGameMessage(ChessGameCodec.decode(game));
+                }
+                case MOVE -> decodeMove(buffer);
+                case NOTIFICATION -> new NotificationMessage(decodeText(buffer));
+                case ERROR -> new ErrorMessage(decodeText(buffer));
+                case LOBBY -> decodeLobby(buffer);
+            };
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Malformed message frame", e);
+        }
+    }
+
+    private static byte[] encodeMove(byte type, MoveMessage message) {
+        int flags = message.isGameOver() ? GAME_OVER : 0;
+        if (message.getWinner() != null) {
+            flags |= (message.getWinner().ordinal() + 1) << WINNER_SHIFT;
+        }
+        if (message.getRookMove() != null) {
+            flags |= HAS_ROOK_MOVE;
+        }
+        if (message.getCapturedPosition() != null) {
+            flags |= HAS_CAPTURE;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(9);
+        buffer.put(type);
+        buffer.putShort((short) message.getSeq());
+        buffer.putShort((short) ChessGameCodec.encodeMove(message.getMove()));
+        buffer.put((byte) flags);
+        if (message.getRookMove() != null) {
+            buffer.putShort((short) ChessGameCodec.encodeMove(message.getRookMove()));
+        }
+        if (message.getCapturedPosition() != null) {
+            buffer.put((byte) ChessGameCodec.squareIndex(message.getCapturedPosition()));
+        }
+        return trim(buffer);
+    }
+
+    private static MoveMessage decodeMove(ByteBuffer buffer) {
+        int seq = buffer.getShort() & 0xFFFF;
+        ChessMove move = ChessGameCodec.decodeMove(buffer.getShort() & 0xFFFF);
+        int flags = buffer.get();
+        ChessMove rookMove = (flags & HAS_ROOK_MOVE) != 0
+                ? ChessGameCodec.decodeMove(buffer.getShort() & 0xFFFF)
+                : null;
+        ChessPosition captured = (flags & HAS_CAPTURE) != 0
+                ? ChessGameCodec.squarePosition(buffer.get())
+                : null;
+        int winner = (flags >> WINNER_SHIFT) & 0x3;
+        return new MoveMessage(seq, move, rookMove, captured, (flags & GAME_OVER) != 0,
+                winner == 0 ? null : ChessGame.TeamColor.values()[winner - 1]);
+    }
+
+    private static byte[] encodeLobby(byte type, LobbyMessage message) {
+        // The game count is an unsigned short, followed by the next cursor (-1 for none). Each game is its
+        // ID, a finished byte and three strings, each with a short length. A length of -1 stands for a
+        // null string.
+        LobbyMessage.Game[] games = message.getGames();
+        if (games.length > MAX_LOBBY_GAMES) {
+            throw new IllegalArgumentException(String.format("Lobby message has %d games, at most %d fit",
+                    games.length, MAX_LOBBY_GAMES));
+        }
+        byte[][] strings = new byte[games.length * 3][];
+        int size = 8;
+        for (int i = 0; i < games.length; i++) {
+            strings[i * 3] = nullableBytes(games[i].gameName());
+            strings[i * 3 + 1] = nullableBytes(games[i].whiteUsername());
+            strings[i * 3 + 2] = nullableBytes(games[i].blackUsername());
+            size += 5 + 6;
+            for (int j = 0; j < 3; j++) {
+                size += strings[i * 3 + j] == null ? 0 : strings[i * 3 + j].length;
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(type);
+        buffer.put((byte) message.getEvent().ordinal());
+        buffer.putShort((short) games.length);
+        buffer.putInt(message.getNextCursor() == null ? -1 : message.getNextCursor());
+        for (int i = 0; i < games.length; i++) {
+            buffer.putInt(games[i].gameID());
+            buffer.put((byte) (games[i].finished() ? 1 : 0));
+            for (int j = 0; j < 3; j++) {
+                byte[] bytes = strings[i * 3 + j];
+                buffer.putShort((short) (bytes == null ? -1 : bytes.length));
+                if (bytes != null) {
+                    buffer.put(bytes);
+                }
+            }
+        }
+        return trim(buffer);
+    }
+
+    private static LobbyMessage decodeLobby(ByteBuffer buffer) {
+        LobbyMessage.Event event = LobbyMessage.Event.values()[buffer.get()];
+        LobbyMessage.Game[] games = new LobbyMessage.Game[buffer.getShort() & 0xFFFF];
+        int cursor = buffer.getInt();
+        for (int i = 0; i < games.length; i++) {
+            int gameID = buffer.getInt();
+            boolean finished = buffer.get() != 0;
+            String gameName = decodeNullableString(buffer);
+            String whiteUsername = decodeNullableString(buffer);
+            String blackUsername = decodeNullableString(buffer);
+            games[i] = new LobbyMessage.Game(gameID, gameName, whiteUsername, blackUsername, finished);
+        }
+        return new LobbyMessage(event, games, cursor < 0 ? null : cursor);
+    }
+
+    private static byte[] nullableBytes(String text) {
+        return text == null ? null : text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String decodeNullableString(ByteBuffer buffer) {
+        int length = buffer.getShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] encodeText(byte type, String text) {
+        byte[] bytes = text == null ? new byte[0] : text.getBytes(StandardCharsets.UTF_8);
+        return trim(ByteBuffer.allocate(1 + bytes.length).put(type).put(bytes));
+    }
+
+    private static String decodeText(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String decodeShortString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] trim(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.position()];
+        buffer.flip();
+        buffer.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,144 @@
+package websocket;
+
+import chess.ChessGame;
+import com.google.gson.*;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import websocket.commands.ConnectCommand;
+import websocket.commands.MakeMoveCommand;
+import websocket.commands.UserGameCommand;
+import websocket.messages.*;
+
+import java.io.IOException;
+
+/**
+ * JSON form of the websocket commands and messages.
+ * <p>
+ * Reading a UserGameCommand or ServerMessage parses the frame once and builds the right subclass
+ * straight away, based on its commandType or serverMessageType field, wherever the field is in the
+ * frame. Writing one puts that field first. GSON is thread safe and shared by the server and client.
+ */
+public class WebSocketJson {
+    public static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapter(ChessGame.class, new ChessGame.ChessGameAdapter())
+            .registerTypeAdapter(ChessGame.class, new ChessGame.ChessGameDeserializer())
+            .registerTypeAdapterFactory(new PolymorphicFactory())
+            .create();
+
+    /**
+     * Picks the adapter for the concrete class of a command or message from its type field. Subclasses
+     * are handled here too, so they are written with the type first whichever class they are written as.
+     */
+    private static class PolymorphicFactory implements TypeAdapterFactory {
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+            if (UserGameCommand.class.isAssignableFrom(type.getRawType())) {
+                return (TypeAdapter<T>) new DispatchingAdapter<UserGameCommand>(gson, this, "commandType") {
+                    @Override
+                    String typeName(UserGameCommand value) {
+                        return value.getCommandType() == null ? null : value.getCommandType().name();
+                    }
+
+                    @Override
+                    Class<? extends UserGameCommand> subtype(String name) {
+                        return switch (UserGameCommand.CommandType.valueOf(name)) {
+                            case CONNECT -> ConnectCommand.class;
+                            case MAKE_MOVE -> MakeMoveCommand.class;
+                            default -> UserGameCommand.class;
+                        };
+                    }
+                };
+            }
+            if (ServerMessage.class.isAssignableFrom(type.getRawType())) {
+                return (TypeAdapter<T>) new DispatchingAdapter<ServerMessage>(gson, this, "serverMessageType") {
+                    @Override
+                    String typeName(ServerMessage value) {
+                        return value.getServerMessageType() == null ? null : value.getServerMessageType().name();
+                    }
+
+                    @Override
+                    Class<? extends ServerMessage> subtype(String name) {
+                        return switch (ServerMessage.ServerMessageType.valueOf(name)) {
+                            case LOAD_GAME -> LoadGameMessage.class;
+                            case ERROR -> ErrorMessage.class;
+                            case NOTIFICATION -> NotificationMessage.class;
+                            case MOVE -> MoveMessage.class;
+                            case LOBBY -> LobbyMessage.class;
+                        };
+                    }
+                };
+            }
+            return null;
+        }
+    }
+
+    private abstract static class DispatchingAdapter<T> extends TypeAdapter<T> {
+        private final Gson gson;
+        private final TypeAdapterFactory skipPast;
+        private final String typeField;
+
+        DispatchingAdapter(Gson gson, TypeAdapterFactory skipPast, String typeField) {
+            this.gson = gson;
+            this.skipPast = skipPast;
+            this.typeField = typeField;
+        }
+
+        /**
+         * @return Name of the value's type, or null if it has none
+         */
+        abstract String typeName(T value);
+
+        abstract Class<? extends T> subtype(String name);
+
+        @Override
+        public void write(JsonWriter out, T value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            // Put the type field ahead of the fields the class's own adapter writes
+            JsonObject fields = adapterFor(value.getClass()).toJsonTree(value).getAsJsonObject();
+            JsonObject tree = new JsonObject();
+            String typeName = typeName(value);
+            if (typeName != null) {
+                tree.addProperty(typeField, typeName);
+            }
+            for (var field : fields.entrySet()) {
+                if (!field.getKey().equals(typeField)) {
+                    tree.add(field.getKey(), field.getValue());
+                }
+            }
+            gson.getAdapter(JsonElement.class).write(out, tree);
+        }
+
+        @Override
+        public T read(JsonReader in) throws IOException {
+            JsonElement tree = JsonParser.parseReader(in);
+            if (tree.isJsonNull()) {
+                return null;
+            }
+            if (!tree.isJsonObject()) {
+                throw new JsonParseException("Expected an object with a " + typeField);
+            }
+            JsonElement typeName = tree.getAsJsonObject().get(typeField);
+            if (typeName == null || typeName.isJsonNull()) {
+                throw new JsonParseException("Missing " + typeField);
+            }
+            Class<? extends T> subtype;
+            try {
+                subtype = subtype(typeName.getAsString());
+            } catch (IllegalArgumentException e) {
+                throw new JsonParseException("Unknown " + typeField + ": " + typeName.getAsString());
+            }
+            return adapterFor(subtype).fromJsonTree(tree);
+        }
+
+        @SuppressWarnings("unchecked")
+        private TypeAdapter<T> adapterFor(Class<?> type) {
+            // Every one of these classes would come back to this adapter, so skip past the factory
+            return (TypeAdapter<T>) gson.getDelegateAdapter(skipPast, TypeToken.get(type));
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package websocket.commands;
+
+public class ConnectCommand extends UserGameCommand {
+
+    boolean deltaUpdates;
+    String resumeToken;
+    Integer lastSeq;
+
+    /**
+     * @param deltaUpdates If true, moves in the game are sent as MOVE messages instead of a full LOAD_GAME
+     */
+    public ConnectCommand(String authToken, Integer gameID, boolean deltaUpdates) {
+        this(authToken, gameID, deltaUpdates, null, null);
+    }
+
+    /**
+     * @param deltaUpdates If true, moves in the game are sent as MOVE messages instead of a full LOAD_GAME
+     * @param resumeToken Token the client picked to resume this connection with after a drop, or null
+     * @param lastSeq Move count of the last board the client saw, when it is resuming. Null on a first connect.
+     */
+    public ConnectCommand(String authToken, Integer gameID, boolean deltaUpdates, String resumeToken, Integer lastSeq) {
+        super(CommandType.CONNECT, authToken, gameID);
+        this.deltaUpdates = deltaUpdates;
+        this.resumeToken = resumeToken;
+        this.lastSeq = lastSeq;
+    }
+
+    public boolean wantsDeltaUpdates() {
+        return deltaUpdates;
+    }
+
+    public String getResumeToken() {
+        return resumeToken;
+    }
+
+    public Integer getLastSeq() {
+        return lastSeq;
+    }
+
+    /**
+     * @return true if this connect is picking up a dropped connection
+     */
+    public boolean isResume() {
+        return resumeToken != null && lastSeq != null;
+    }
+}
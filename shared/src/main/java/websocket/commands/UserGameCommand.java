@@ -26,7 +26,11 @@ public class UserGameCommand {
         CONNECT,
         MAKE_MOVE,
         LEAVE,
-        RESIGN
+        RESIGN,
+        SYNC,
+        // Lobby commands are not about one game, so they have no game ID
+        LOBBY_SUBSCRIBE,
+        LOBBY_UNSUBSCRIBE
     }
 
     public CommandType getCommandType() {
@@ -0,0 +1,58 @@
+package websocket.messages;
+
+/**
+ * Change to the list of games, sent to sessions that subscribed to the lobby.
+ * <p>
+ * A subscriber first gets a SNAPSHOT of the games that have not finished, and then one message per
+ * change. Applying each change's games over the snapshot, keyed by gameID, keeps the client's list
+ * current, and a GAME_FINISHED game leaves the list. A later SNAPSHOT (sent when every game is cleared)
+ * replaces the whole list.
+ * <p>
+ * A snapshot only holds the first page of games. When there are more, nextCursor is the ID to list the
+ * unfinished games after over HTTP.
+ */
+public class LobbyMessage extends ServerMessage {
+
+    public enum Event {
+        SNAPSHOT,
+        GAME_CREATED,
+        SEATS_CHANGED,
+        GAME_FINISHED
+    }
+
+    /**
+     * What the lobby shows of a game
+     */
+    public record Game(int gameID, String gameName, String whiteUsername, String blackUsername, boolean finished) {
+    }
+
+    Event event;
+    Game[] games;
+    Integer nextCursor;
+
+    public LobbyMessage(Event event, Game... games) {
+        this(event, games, null);
+    }
+
+    /**
+     * @param nextCursor ID to list the rest of the games after, or null if these are all of them
+     */
+    public LobbyMessage(Event event, Game[] games, Integer nextCursor) {
+        super(ServerMessageType.LOBBY);
+        this.event = event;
+        this.games = games;
+        this.nextCursor = nextCursor;
+    }
+
+    public Event getEvent() {
+        return event;
+    }
+
+    public Game[] getGames() {
+        return games;
+    }
+
+    public Integer getNextCursor() {
+        return nextCursor;
+    }
+}
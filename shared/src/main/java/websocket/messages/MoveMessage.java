@@ -0,0 +1,64 @@
+package websocket.messages;
+
+import chess.ChessGame;
+import chess.ChessMove;
+import chess.ChessPosition;
+
+/**
+ * A single move made in a game, sent instead of a full LOAD_GAME to clients that asked for deltas.
+ * <p>
+ * seq is the game's move count after the move, so a client that has applied every earlier move will
+ * have a move count of seq - 1. A client that sees any other value has missed a move, and should
+ * send a SYNC command to get the whole game again.
+ */
+public class MoveMessage extends ServerMessage {
+
+    int seq;
+    ChessMove move;
+    // Side effects of the move, so clients can animate or check it without running the rules
+    ChessMove rookMove;
+    ChessPosition capturedPosition;
+    boolean gameOver;
+    ChessGame.TeamColor winner;
+
+    public MoveMessage(int seq, ChessMove move, ChessMove rookMove, ChessPosition capturedPosition,
+                       boolean gameOver, ChessGame.TeamColor winner) {
+        super(ServerMessageType.MOVE);
+        this.seq = seq;
+        this.move = move;
+        this.rookMove = rookMove;
+        this.capturedPosition = capturedPosition;
+        this.gameOver = gameOver;
+        this.winner = winner;
+    }
+
+    public int getSeq() {
+        return seq;
+    }
+
+    public ChessMove getMove() {
+        return move;
+    }
+
+    /**
+     * @return The rook's move if this move was castling, otherwise null
+     */
+    public ChessMove getRookMove() {
+        return rookMove;
+    }
+
+    /**
+     * @return Square of the captured piece (which differs from the end square for en passant), or null
+     */
+    public ChessPosition getCapturedPosition() {
+        return capturedPosition;
+    }
+
+    public boolean isGameOver() {
+        return gameOver;
+    }
+
+    public ChessGame.TeamColor getWinner() {
+        return winner;
+    }
+}
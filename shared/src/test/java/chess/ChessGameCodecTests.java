@@ -0,0 +1,119 @@
+package chess;
+
+import model.GameData;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class ChessGameCodecTests {
+
+    private static ChessMove move(String from, String to) {
+        return new ChessMove(position(from), position(to), null);
+    }
+
+    private static ChessPosition position(String square) {
+        return new ChessPosition(square.charAt(1) - '0', square.charAt(0) - 'a' + 1);
+    }
+
+    private static ChessGame played(ChessMove... moves) throws InvalidMoveException {
+        ChessGame game = new ChessGame();
+        for (ChessMove move : moves) {
+            game.makeMove(move);
+        }
+        return game;
+    }
+
+    @Test
+    @DisplayName("New game round trip")
+    public void newGameRoundTrip() {
+        ChessGame game = new ChessGame();
+        ChessGame decoded = ChessGameCodec.decode(ChessGameCodec.encode(game));
+
+        Assertions.assertEquals(game, decoded);
+        Assertions.assertEquals(ChessGame.TeamColor.WHITE, decoded.getTeamTurn());
+        Assertions.assertEquals(0, decoded.getMoveCount());
+        Assertions.assertFalse(decoded.isGameOver());
+    }
+
+    @Test
+    @DisplayName("Played game round trip")
+    public void playedGameRoundTrip() throws InvalidMoveException {
+        ChessGame game = played(move("e2", "e4"), move("d7", "d5"), move("e4", "d5"));
+        ChessGame decoded = ChessGameCodec.decode(ChessGameCodec.encode(game));
+
+        Assertions.assertEquals(game, decoded);
+        Assertions.assertEquals(3, decoded.getMoveCount());
+        Assertions.assertEquals(ChessGame.TeamColor.BLACK, decoded.getTeamTurn());
+        // Moved pieces keep their flags, so castling and en passant still work after decoding
+        Assertions.assertEquals(game.validMoves(position("e1")), decoded.validMoves(position("e1")));
+    }
+
+    @Test
+    @DisplayName("Finished game round trip")
+    public void finishedGameRoundTrip() {
+        ChessGame game = new ChessGame();
+        game.markWinner(ChessGame.TeamColor.BLACK);
+        byte[] encoded = ChessGameCodec.encode(game);
+        ChessGame decoded = ChessGameCodec.decode(encoded);
+
+        Assertions.assertTrue(ChessGameCodec.isGameOver(encoded));
+        Assertions.assertTrue(decoded.isGameOver());
+        Assertions.assertEquals(ChessGame.TeamColor.BLACK, decoded.getWinner());
+    }
+
+    @Test
+    @DisplayName("Appended moves are replayed")
+    public void appendedMoves() throws InvalidMoveException {
+        ChessMove first = move("g1", "f3");
+        ChessMove second = move("b8", "c6");
+        byte[] encoded = ChessGameCodec.appendMoves(ChessGameCodec.encode(new ChessGame()),
+                new int[] {ChessGameCodec.encodeMove(first), ChessGameCodec.encodeMove(second)});
+
+        ChessGame decoded = ChessGameCodec.decode(encoded);
+        Assertions.assertEquals(played(first, second), decoded);
+        Assertions.assertEquals(2, decoded.getMoveCount());
+    }
+
+    @Test
+    @DisplayName("Comparing game data leaves it encoded")
+    public void compareEncodedGameData() throws InvalidMoveException {
+        ChessMove first = move("g1", "f3");
+        ChessMove second = move("b8", "c6");
+        byte[] snapshot = ChessGameCodec.encode(played(first, second));
+        byte[] logged = ChessGameCodec.appendMoves(ChessGameCodec.encode(new ChessGame()),
+                new int[] {ChessGameCodec.encodeMove(first), ChessGameCodec.encodeMove(second)});
+
+        GameData encoded = new GameData(snapshot, "game", null, null, 1);
+        GameData sameBytes = new GameData(snapshot.clone(), "game", null, null, 1);
+        GameData replayed = new GameData(logged, "game", null, null, 1);
+        GameData loaded = new GameData(played(first, second), "game", null, null, 1);
+        Assertions.assertEquals(encoded, sameBytes);
+        Assertions.assertEquals(encoded, replayed, "The same game encoded two ways was not equal");
+        Assertions.assertEquals(loaded, encoded);
+        Assertions.assertEquals(encoded.hashCode(), loaded.hashCode());
+        Assertions.assertNotEquals(encoded, new GameData(ChessGameCodec.encode(new ChessGame()), "game", null, null, 1));
+        for (GameData data : new GameData[] {encoded, sameBytes, replayed}) {
+            Assertions.assertFalse(data.isGameLoaded(), "Comparing decoded the game in place");
+        }
+    }
+
+    @Test
+    @DisplayName("Move round trip")
+    public void moveRoundTrip() {
+        ChessMove plain = move("a2", "a4");
+        ChessMove promotion = new ChessMove(position("h7"), position("h8"), ChessPiece.PieceType.KNIGHT);
+
+        Assertions.assertEquals(plain, ChessGameCodec.decodeMove(ChessGameCodec.encodeMove(plain)));
+        Assertions.assertEquals(promotion, ChessGameCodec.decodeMove(ChessGameCodec.encodeMove(promotion)));
+        for (int i = 0; i < 64; i++) {
+            Assertions.assertEquals(i, ChessGameCodec.squareIndex(ChessGameCodec.squarePosition(i)));
+        }
+    }
+
+    @Test
+    @DisplayName("Unknown encoding")
+    public void unknownEncoding() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> ChessGameCodec.decode(new byte[] {99, 0, 0}));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> ChessGameCodec.decode(new byte[] {ChessGameCodec.VERSION, 0, 0, 0, 32}));
+    }
+}
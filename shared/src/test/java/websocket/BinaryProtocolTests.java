@@ -0,0 +1,156 @@
+package websocket;
+
+import chess.ChessGame;
+import chess.ChessMove;
+import chess.ChessPiece;
+import chess.ChessPosition;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import websocket.commands.ConnectCommand;
+import websocket.commands.MakeMoveCommand;
+import websocket.commands.UserGameCommand;
+import websocket.messages.*;
+
+import java.util.Arrays;
+
+public class BinaryProtocolTests {
+
+    private static final ChessMove MOVE = new ChessMove(new ChessPosition(7, 1), new ChessPosition(8, 1),
+            ChessPiece.PieceType.QUEEN);
+
+    private static UserGameCommand roundTrip(UserGameCommand command) {
+        return BinaryProtocol.decodeCommand(BinaryProtocol.encodeCommand(command));
+    }
+
+    private static ServerMessage roundTrip(ServerMessage message) {
+        return BinaryProtocol.decodeMessage(BinaryProtocol.encodeMessage(message));
+    }
+
+    @Test
+    @DisplayName("Connect round trip")
+    public void connectRoundTrip() {
+        ConnectCommand decoded = (ConnectCommand) roundTrip(new ConnectCommand("token", 12, true));
+
+        Assertions.assertEquals(UserGameCommand.CommandType.CONNECT, decoded.getCommandType());
+        Assertions.assertEquals("token", decoded.getAuthToken());
+        Assertions.assertEquals(12, decoded.getGameID());
+        Assertions.assertTrue(decoded.wantsDeltaUpdates());
+        Assertions.assertFalse(decoded.isResume());
+    }
+
+    @Test
+    @DisplayName("Resume round trip")
+    public void resumeRoundTrip() {
+        ConnectCommand decoded = (ConnectCommand) roundTrip(new ConnectCommand("token", 3, false, "resume", 41));
+
+        Assertions.assertEquals("resume", decoded.getResumeToken());
+        Assertions.assertEquals(41, decoded.getLastSeq());
+        Assertions.assertFalse(decoded.wantsDeltaUpdates());
+        Assertions.assertTrue(decoded.isResume());
+    }
+
+    @Test
+    @DisplayName("Commands after connect leave out the auth token")
+    public void commandsWithoutToken() {
+        MakeMoveCommand move = (MakeMoveCommand) roundTrip(new MakeMoveCommand("token", 5, MOVE));
+        Assertions.assertNull(move.getAuthToken());
+        Assertions.assertEquals(5, move.getGameID());
+        Assertions.assertEquals(MOVE, move.getMove());
+
+        for (UserGameCommand.CommandType type : new UserGameCommand.CommandType[] {
+                UserGameCommand.CommandType.LEAVE, UserGameCommand.CommandType.RESIGN, UserGameCommand.CommandType.SYNC}) {
+            Assertions.assertEquals(new UserGameCommand(type, null, 5), roundTrip(new UserGameCommand(type, "token", 5)));
+        }
+    }
+
+    @Test
+    @DisplayName("Lobby command round trip")
+    public void lobbyRoundTrip() {
+        Assertions.assertEquals(new UserGameCommand(UserGameCommand.CommandType.LOBBY_SUBSCRIBE, "token", null),
+                roundTrip(new UserGameCommand(UserGameCommand.CommandType.LOBBY_SUBSCRIBE, "token", null)));
+        Assertions.assertEquals(new UserGameCommand(UserGameCommand.CommandType.LOBBY_UNSUBSCRIBE, null, null),
+                roundTrip(new UserGameCommand(UserGameCommand.CommandType.LOBBY_UNSUBSCRIBE, "token", null)));
+    }
+
+    @Test
+    @DisplayName("Move is seven bytes")
+    public void moveSize() {
+        Assertions.assertEquals(7, BinaryProtocol.encodeCommand(new MakeMoveCommand("token", 5, MOVE)).length);
+    }
+
+    @Test
+    @DisplayName("Malformed command")
+    public void malformedCommand() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> BinaryProtocol.decodeCommand(new byte[] {1, 0}));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> BinaryProtocol.decodeCommand(new byte[] {100, 0, 0, 0, 1}));
+    }
+
+    @Test
+    @DisplayName("Load game round trip")
+    public void loadGameRoundTrip() {
+        ChessGame game = new ChessGame();
+        LoadGameMessage decoded = (LoadGameMessage) roundTrip(new LoadGameMessage(game));
+        Assertions.assertEquals(game, decoded.getGame());
+    }
+
+    @Test
+    @DisplayName("Move message round trip")
+    public void moveMessageRoundTrip() {
+        ChessMove rookMove = new ChessMove(new ChessPosition(1, 8), new ChessPosition(1, 6), null);
+        ChessPosition captured = new ChessPosition(5, 4);
+        MoveMessage decoded = (MoveMessage) roundTrip(new MoveMessage(300, MOVE, rookMove, captured,
+                true, ChessGame.TeamColor.WHITE));
+
+        Assertions.assertEquals(300, decoded.getSeq());
+        Assertions.assertEquals(MOVE, decoded.getMove());
+        Assertions.assertEquals(rookMove, decoded.getRookMove());
+        Assertions.assertEquals(captured, decoded.getCapturedPosition());
+        Assertions.assertTrue(decoded.isGameOver());
+        Assertions.assertEquals(ChessGame.TeamColor.WHITE, decoded.getWinner());
+
+        MoveMessage plain = (MoveMessage) roundTrip(new MoveMessage(1, MOVE, null, null, false, null));
+        Assertions.assertNull(plain.getRookMove());
+        Assertions.assertNull(plain.getCapturedPosition());
+        Assertions.assertNull(plain.getWinner());
+    }
+
+    @Test
+    @DisplayName("Text message round trip")
+    public void textRoundTrip() {
+        Assertions.assertEquals("white joined ♚",
+                ((NotificationMessage) roundTrip(new NotificationMessage("white joined ♚"))).getMessage());
+        Assertions.assertEquals("Not your turn",
+                ((ErrorMessage) roundTrip(new ErrorMessage("Not your turn"))).getErrorMessage());
+    }
+
+    @Test
+    @DisplayName("Lobby message round trip")
+    public void lobbyMessageRoundTrip() {
+        LobbyMessage.Game open = new LobbyMessage.Game(1, "open", "white", null, false);
+        LobbyMessage.Game done = new LobbyMessage.Game(2, "done", "white", "black", true);
+        LobbyMessage decoded = (LobbyMessage) roundTrip(new LobbyMessage(LobbyMessage.Event.SNAPSHOT, open, done));
+
+        Assertions.assertEquals(LobbyMessage.Event.SNAPSHOT, decoded.getEvent());
+        Assertions.assertArrayEquals(new LobbyMessage.Game[] {open, done}, decoded.getGames());
+        Assertions.assertNull(decoded.getNextCursor());
+
+        LobbyMessage page = (LobbyMessage) roundTrip(
+                new LobbyMessage(LobbyMessage.Event.SNAPSHOT, new LobbyMessage.Game[] {open}, 1));
+        Assertions.assertEquals(1, page.getNextCursor());
+    }
+
+    @Test
+    @DisplayName("Lobby message too large")
+    public void lobbyMessageTooLarge() {
+        LobbyMessage.Game[] games = new LobbyMessage.Game[BinaryProtocol.MAX_LOBBY_GAMES + 1];
+        Arrays.fill(games, new LobbyMessage.Game(1, "game", null, null, false));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> BinaryProtocol.encodeMessage(new LobbyMessage(LobbyMessage.Event.SNAPSHOT, games)));
+
+        // The largest count that fits still round trips
+        LobbyMessage decoded = (LobbyMessage) roundTrip(new LobbyMessage(LobbyMessage.Event.SNAPSHOT,
+                Arrays.copyOf(games, BinaryProtocol.MAX_LOBBY_GAMES)));
+        Assertions.assertEquals(BinaryProtocol.MAX_LOBBY_GAMES, decoded.getGames().length);
+    }
+}
@@ -0,0 +1,103 @@
+package websocket;
+
+import chess.ChessGame;
+import chess.ChessMove;
+import chess.ChessPiece;
+import chess.ChessPosition;
+import chess.InvalidMoveException;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import websocket.commands.ConnectCommand;
+import websocket.commands.MakeMoveCommand;
+import websocket.commands.UserGameCommand;
+import websocket.messages.*;
+
+public class WebSocketJsonTests {
+
+    private static final ChessMove MOVE = new ChessMove(new ChessPosition(7, 1), new ChessPosition(8, 1),
+            ChessPiece.PieceType.QUEEN);
+
+    private static UserGameCommand roundTrip(UserGameCommand command) {
+        return WebSocketJson.GSON.fromJson(WebSocketJson.GSON.toJson(command), UserGameCommand.class);
+    }
+
+    private static ServerMessage roundTrip(ServerMessage message) {
+        return WebSocketJson.GSON.fromJson(WebSocketJson.GSON.toJson(message), ServerMessage.class);
+    }
+
+    @Test
+    @DisplayName("Type written first")
+    public void typeWrittenFirst() {
+        String command = WebSocketJson.GSON.toJson(new MakeMoveCommand("token", 3, MOVE));
+        Assertions.assertTrue(command.startsWith("{\"commandType\":\"MAKE_MOVE\","), command);
+        Assertions.assertEquals(1, command.split("commandType").length - 1, "Type was written twice");
+
+        String message = WebSocketJson.GSON.toJson(new NotificationMessage("hello"));
+        Assertions.assertEquals("{\"serverMessageType\":\"NOTIFICATION\",\"message\":\"hello\"}", message);
+    }
+
+    @Test
+    @DisplayName("Command round trips")
+    public void commandRoundTrips() {
+        UserGameCommand move = roundTrip(new MakeMoveCommand("token", 3, MOVE));
+        Assertions.assertInstanceOf(MakeMoveCommand.class, move);
+        Assertions.assertEquals(MOVE, ((MakeMoveCommand) move).getMove());
+        Assertions.assertEquals("token", move.getAuthToken());
+        Assertions.assertEquals(3, move.getGameID());
+
+        UserGameCommand connect = roundTrip(new ConnectCommand("token", 4, true, "resume", 12));
+        Assertions.assertInstanceOf(ConnectCommand.class, connect);
+        Assertions.assertTrue(((ConnectCommand) connect).wantsDeltaUpdates());
+        Assertions.assertEquals("resume", ((ConnectCommand) connect).getResumeToken());
+        Assertions.assertEquals(12, ((ConnectCommand) connect).getLastSeq());
+
+        UserGameCommand leave = roundTrip(new UserGameCommand(UserGameCommand.CommandType.LEAVE, "token", 5));
+        Assertions.assertEquals(UserGameCommand.class, leave.getClass());
+        Assertions.assertEquals(new UserGameCommand(UserGameCommand.CommandType.LEAVE, "token", 5), leave);
+    }
+
+    @Test
+    @DisplayName("Message round trips")
+    public void messageRoundTrips() throws InvalidMoveException {
+        ChessGame game = new ChessGame();
+        game.makeMove(new ChessMove(new ChessPosition(2, 5), new ChessPosition(4, 5), null));
+        ServerMessage load = roundTrip(new LoadGameMessage(game));
+        Assertions.assertInstanceOf(LoadGameMessage.class, load);
+        Assertions.assertEquals(game.getBoard(), ((LoadGameMessage) load).getGame().getBoard());
+        Assertions.assertEquals(ChessGame.TeamColor.BLACK, ((LoadGameMessage) load).getGame().getTeamTurn());
+
+        ServerMessage error = roundTrip(new ErrorMessage("Error: bad"));
+        Assertions.assertEquals("Error: bad", ((ErrorMessage) error).getErrorMessage());
+
+        ServerMessage note = roundTrip(new NotificationMessage("hello"));
+        Assertions.assertEquals("hello", ((NotificationMessage) note).getMessage());
+    }
+
+    @Test
+    @DisplayName("Type after other fields")
+    public void typeAfterOtherFields() {
+        // A plain Gson writes a subclass's own fields before the type
+        String json = new Gson().toJson(new MakeMoveCommand("token", 3, MOVE));
+        Assertions.assertFalse(json.startsWith("{\"commandType\""), json);
+
+        UserGameCommand command = WebSocketJson.GSON.fromJson(json, UserGameCommand.class);
+        Assertions.assertInstanceOf(MakeMoveCommand.class, command);
+        Assertions.assertEquals(MOVE, ((MakeMoveCommand) command).getMove());
+        Assertions.assertEquals("token", command.getAuthToken());
+    }
+
+    @Test
+    @DisplayName("Missing or unknown type")
+    public void badType() {
+        Assertions.assertThrows(JsonParseException.class,
+                () -> WebSocketJson.GSON.fromJson("{\"authToken\":\"token\",\"gameID\":3}", UserGameCommand.class));
+        Assertions.assertThrows(JsonParseException.class,
+                () -> WebSocketJson.GSON.fromJson("{\"commandType\":\"DANCE\",\"gameID\":3}", UserGameCommand.class));
+        Assertions.assertThrows(JsonParseException.class,
+                () -> WebSocketJson.GSON.fromJson("[\"MAKE_MOVE\"]", UserGameCommand.class));
+        Assertions.assertNull(WebSocketJson.GSON.fromJson("null", UserGameCommand.class));
+    }
+}